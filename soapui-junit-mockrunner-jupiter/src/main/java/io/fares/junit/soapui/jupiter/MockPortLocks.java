@@ -0,0 +1,107 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.jupiter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.junit.jupiter.api.parallel.ResourceAccessMode;
+import org.junit.jupiter.api.parallel.ResourceLocksProvider;
+import org.junit.platform.commons.support.AnnotationSupport;
+
+/**
+ * Declares a resource lock on the port of the mock a test class uses. Classes
+ * sharing a mock take the lock in read mode and run in parallel, tests that
+ * must have the port for themselves, e.g. because they change what the mock
+ * returns, declare <code>&#064;ResourceLock(MockPortLocks.PREFIX + port)</code>
+ * to run isolated. If the annotation leaves the port to the project, the port
+ * is read from the mock service in the project.
+ */
+public class MockPortLocks implements ResourceLocksProvider {
+
+	/**
+	 * The prefix of the lock keys, followed by the port number or, if the
+	 * port cannot be read from the project, by the project and the mock
+	 * service name
+	 */
+	public static final String PREFIX = "soapui.mock.port:";
+
+	private static final Set<String> MOCK_SERVICES = new HashSet<>(
+			Arrays.asList("mockService", "restMockService"));
+
+	@Override
+	public Set<Lock> provideForClass(Class<?> testClass) {
+		return AnnotationSupport
+				.findAnnotation(testClass, SoapUIMockService.class)
+				.map(mock -> Collections.singleton(new Lock(key(testClass,
+						mock), ResourceAccessMode.READ)))
+				.orElse(Collections.<Lock> emptySet());
+	}
+
+	static String key(Class<?> testClass, SoapUIMockService config) {
+		int port = config.port();
+		URL project = testClass.getClassLoader().getResource(config.project());
+		if (port == -1 && project != null) {
+			port = projectPort(project, config.mockService());
+		}
+		return PREFIX
+				+ (port != -1 ? Integer.toString(port) : config.project() + '#'
+						+ config.mockService());
+	}
+
+	/**
+	 * @return the port of a mock service in a project or -1 if the project
+	 *         does not declare one, e.g. because it is a property expansion
+	 */
+	static int projectPort(URL project, String mockService) {
+		try (InputStream in = project.openStream()) {
+			XMLStreamReader reader = XMLInputFactory.newInstance()
+					.createXMLStreamReader(in);
+			try {
+				while (reader.hasNext()) {
+					if (reader.next() == XMLStreamConstants.START_ELEMENT
+							&& MOCK_SERVICES.contains(reader.getLocalName())
+							&& mockService.equals(reader.getAttributeValue(
+									null, "name"))) {
+						String port = reader.getAttributeValue(null, "port");
+						return port != null ? Integer.parseInt(port.trim())
+								: -1;
+					}
+				}
+				return -1;
+			} finally {
+				reader.close();
+			}
+		} catch (IOException | XMLStreamException | NumberFormatException e) {
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,211 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.jupiter;
+
+import static io.fares.junit.soapui.SoapUI.*;
+
+import io.fares.classloader.AetherClasspathResolver;
+import io.fares.classloader.FilteringClassLoaderFactory;
+import io.fares.junit.soapui.MockRunnerTask;
+import io.fares.junit.soapui.SoapUIMock;
+import io.fares.junit.soapui.SoapUIMockExecutor;
+
+import java.net.URL;
+import java.util.function.BiFunction;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.ExtensionConfigurationException;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ExtensionContext.Namespace;
+import org.junit.jupiter.api.extension.ExtensionContext.Store;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+import org.junit.platform.commons.support.AnnotationSupport;
+
+/**
+ * Starts the mock declared by {@link SoapUIMockService} in its own classloader
+ * jail. Started mocks are kept in the root store, so every configuration is
+ * started once per test run, no matter how many classes use it or on how
+ * many threads they run, and stopped when the test run ends.
+ */
+public class SoapUIMockExtension implements BeforeAllCallback,
+		ParameterResolver {
+
+	private static final Logger LOG = Logger.getLogger(SoapUIMockExtension.class
+			.getName());
+
+	private static final Namespace NAMESPACE = Namespace
+			.create(SoapUIMockExtension.class);
+
+	// creates the executor of a mock, replaced by tests that run offline
+	static BiFunction<Class<?>, String, SoapUIMockExecutor> executors = SoapUIMockExtension::newExecutor;
+
+	@Override
+	public void beforeAll(ExtensionContext context) {
+
+		Class<?> testClass = context.getRequiredTestClass();
+		SoapUIMockService config = AnnotationSupport.findAnnotation(testClass,
+				SoapUIMockService.class).orElseThrow(
+				() -> new ExtensionConfigurationException(testClass.getName()
+						+ " is not annotated with @SoapUIMockService"));
+
+		MockRunnerTask task = newTask(testClass, config);
+		String version = config.soapuiVersion().isEmpty() ? version() : config
+				.soapuiVersion();
+
+		Store root = context.getRoot().getStore(NAMESPACE);
+
+		// mocks on the same port must be identical, the port is taken
+		String portKey = MockPortLocks.key(testClass, config);
+		String key = task.getConfigurationKey() + '|' + version;
+		String owner = (String) root.getOrComputeIfAbsent(portKey, k -> key);
+		if (!owner.equals(key)) {
+			throw new ExtensionConfigurationException("Port of "
+					+ testClass.getName() + " is used by another mock: "
+					+ owner);
+		}
+
+		StartedMock mock = root.getOrComputeIfAbsent(key,
+				k -> start(testClass, task, version, root, portKey),
+				StartedMock.class);
+
+		context.getStore(NAMESPACE).put(MockRunnerTask.class, mock.task);
+	}
+
+	@Override
+	public boolean supportsParameter(ParameterContext parameterContext,
+			ExtensionContext extensionContext) {
+		return parameterContext.getParameter().getType() == MockRunnerTask.class;
+	}
+
+	@Override
+	public Object resolveParameter(ParameterContext parameterContext,
+			ExtensionContext extensionContext) {
+		MockRunnerTask task = extensionContext.getStore(NAMESPACE).get(
+				MockRunnerTask.class, MockRunnerTask.class);
+		if (task == null) {
+			throw new ParameterResolutionException(
+					"No SoapUI mock is running for "
+							+ extensionContext.getRequiredTestClass().getName());
+		}
+		return task;
+	}
+
+	private static MockRunnerTask newTask(Class<?> testClass,
+			SoapUIMockService config) {
+
+		URL project = testClass.getClassLoader().getResource(config.project());
+		if (project == null) {
+			throw new ExtensionConfigurationException(
+					"project cannot be loaded from resource path "
+							+ config.project());
+		}
+
+		MockRunnerTask task = new MockRunnerTask().withProjectFile(project)
+				.withMockServiceName(config.mockService());
+		if (!config.host().isEmpty()) {
+			task.setMockHost(config.host());
+		}
+		if (config.port() != -1) {
+			task.setMockPort(config.port());
+		}
+		if (!config.path().isEmpty()) {
+			task.setMockPath(config.path());
+		}
+		if (config.pruneProject()) {
+			task.pruneProject();
+		}
+		if (config.snapshotProject()) {
+			task.snapshotProject();
+		}
+		if (config.virtualThreads()) {
+			task.virtualThreads();
+		}
+		return task;
+	}
+
+	private static StartedMock start(Class<?> testClass, MockRunnerTask task,
+			String version, Store root, String portKey) {
+
+		SoapUIMockExecutor executor = executors.apply(testClass, version);
+		try {
+			executor.start(task);
+		} catch (RuntimeException e) {
+			executor.stop();
+			throw e;
+		}
+		LOG.fine("Started mock " + task.getMockServiceName() + " at "
+				+ task.getMockEndpoint());
+		return new StartedMock(executor, task, root, portKey);
+	}
+
+	private static SoapUIMockExecutor newExecutor(Class<?> testClass,
+			String version) {
+
+		AetherClasspathResolver resolver = new AetherClasspathResolver();
+		resolver.addArtifact(newSoapUIArtifact(version));
+		resolver.addRemoteRepository(newSoapUIRepository(),
+				newCentralRepository());
+
+		FilteringClassLoaderFactory clf = new FilteringClassLoaderFactory(
+				resolver).addPassFilters(DEFAULT_PASSFILTER).addBlockFilters(
+				DEFAULT_BLOCKFILTER);
+		clf.addIncludeClazzContainerURLs(SoapUIMock.class, MockRunnerTask.class);
+		clf.setParentClassLoader(testClass.getClassLoader());
+
+		return new SoapUIMockExecutor(clf, SoapUIMockExecutor.SIMPLE_IMPL);
+	}
+
+	/**
+	 * A running mock, stopped when the root store is closed. Stopping frees
+	 * the port for other mocks.
+	 */
+	static final class StartedMock implements Store.CloseableResource {
+
+		final SoapUIMockExecutor executor;
+
+		final MockRunnerTask task;
+
+		private final Store root;
+
+		private final String portKey;
+
+		StartedMock(SoapUIMockExecutor executor, MockRunnerTask task,
+				Store root, String portKey) {
+			this.executor = executor;
+			this.task = task;
+			this.root = root;
+			this.portKey = portKey;
+		}
+
+		@Override
+		public void close() {
+			try {
+				executor.stop();
+			} finally {
+				root.remove(portKey);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.jupiter;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.parallel.ResourceLock;
+
+/**
+ * Runs a SoapUI mock service for the annotated test class. Mocks are started
+ * once per configuration and shared by all test classes of the test run, the
+ * {@link io.fares.junit.soapui.MockRunnerTask} of the mock can be injected
+ * into test methods and lifecycle methods.
+ *
+ * <pre>
+ * &#064;SoapUIMockService(project = &quot;soapui-project.xml&quot;, mockService = &quot;WeatherMockService&quot;, port = 9090)
+ * class WeatherTest {
+ * 	&#064;Test
+ * 	void callsMock(MockRunnerTask mock) {
+ * 		String endpoint = mock.getMockEndpoint();
+ * 	}
+ * }
+ * </pre>
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@ExtendWith(SoapUIMockExtension.class)
+@ResourceLock(providers = MockPortLocks.class)
+public @interface SoapUIMockService {
+
+	/**
+	 * @return the classpath location of the SoapUI project
+	 */
+	String project();
+
+	/**
+	 * @return the name of the mock service in the project
+	 */
+	String mockService();
+
+	/**
+	 * @return the host the mock binds to, empty for the project setting
+	 */
+	String host() default "";
+
+	/**
+	 * @return the port the mock listens on, -1 for the project setting
+	 */
+	int port() default -1;
+
+	/**
+	 * @return the path the mock is served on, empty for the project setting
+	 */
+	String path() default "";
+
+	/**
+	 * @return the SoapUI version, empty for the version this library was
+	 *         built against
+	 */
+	String soapuiVersion() default "";
+
+	/**
+	 * @return true to load a copy of the project reduced to the mock service
+	 *         and the interfaces it uses
+	 */
+	boolean pruneProject() default false;
+
+	/**
+	 * @return true to cache the pruned project next to the project until the
+	 *         project changes
+	 */
+	boolean snapshotProject() default false;
+
+	/**
+	 * @return true to serve requests on virtual threads where supported
+	 */
+	boolean virtualThreads() default false;
+
+}
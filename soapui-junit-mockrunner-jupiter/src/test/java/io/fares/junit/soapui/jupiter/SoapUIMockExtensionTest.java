@@ -0,0 +1,257 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.jupiter;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+
+import io.fares.classloader.ClassLoaderFactory;
+import io.fares.junit.soapui.MockRunnerTask;
+import io.fares.junit.soapui.SoapUIMock;
+import io.fares.junit.soapui.SoapUIMockExecutor;
+import io.fares.junit.soapui.jupiter.SoapUIMockExtension.StartedMock;
+
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtensionContext.Store;
+import org.junit.platform.engine.DiscoverySelector;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.testkit.engine.EngineExecutionResults;
+import org.junit.platform.testkit.engine.EngineTestKit;
+
+class SoapUIMockExtensionTest {
+
+	private static final BiFunction<Class<?>, String, SoapUIMockExecutor> EXECUTORS = SoapUIMockExtension.executors;
+
+	@BeforeEach
+	void runOffline() {
+		FakeMock.started.set(0);
+		FakeMock.stopped.set(0);
+		// the fake mock is passed through the jail, it does not need SoapUI
+		ClassLoaderFactory jails = new ClassLoaderFactory() {
+			@Override
+			public ClassLoader createClassLoader() {
+				return createClassLoader(getClass().getClassLoader());
+			}
+
+			@Override
+			public ClassLoader createClassLoader(ClassLoader parent) {
+				return new URLClassLoader(new URL[0], parent);
+			}
+		};
+		SoapUIMockExtension.executors = (testClass,
+				version) -> new SoapUIMockExecutor(jails, FakeMock.class
+				.getName());
+	}
+
+	@AfterEach
+	void restoreExecutors() {
+		SoapUIMockExtension.executors = EXECUTORS;
+	}
+
+	private static EngineExecutionResults run(Class<?>... testClasses) {
+		return EngineTestKit
+				.engine("junit-jupiter")
+				.selectors(
+						Arrays.stream(testClasses).map(c -> selectClass(c))
+								.toArray(DiscoverySelector[]::new)).execute();
+	}
+
+	private static List<String> containerFailures(EngineExecutionResults results) {
+		return results
+				.containerEvents()
+				.failed()
+				.stream()
+				.map(e -> e.getPayload(TestExecutionResult.class).get()
+						.getThrowable().get().getMessage())
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	void classesWithTheSameMockShareIt() {
+
+		EngineExecutionResults results = run(FirstClient.class,
+				FirstClientAgain.class);
+
+		results.testEvents().assertStatistics(s -> s.succeeded(2).failed(0));
+		assertEquals(Collections.emptyList(), containerFailures(results));
+		assertEquals(1, FakeMock.started.get());
+		// the mock is stopped when the root store is closed
+		assertEquals(1, FakeMock.stopped.get());
+	}
+
+	@Test
+	void projectsOnDifferentPortsRunSideBySide() {
+
+		EngineExecutionResults results = run(FirstClient.class,
+				SecondClient.class);
+
+		results.testEvents().assertStatistics(s -> s.succeeded(2).failed(0));
+		assertEquals(Collections.emptyList(), containerFailures(results));
+		assertEquals(2, FakeMock.started.get());
+		assertEquals(2, FakeMock.stopped.get());
+	}
+
+	@Test
+	void projectsOnTheSamePortAreRejected() {
+
+		EngineExecutionResults results = run(FirstClient.class,
+				ClashClient.class);
+
+		results.testEvents().assertStatistics(s -> s.succeeded(1));
+		List<String> failures = containerFailures(results);
+		assertEquals(1, failures.size());
+		assertTrue(failures.get(0).contains("is used by another mock"),
+				failures.get(0));
+		assertEquals(1, FakeMock.started.get());
+		assertEquals(1, FakeMock.stopped.get());
+	}
+
+	@Test
+	void lockKeyIsThePortOfTheProject() {
+
+		assertEquals(MockPortLocks.PREFIX + 8099, MockPortLocks.key(
+				FirstClient.class,
+				FirstClient.class.getAnnotation(SoapUIMockService.class)));
+		assertEquals(MockPortLocks.PREFIX + 8098, MockPortLocks.key(
+				SecondClient.class,
+				SecondClient.class.getAnnotation(SoapUIMockService.class)));
+		assertEquals(MockPortLocks.PREFIX + 9090, MockPortLocks.key(
+				PortClient.class,
+				PortClient.class.getAnnotation(SoapUIMockService.class)));
+	}
+
+	@Test
+	void lockKeyFallsBackToTheMockService() {
+
+		URL project = getClass().getClassLoader().getResource(
+				"soapui/first-soapui-project.xml");
+		assertEquals(-1, MockPortLocks.projectPort(project, "NoSuchMock"));
+	}
+
+	@Test
+	void closeStopsTheMockAndFreesThePort() {
+
+		Map<Object, Object> values = new HashMap<>();
+		Store root = (Store) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class<?>[] { Store.class },
+				(proxy, method, args) -> {
+					if ("remove".equals(method.getName())) {
+						return values.remove(args[0]);
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+		values.put("port", "owner");
+
+		SoapUIMockExecutor executor = SoapUIMockExtension.executors.apply(
+				getClass(), "test");
+		MockRunnerTask task = new MockRunnerTask();
+		executor.start(task);
+		new StartedMock(executor, task, root, "port").close();
+
+		assertEquals(1, FakeMock.stopped.get());
+		assertFalse(values.containsKey("port"));
+	}
+
+	public static class FakeMock implements SoapUIMock {
+
+		static final AtomicInteger started = new AtomicInteger();
+
+		static final AtomicInteger stopped = new AtomicInteger();
+
+		private volatile boolean running;
+
+		@Override
+		public void start(MockRunnerTask task) {
+			started.incrementAndGet();
+			running = true;
+		}
+
+		@Override
+		public void stop() {
+			stopped.incrementAndGet();
+			running = false;
+		}
+
+		@Override
+		public boolean isRunning() {
+			return running;
+		}
+
+	}
+
+	@SoapUIMockService(project = "soapui/first-soapui-project.xml", mockService = "FirstMock", soapuiVersion = "5.1.2")
+	static class FirstClient {
+
+		@Test
+		void usesMock(MockRunnerTask mock) {
+			assertEquals("FirstMock", mock.getMockServiceName());
+		}
+
+	}
+
+	@SoapUIMockService(project = "soapui/first-soapui-project.xml", mockService = "FirstMock", soapuiVersion = "5.1.2")
+	static class FirstClientAgain {
+
+		@Test
+		void usesMock(MockRunnerTask mock) {
+			assertEquals("FirstMock", mock.getMockServiceName());
+		}
+
+	}
+
+	@SoapUIMockService(project = "soapui/second-soapui-project.xml", mockService = "SecondMock", soapuiVersion = "5.1.2")
+	static class SecondClient {
+
+		@Test
+		void usesMock(MockRunnerTask mock) {
+			assertEquals("SecondMock", mock.getMockServiceName());
+		}
+
+	}
+
+	@SoapUIMockService(project = "soapui/clash-soapui-project.xml", mockService = "ClashMock", soapuiVersion = "5.1.2")
+	static class ClashClient {
+
+		@Test
+		void usesMock(MockRunnerTask mock) {
+			fail("the port is taken by another mock");
+		}
+
+	}
+
+	@SoapUIMockService(project = "soapui/first-soapui-project.xml", mockService = "FirstMock", port = 9090, soapuiVersion = "5.1.2")
+	static class PortClient {
+	}
+
+}
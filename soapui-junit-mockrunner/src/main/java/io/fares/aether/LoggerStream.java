@@ -19,16 +19,61 @@
  */
 package io.fares.aether;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 
+/**
+ * A PrintStream that hands complete lines to a Java Util Logger on a
+ * background thread. Every thread collects its line in a reused buffer, so
+ * printing neither locks the stream nor waits for the log handlers. Lines are
+ * queued in a bounded queue and dropped, with a count, when logging cannot
+ * keep up. Line buffers are recycled by the logging thread, so printing does
+ * not allocate once the buffers are warm. Bytes are decoded as UTF-8.
+ */
 public class LoggerStream extends PrintStream {
 
-	private Level level = null;
-	private Logger logger = null;
+	private static final int QUEUE_CAPACITY = 4096;
+
+	/**
+	 * Buffers that grew beyond this many chars are not recycled
+	 */
+	private static final int MAX_RECYCLED_LINE = 8192;
+
+	private static final BlockingQueue<Line> QUEUE = new ArrayBlockingQueue<Line>(
+			QUEUE_CAPACITY);
+
+	private static final BlockingQueue<Line> FREE = new ArrayBlockingQueue<Line>(
+			QUEUE_CAPACITY);
+
+	private static final AtomicLong DROPPED = new AtomicLong();
+
+	/**
+	 * One line buffer per thread, shared by all streams so short-lived
+	 * streams leave nothing behind on long-lived threads
+	 */
+	private static final ThreadLocal<Buffer> BUFFER = new ThreadLocal<Buffer>() {
+		@Override
+		protected Buffer initialValue() {
+			return new Buffer();
+		}
+	};
+
+	private static volatile Thread drainer;
+
+	private final Level level;
+	private final Logger logger;
 
 	/**
 	 * A PrintStream that delegates to a Java Util Logger
@@ -40,53 +85,435 @@ public class LoggerStream extends PrintStream {
 	 *            The level at which to log at
 	 */
 	public LoggerStream(Logger logger, Level level) {
-		super(new ByteArrayOutputStream(), true);
+		super(new LineOutputStream(), false);
 		this.logger = logger;
 		this.level = level;
+		((LineOutputStream) this.out).stream = this;
 	}
 
-	@Override
-	public synchronized void flush() {
-		super.flush();
-		ByteArrayOutputStream stream = getStream();
-		if (stream.size() == 0)
+	/**
+	 * Waits until the lines printed so far have been taken by the logging
+	 * thread.
+	 * 
+	 * @param timeoutMillis
+	 *            how long to wait at most
+	 * 
+	 * @return true if all lines have been logged
+	 */
+	public static boolean awaitDrained(long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (!QUEUE.isEmpty()) {
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return QUEUE.isEmpty();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of lines dropped because the queue was full
+	 */
+	public static long getDropped() {
+		return DROPPED.get();
+	}
+
+	/**
+	 * @return the line of the calling thread, null if this stream does not
+	 *         log at its level
+	 */
+	private Line line() {
+		if (!logger.isLoggable(level)) {
+			return null;
+		}
+		Buffer buffer = BUFFER.get();
+		Line line = buffer.line;
+		if (line.logger != logger || line.level != level) {
+			// another stream left a partial line on this thread
+			if (line.text.length() > 0) {
+				endLine(buffer);
+				line = buffer.line;
+			}
+			line.logger = logger;
+			line.level = level;
+		}
+		return line;
+	}
+
+	private void appendText(CharSequence s, int start, int end) {
+		Line line = line();
+		if (line == null) {
+			return;
+		}
+		int from = start;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == '\n' || c == '\r') {
+				line.text.append(s, from, i);
+				line = endLine(BUFFER.get());
+				from = i + 1;
+			}
+		}
+		line.text.append(s, from, end);
+	}
+
+	private void appendChar(char c) {
+		Line line = line();
+		if (line == null) {
+			return;
+		}
+		if (c == '\n' || c == '\r') {
+			endLine(BUFFER.get());
+		} else {
+			line.text.append(c);
+		}
+	}
+
+	/**
+	 * Queues the line of the thread and gives the thread a fresh one for the
+	 * same stream.
+	 * 
+	 * @return the fresh line
+	 */
+	private static Line endLine(Buffer buffer) {
+		Line line = buffer.line;
+		// progress output pads and rewinds lines with blanks, skip those
+		StringBuilder text = line.text;
+		int end = text.length();
+		while (end > 0 && text.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		if (end == 0) {
+			text.setLength(0);
+			return line;
+		}
+		text.setLength(end);
+		Line next = FREE.poll();
+		if (next == null) {
+			next = new Line();
+		}
+		next.logger = line.logger;
+		next.level = line.level;
+		buffer.line = next;
+		enqueue(line);
+		return next;
+	}
+
+	private static void enqueue(Line line) {
+		if (!QUEUE.offer(line)) {
+			DROPPED.incrementAndGet();
+			recycle(line);
+		}
+		Thread d = drainer;
+		if (d == null || !d.isAlive()) {
+			startDrainer();
+		}
+	}
+
+	private static void recycle(Line line) {
+		if (line.text.capacity() > MAX_RECYCLED_LINE) {
+			return;
+		}
+		line.text.setLength(0);
+		line.logger = null;
+		line.level = null;
+		FREE.offer(line);
+	}
+
+	private static synchronized void startDrainer() {
+		if (drainer != null && drainer.isAlive()) {
 			return;
-		String message = stream.toString();
-		logger.log(level, message);
-		stream.reset();
+		}
+		drainer = new Thread("logger-stream-drainer") {
+			@Override
+			public void run() {
+				long reported = 0;
+				try {
+					for (;;) {
+						Line line = QUEUE.take();
+						try {
+							long dropped = DROPPED.get();
+							if (dropped != reported) {
+								line.logger.log(Level.WARNING, "Dropped "
+										+ (dropped - reported)
+										+ " log lines, logging is too slow");
+								reported = dropped;
+							}
+							line.logger.log(line.level, line.text.toString());
+						} catch (RuntimeException e) {
+							// a failing handler must not stop the logging
+						} finally {
+							recycle(line);
+						}
+					}
+				} catch (InterruptedException e) {
+					// stop draining, restarted by the next line
+				}
+			}
+		};
+		drainer.setDaemon(true);
+		drainer.setContextClassLoader(null);
+		drainer.start();
 	}
 
 	@Override
-	public synchronized void println() {
-		flush();
+	public void print(String s) {
+		String text = String.valueOf(s);
+		appendText(text, 0, text.length());
+	}
+
+	@Override
+	public void print(Object obj) {
+		print(String.valueOf(obj));
+	}
+
+	@Override
+	public void print(char[] s) {
+		appendText(CharBuffer.wrap(s), 0, s.length);
+	}
+
+	@Override
+	public void print(char c) {
+		appendChar(c);
+	}
+
+	@Override
+	public void print(boolean b) {
+		print(String.valueOf(b));
+	}
+
+	@Override
+	public void print(int i) {
+		Line line = line();
+		if (line != null) {
+			line.text.append(i);
+		}
+	}
+
+	@Override
+	public void print(long l) {
+		Line line = line();
+		if (line != null) {
+			line.text.append(l);
+		}
 	}
 
 	@Override
-	public synchronized void println(Object x) {
+	public void print(float f) {
+		print(String.valueOf(f));
+	}
+
+	@Override
+	public void print(double d) {
+		print(String.valueOf(d));
+	}
+
+	@Override
+	public void println() {
+		appendChar('\n');
+	}
+
+	@Override
+	public void println(String x) {
 		print(x);
-		flush();
+		println();
 	}
 
 	@Override
-	public synchronized void println(String x) {
+	public void println(Object x) {
 		print(x);
-		flush();
+		println();
 	}
 
 	@Override
-	public synchronized void close() {
+	public void println(char[] x) {
+		print(x);
+		println();
+	}
+
+	@Override
+	public void println(char x) {
+		print(x);
+		println();
+	}
+
+	@Override
+	public void println(boolean x) {
+		print(x);
+		println();
+	}
+
+	@Override
+	public void println(int x) {
+		print(x);
+		println();
+	}
+
+	@Override
+	public void println(long x) {
+		print(x);
+		println();
+	}
+
+	@Override
+	public void println(float x) {
+		print(x);
+		println();
+	}
+
+	@Override
+	public void println(double x) {
+		print(x);
+		println();
+	}
+
+	@Override
+	public void write(int b) {
+		if (logger.isLoggable(level)) {
+			Buffer buffer = BUFFER.get();
+			buffer.bytes.put((byte) b);
+			decode(buffer);
+		}
+	}
+
+	@Override
+	public void write(byte[] buf, int off, int len) {
+		if (!logger.isLoggable(level)) {
+			return;
+		}
+		Buffer buffer = BUFFER.get();
+		while (len > 0) {
+			int n = Math.min(len, buffer.bytes.remaining());
+			buffer.bytes.put(buf, off, n);
+			off += n;
+			len -= n;
+			decode(buffer);
+		}
+	}
+
+	/**
+	 * Decodes the bytes collected so far, a multi-byte character split across
+	 * writes stays in the byte buffer until it is complete.
+	 */
+	private void decode(Buffer buffer) {
+		ByteBuffer bytes = buffer.bytes;
+		CharBuffer chars = buffer.chars;
+		bytes.flip();
+		for (;;) {
+			boolean overflow = buffer.decoder.decode(bytes, chars, false)
+					.isOverflow();
+			chars.flip();
+			appendText(chars, chars.position(), chars.limit());
+			chars.clear();
+			if (!overflow) {
+				break;
+			}
+		}
+		bytes.compact();
+	}
+
+	@Override
+	public PrintStream append(CharSequence csq) {
+		CharSequence text = csq != null ? csq : "null";
+		appendText(text, 0, text.length());
+		return this;
+	}
+
+	@Override
+	public PrintStream append(CharSequence csq, int start, int end) {
+		appendText(csq != null ? csq : "null", start, end);
+		return this;
+	}
+
+	@Override
+	public PrintStream append(char c) {
+		appendChar(c);
+		return this;
+	}
+
+	@Override
+	public PrintStream format(String format, Object... args) {
+		print(String.format(format, args));
+		return this;
+	}
+
+	@Override
+	public PrintStream format(Locale l, String format, Object... args) {
+		print(String.format(l, format, args));
+		return this;
+	}
+
+	/**
+	 * Hands the partial line of the calling thread to the logger.
+	 */
+	@Override
+	public void flush() {
+		Buffer buffer = BUFFER.get();
+		if (buffer.line.text.length() > 0) {
+			endLine(buffer);
+		}
+	}
+
+	@Override
+	public void close() {
 		flush();
-		super.close();
 	}
 
 	@Override
-	public synchronized boolean checkError() {
+	public boolean checkError() {
 		flush();
-		return super.checkError();
+		return false;
 	}
 
-	private ByteArrayOutputStream getStream() {
-		return (ByteArrayOutputStream) this.out;
+	/**
+	 * The line being printed by a thread and the state to decode the bytes
+	 * written by it.
+	 */
+	private static final class Buffer {
+
+		Line line = new Line();
+
+		final ByteBuffer bytes = ByteBuffer.allocate(256);
+
+		final CharBuffer chars = CharBuffer.allocate(256);
+
+		final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	}
+
+	private static final class Line {
+
+		Logger logger;
+		Level level;
+		final StringBuilder text = new StringBuilder(128);
+
+	}
+
+	/**
+	 * Catches the bytes written by the inherited {@link PrintStream} methods
+	 * that are not overridden.
+	 */
+	private static final class LineOutputStream extends OutputStream {
+
+		LoggerStream stream;
+
+		@Override
+		public void write(int b) {
+			stream.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			stream.write(b, off, len);
+		}
+
 	}
 
 }
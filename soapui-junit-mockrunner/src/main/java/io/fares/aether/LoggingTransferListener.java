@@ -16,6 +16,8 @@ import java.text.DecimalFormatSymbols;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.aether.transfer.AbstractTransferListener;
 import org.eclipse.aether.transfer.MetadataNotFoundException;
@@ -31,7 +33,11 @@ public class LoggingTransferListener extends AbstractTransferListener {
 
 	private Map<TransferResource, Long> downloads = new ConcurrentHashMap<TransferResource, Long>();
 
-	private int lastLength;
+	private volatile int lastLength;
+
+	private final AtomicLong lastProgress = new AtomicLong(System.nanoTime());
+
+	private long progressInterval = TimeUnit.MILLISECONDS.toNanos(500);
 
 	public LoggingTransferListener() {
 		this(null);
@@ -41,6 +47,25 @@ public class LoggingTransferListener extends AbstractTransferListener {
 		this.out = (out != null) ? out : System.out;
 	}
 
+	/**
+	 * @return the minimum time between two progress lines in milliseconds
+	 */
+	public long getProgressInterval() {
+		return TimeUnit.NANOSECONDS.toMillis(progressInterval);
+	}
+
+	/**
+	 * Progress events arrive for every buffer written, rendering all running
+	 * transfers each time slows down fast local transfers. Progress is only
+	 * printed once per interval.
+	 *
+	 * @param millis
+	 *            the minimum time between two progress lines
+	 */
+	public void setProgressInterval(long millis) {
+		this.progressInterval = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
 	@Override
 	public void transferInitiated(TransferEvent event) {
 		String message = event.getRequestType() == TransferEvent.RequestType.PUT ? "Uploading"
@@ -55,13 +80,21 @@ public class LoggingTransferListener extends AbstractTransferListener {
 		TransferResource resource = event.getResource();
 		downloads.put(resource, Long.valueOf(event.getTransferredBytes()));
 
+		// only one thread renders, and only once per interval
+		long now = System.nanoTime();
+		long last = lastProgress.get();
+		if (now - last < progressInterval
+				|| !lastProgress.compareAndSet(last, now)) {
+			return;
+		}
+
 		StringBuilder buffer = new StringBuilder(64);
 
 		for (Map.Entry<TransferResource, Long> entry : downloads.entrySet()) {
 			long total = entry.getKey().getContentLength();
 			long complete = entry.getValue().longValue();
 
-			buffer.append(getStatus(complete, total)).append("  ");
+			appendStatus(buffer, complete, total).append("  ");
 		}
 
 		int pad = lastLength - buffer.length();
@@ -72,15 +105,18 @@ public class LoggingTransferListener extends AbstractTransferListener {
 		out.print(buffer);
 	}
 
-	private String getStatus(long complete, long total) {
+	private StringBuilder appendStatus(StringBuilder buffer, long complete,
+			long total) {
 		if (total >= 1024) {
-			return toKB(complete) + "/" + toKB(total) + " KB ";
+			return buffer.append(toKB(complete)).append('/')
+					.append(toKB(total)).append(" KB ");
 		} else if (total >= 0) {
-			return complete + "/" + total + " B ";
+			return buffer.append(complete).append('/').append(total)
+					.append(" B ");
 		} else if (complete >= 1024) {
-			return toKB(complete) + " KB ";
+			return buffer.append(toKB(complete)).append(" KB ");
 		} else {
-			return complete + " B ";
+			return buffer.append(complete).append(" B ");
 		}
 	}
 
@@ -133,6 +169,9 @@ public class LoggingTransferListener extends AbstractTransferListener {
 
 	private void transferCompleted(TransferEvent event) {
 		downloads.remove(event.getResource());
+		if (lastLength == 0) {
+			return;
+		}
 
 		StringBuilder buffer = new StringBuilder(64);
 		pad(buffer, lastLength);
@@ -27,6 +27,8 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.LinkedHashSet;
 import java.util.logging.Level;
@@ -43,6 +45,7 @@ import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.graph.Dependency;
 import org.eclipse.aether.graph.DependencyFilter;
+import org.eclipse.aether.graph.Exclusion;
 import org.eclipse.aether.collection.CollectRequest;
 import org.eclipse.aether.repository.LocalRepository;
 import org.eclipse.aether.repository.Proxy;
@@ -66,6 +69,11 @@ public class AetherClasspathResolver implements ClasspathResolver {
 	protected final Logger LOG = Logger
 			.getLogger(getClass().getName());
 
+	private static final FlightEvents.Type RESOLUTION = FlightEvents.define(
+			"io.fares.soapui.ClasspathResolution", "Classpath Resolution",
+			"Resolving and verifying the classpath of a jail", "artifacts",
+			int.class, "exclusions", int.class, "jars", int.class);
+
 	@Inject
 	private RepositorySystem system;
 
@@ -75,6 +83,15 @@ public class AetherClasspathResolver implements ClasspathResolver {
 
 	List<RemoteRepository> remoteRepositories = Collections.emptyList();
 
+	private String checksumPolicy = RepositoryPolicy.CHECKSUM_POLICY_FAIL;
+
+	private JarVerifier jarVerifier;
+
+	private List<String> exclusions = new ArrayList<String>();
+
+	// groupId:artifactId of the jars of the last resolution
+	private volatile Map<URL, String> coordinates = Collections.emptyMap();
+
 	public RepositorySystem getRepositorySystem() {
 		if (system == null) {
 			system = GuiceRepositorySystemFactory.newRepositorySystem();
@@ -91,6 +108,94 @@ public class AetherClasspathResolver implements ClasspathResolver {
 		return this;
 	}
 
+	public String getChecksumPolicy() {
+		return checksumPolicy;
+	}
+
+	/**
+	 * The checksum files of the SoapUI repository are broken, so the
+	 * resolved jars are verified by a {@link JarVerifier} after resolution
+	 * instead of by Aether while downloading.
+	 *
+	 * @param checksumPolicy
+	 *            {@link RepositoryPolicy#CHECKSUM_POLICY_FAIL} to delete
+	 *            damaged jars and resolve them once more before failing,
+	 *            {@link RepositoryPolicy#CHECKSUM_POLICY_WARN} to only log
+	 *            them or {@link RepositoryPolicy#CHECKSUM_POLICY_IGNORE} to
+	 *            skip the verification
+	 */
+	public void setChecksumPolicy(String checksumPolicy) {
+		this.checksumPolicy = checksumPolicy;
+	}
+
+	public AetherClasspathResolver withChecksumPolicy(String checksumPolicy) {
+		setChecksumPolicy(checksumPolicy);
+		return this;
+	}
+
+	/**
+	 * Artifacts of SoapUI that a headless mock does not need: the Swing
+	 * look and feels, form layouts and editors, the embedded browser and its
+	 * native bindings, the charts of the load tests and the reporting and
+	 * spreadsheet libraries. Run a suite with a {@link JarUsage} to check
+	 * them against the mocks at hand.
+	 */
+	public static final String[] MOCK_RUNTIME_EXCLUSIONS = new String[] {
+			"com.jgoodies:*", "org.swinglabs:*", "com.fifesoft:*",
+			"com.l2fprod.common:*", "com.teamdev.jxbrowser:*",
+			"net.java.dev.jna:*", "jfree:*", "org.jfree:*",
+			"net.sf.jasperreports:*", "net.sourceforge.jexcelapi:*" };
+
+	public List<String> getExclusions() {
+		return exclusions;
+	}
+
+	/**
+	 * @param exclusions
+	 *            <code>groupId:artifactId</code> of the transitive
+	 *            dependencies to leave out of the classpath, either part may
+	 *            be <code>*</code>
+	 */
+	public void setExclusions(List<String> exclusions) {
+		this.exclusions = exclusions != null ? exclusions
+				: new ArrayList<String>();
+	}
+
+	public AetherClasspathResolver addExclusions(String... exclusions) {
+		if (exclusions != null && exclusions.length > 0) {
+			this.exclusions.addAll(Arrays.asList(exclusions));
+		}
+		return this;
+	}
+
+	/**
+	 * Leave the {@link #MOCK_RUNTIME_EXCLUSIONS} out of the classpath.
+	 *
+	 * @return the resolver
+	 */
+	public AetherClasspathResolver withMockRuntimeProfile() {
+		return addExclusions(MOCK_RUNTIME_EXCLUSIONS);
+	}
+
+	/**
+	 * @return the <code>groupId:artifactId</code> of the jars returned by the
+	 *         last {@link #resolveClassPath()}
+	 */
+	public Map<URL, String> getCoordinates() {
+		return coordinates;
+	}
+
+	public JarVerifier getJarVerifier() {
+		if (jarVerifier == null) {
+			jarVerifier = new JarVerifier();
+		}
+		return jarVerifier;
+	}
+
+	public void setJarVerifier(JarVerifier jarVerifier) {
+		this.jarVerifier = jarVerifier;
+	}
+
 	@Override
 	public Proxy getProxy() {
 		return proxy;
@@ -188,6 +293,50 @@ public class AetherClasspathResolver implements ClasspathResolver {
 
 	@Override
 	public List<URL> resolveClassPath() {
+		FlightEvents.Event event = RESOLUTION.begin();
+		List<URL> classpath = resolveVerified();
+		event.set(0, artifacts.size()).set(1, exclusions.size())
+				.set(2, classpath.size()).commit();
+		return classpath;
+	}
+
+	private List<URL> resolveVerified() {
+
+		List<URL> classpath = resolve();
+
+		if (RepositoryPolicy.CHECKSUM_POLICY_IGNORE.equals(checksumPolicy)) {
+			return classpath;
+		}
+
+		List<File> damaged = getJarVerifier().verify(classpath);
+		if (damaged.isEmpty()) {
+			return classpath;
+		}
+
+		if (!RepositoryPolicy.CHECKSUM_POLICY_FAIL.equals(checksumPolicy)) {
+			LOG.warning("Damaged jars on the classpath: " + damaged);
+			return classpath;
+		}
+
+		// a broken download is fetched again once
+		for (File jar : damaged) {
+			LOG.warning("Deleting damaged jar " + jar);
+			if (!jar.delete()) {
+				throw new RuntimeException("Cannot delete damaged jar " + jar);
+			}
+		}
+		getJarVerifier().forget(damaged);
+
+		classpath = resolve();
+		damaged = getJarVerifier().verify(classpath);
+		if (!damaged.isEmpty()) {
+			throw new RuntimeException("Damaged jars on the classpath: "
+					+ damaged);
+		}
+		return classpath;
+	}
+
+	private List<URL> resolve() {
 
 		// first get system
 		RepositorySystem system = getRepositorySystem();
@@ -201,8 +350,20 @@ public class AetherClasspathResolver implements ClasspathResolver {
 		List<Dependency> dependencies = new ArrayList<Dependency>(
 				artifacts.size());
 
+		// excluded subtrees are not even collected
+		List<Exclusion> excluded = new ArrayList<Exclusion>(exclusions.size());
+		for (String exclusion : exclusions) {
+			String[] parts = exclusion.split(":");
+			if (parts.length != 2) {
+				throw new IllegalArgumentException("Exclusion " + exclusion
+						+ " is not groupId:artifactId");
+			}
+			excluded.add(new Exclusion(parts[0], parts[1], "*", "*"));
+		}
+
 		for (Artifact artifact : artifacts) {
-			dependencies.add(new Dependency(artifact, JavaScopes.COMPILE));
+			dependencies.add(new Dependency(artifact, JavaScopes.COMPILE,
+					false, excluded));
 		}
 
 		CollectRequest collectRequest = new CollectRequest(dependencies, null,
@@ -226,6 +387,7 @@ public class AetherClasspathResolver implements ClasspathResolver {
 			// we will be using a hashset first to ensure we only add one
 			// element of each dependency
 			Set<URL> results = new LinkedHashSet<URL>();
+			Map<URL, String> resolved = new HashMap<URL, String>();
 
 			for (ArtifactResult artifactResult : artifactResults) {
 				Artifact a = artifactResult.getArtifact();
@@ -235,6 +397,8 @@ public class AetherClasspathResolver implements ClasspathResolver {
 					try {
 						URL depUrl = a.getFile().toURI().toURL();
 						results.add(depUrl);
+						resolved.put(depUrl,
+								a.getGroupId() + ":" + a.getArtifactId());
 					} catch (MalformedURLException e) {
 						LOG.warning("Cannot resolve "
 								+ a.getFile().getAbsolutePath());
@@ -246,6 +410,7 @@ public class AetherClasspathResolver implements ClasspathResolver {
 				}
 			}
 
+			coordinates = Collections.unmodifiableMap(resolved);
 			return Lists.newArrayList(results);
 
 		} catch (DependencyResolutionException e) {
@@ -270,13 +435,13 @@ public class AetherClasspathResolver implements ClasspathResolver {
 
 		// logging for the activity
 		PrintStream logger = new LoggerStream(LOG, Level.INFO);
-		session.setTransferListener(new LoggingTransferListener());
-		session.setRepositoryListener(new LoggingRepositoryListener());
+		session.setTransferListener(new LoggingTransferListener(logger));
+		session.setRepositoryListener(new LoggingRepositoryListener(logger));
 
 		// uncomment to generate dirty trees
 		// session.setDependencyGraphTransformer( null );
 
-		// ignore checksums on smartbear
+		// ignore checksums on smartbear, the jars are verified once resolved
 		session.setChecksumPolicy(RepositoryPolicy.CHECKSUM_POLICY_IGNORE);
 
 		return session;
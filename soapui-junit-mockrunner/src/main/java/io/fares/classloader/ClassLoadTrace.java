@@ -0,0 +1,202 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the decisions of a {@link FilteringClassLoader} into a fixed size
+ * ring buffer. Recording only writes into preallocated arrays, the entries
+ * are formatted when the trace is dumped. Once the buffer is full the oldest
+ * entries are overwritten.
+ */
+public class ClassLoadTrace {
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	public enum Kind {
+		CLASS, RESOURCE
+	}
+
+	public enum Decision {
+		/** let through to the parent and found there */
+		PASS,
+		/** stopped by the filters, left to the jail */
+		BLOCK,
+		/** let through to the parent but not found there */
+		NOT_FOUND
+	}
+
+	private static final Kind[] KINDS = Kind.values();
+
+	private static final Decision[] DECISIONS = Decision.values();
+
+	private final int mask;
+
+	private final String[] names;
+
+	private final byte[] kinds;
+
+	private final byte[] decisions;
+
+	private final long[] latencies;
+
+	private final long[] timestamps;
+
+	private final String[] threads;
+
+	private final AtomicLong cursor = new AtomicLong();
+
+	private final long origin = System.nanoTime();
+
+	public ClassLoadTrace() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            the number of entries kept, rounded up to a power of two
+	 */
+	public ClassLoadTrace(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		mask = size - 1;
+		names = new String[size];
+		kinds = new byte[size];
+		decisions = new byte[size];
+		latencies = new long[size];
+		timestamps = new long[size];
+		threads = new String[size];
+	}
+
+	public void record(Kind kind, String name, Decision decision,
+			long latencyNanos) {
+		long now = System.nanoTime();
+		int i = (int) (cursor.getAndIncrement() & mask);
+		names[i] = name;
+		kinds[i] = (byte) kind.ordinal();
+		decisions[i] = (byte) decision.ordinal();
+		latencies[i] = latencyNanos;
+		timestamps[i] = now - origin;
+		threads[i] = Thread.currentThread().getName();
+	}
+
+	/**
+	 * @return the number of entries recorded since the trace was created,
+	 *         including the ones that have been overwritten
+	 */
+	public long getRecorded() {
+		return cursor.get();
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Writes the retained entries, oldest first, as tab separated lines:
+	 * name, kind, decision, latency in nanoseconds, time since the trace
+	 * started in microseconds and the requesting thread. As the name comes
+	 * first the dump can be fed straight into {@link ClassPreloader}, though
+	 * {@link #writePreloadList(File)} produces a tighter list.
+	 *
+	 * @param file
+	 *            the file to write
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void dump(File file) throws IOException {
+		Writer out = open(file);
+		try {
+			out.write("# name\tkind\tdecision\tlatency-ns\ttime-us\tthread\n");
+			long end = cursor.get();
+			for (long n = Math.max(0, end - getCapacity()); n < end; n++) {
+				int i = (int) (n & mask);
+				if (names[i] == null) {
+					continue;
+				}
+				out.write(names[i]);
+				out.write('\t');
+				out.write(KINDS[kinds[i]].name());
+				out.write('\t');
+				out.write(DECISIONS[decisions[i]].name());
+				out.write('\t');
+				out.write(Long.toString(latencies[i]));
+				out.write('\t');
+				out.write(Long.toString(timestamps[i] / 1000));
+				out.write('\t');
+				out.write(String.valueOf(threads[i]));
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the names of all classes that were left to the jail, in the
+	 * order they were first requested, for use with {@link ClassPreloader}.
+	 *
+	 * @param file
+	 *            the file to write
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void writePreloadList(File file) throws IOException {
+		Set<String> classes = new LinkedHashSet<String>();
+		long end = cursor.get();
+		for (long n = Math.max(0, end - getCapacity()); n < end; n++) {
+			int i = (int) (n & mask);
+			if (names[i] != null && kinds[i] == Kind.CLASS.ordinal()
+					&& decisions[i] != Decision.PASS.ordinal()) {
+				classes.add(names[i]);
+			}
+		}
+		Writer out = open(file);
+		try {
+			out.write("# classes loaded by the jail\n");
+			for (String name : classes) {
+				out.write(name);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static Writer open(File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create directory " + dir);
+		}
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+				file), "UTF-8"), 1 << 16);
+	}
+
+}
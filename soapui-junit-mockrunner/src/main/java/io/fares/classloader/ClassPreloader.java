@@ -0,0 +1,244 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads and links a list of classes into a jail on several threads at once,
+ * so the single thread starting the mock finds most classes defined already.
+ * The list is usually recorded from a previous run, one class name per line.
+ */
+public class ClassPreloader {
+
+	protected static final Logger LOG = Logger.getLogger(ClassPreloader.class
+			.getName());
+
+	private final List<String> classNames;
+
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	public ClassPreloader(List<String> classNames) {
+		this.classNames = Collections.unmodifiableList(new ArrayList<String>(
+				classNames));
+	}
+
+	/**
+	 * Reads a class list with one binary class name per line. Empty lines and
+	 * lines starting with <code>#</code> are ignored, anything after the
+	 * first whitespace of a line is ignored too.
+	 *
+	 * @param list
+	 *            the location of the class list
+	 *
+	 * @return a preloader for the listed classes
+	 *
+	 * @throws IOException
+	 *             if the list cannot be read
+	 */
+	public static ClassPreloader fromList(URL list) throws IOException {
+		List<String> names = new ArrayList<String>();
+		InputStream in = list.openStream();
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					in, "UTF-8"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				int end = 0;
+				while (end < line.length()
+						&& !Character.isWhitespace(line.charAt(end))) {
+					end++;
+				}
+				names.add(line.substring(0, end));
+			}
+		} finally {
+			in.close();
+		}
+		return new ClassPreloader(names);
+	}
+
+	public List<String> getClassNames() {
+		return classNames;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Starts loading the classes into the jail. The list is striped across
+	 * the threads so the classes at the top of a recorded list, which are
+	 * needed first, are loaded first.
+	 *
+	 * @param jail
+	 *            the classloader to load the classes with
+	 * @param executor
+	 *            runs the loading threads, must be able to run
+	 *            {@link #getParallelism()} tasks at once
+	 *
+	 * @return a handle on the running preload
+	 */
+	public Preload preload(final ClassLoader jail, Executor executor) {
+
+		final int threads = Math.min(parallelism,
+				Math.max(1, classNames.size()));
+		final Preload preload = new Preload(threads);
+
+		for (int i = 0; i < threads; i++) {
+			final int offset = i;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					Thread current = Thread.currentThread();
+					ClassLoader original = current.getContextClassLoader();
+					current.setContextClassLoader(jail);
+					try {
+						for (int n = offset; n < classNames.size()
+								&& !preload.cancelled; n += threads) {
+							if (load(classNames.get(n), jail)) {
+								preload.loaded.incrementAndGet();
+							} else {
+								preload.failed.incrementAndGet();
+							}
+						}
+					} finally {
+						current.setContextClassLoader(original);
+						preload.done.countDown();
+					}
+				}
+			});
+		}
+
+		return preload;
+	}
+
+	private static boolean load(String className, ClassLoader jail) {
+		try {
+			// load without running static initialisers, asking for the
+			// constructors makes the JVM link (verify) the class as well
+			Class<?> clazz = Class.forName(className, false, jail);
+			clazz.getDeclaredConstructors();
+			return true;
+		} catch (ClassNotFoundException e) {
+			LOG.finest("Jail does not contain " + className);
+		} catch (LinkageError e) {
+			LOG.log(Level.FINEST, "Failed to preload " + className, e);
+		} catch (SecurityException e) {
+			LOG.log(Level.FINEST, "Failed to link " + className, e);
+		}
+		return false;
+	}
+
+	/**
+	 * A running preload.
+	 */
+	public static class Preload {
+
+		private final CountDownLatch done;
+
+		private final AtomicInteger loaded = new AtomicInteger();
+
+		private final AtomicInteger failed = new AtomicInteger();
+
+		private volatile boolean cancelled = false;
+
+		Preload(int threads) {
+			this.done = new CountDownLatch(threads);
+		}
+
+		/**
+		 * @param timeoutMillis
+		 *            how long to wait at most
+		 *
+		 * @return true if all classes have been processed
+		 *
+		 * @throws InterruptedException
+		 *             if interrupted while waiting
+		 */
+		public boolean await(long timeoutMillis) throws InterruptedException {
+			return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		/**
+		 * Stops the loading threads after the class they are loading now.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		/**
+		 * Stops the loading threads and waits for them to finish the class
+		 * they are loading, so the jail can be unloaded safely.
+		 *
+		 * @param timeoutMillis
+		 *            how long to wait at most
+		 *
+		 * @return true if all loading threads have finished
+		 */
+		public boolean cancel(long timeoutMillis) {
+			cancel();
+			try {
+				return await(timeoutMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return isDone();
+			}
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public int getLoaded() {
+			return loaded.get();
+		}
+
+		public int getFailed() {
+			return failed.get();
+		}
+
+	}
+
+}
@@ -0,0 +1,391 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Keeps the class files of a jail classpath extracted into a directory tree,
+ * so later jails define their classes from plain files instead of inflating
+ * them out of the jars again. Every jar gets a directory of its own that is
+ * put in front of the jar on the classpath, resources are still served by
+ * the jar behind it. The directories of a classpath live under a key made of
+ * the path, length and modification time of its jars, a changed classpath
+ * therefore gets a fresh tree and trees that have not been used for
+ * {@link #getMaxAgeMillis()} are removed.
+ * <p>
+ * A tree is complete once its manifest exists. It is extracted into a
+ * temporary directory and moved into place, so JVMs that share the cache
+ * never see a partial tree. Signed jars are left alone as their classes
+ * must keep their signers.
+ */
+public class ExtractedClassCache {
+
+	private static final Logger LOG = Logger
+			.getLogger(ExtractedClassCache.class.getName());
+
+	/**
+	 * The directory used when none is configured
+	 */
+	public static final File DEFAULT_ROOT = new File(
+			System.getProperty("java.io.tmpdir"), "soapui-junit-class-cache");
+
+	/**
+	 * Written last into a tree, lists the extracted jars
+	 */
+	public static final String MANIFEST = "cache.manifest";
+
+	private static final String TMP_PREFIX = ".tmp-";
+
+	// trees extracted in the background by this JVM right now
+	private static final Set<String> EXTRACTING = Collections
+			.synchronizedSet(new HashSet<String>());
+
+	private final File root;
+
+	private long maxAgeMillis = TimeUnit.DAYS.toMillis(30);
+
+	private boolean background = true;
+
+	public ExtractedClassCache() {
+		this(DEFAULT_ROOT);
+	}
+
+	public ExtractedClassCache(File root) {
+		this.root = root;
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	public long getMaxAgeMillis() {
+		return maxAgeMillis;
+	}
+
+	/**
+	 * @param maxAgeMillis
+	 *            how long an unused tree is kept
+	 */
+	public void setMaxAgeMillis(long maxAgeMillis) {
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	public boolean isBackground() {
+		return background;
+	}
+
+	/**
+	 * @param background
+	 *            true to extract a missing tree on a daemon thread while the
+	 *            jail loads from the jars, false to extract it before
+	 *            {@link #apply(List)} returns
+	 */
+	public void setBackground(boolean background) {
+		this.background = background;
+	}
+
+	/**
+	 * Puts the extracted class directories in front of their jars. If the
+	 * classpath has not been extracted yet it is returned unchanged and
+	 * extracted for the next jail.
+	 *
+	 * @param classpath
+	 *            the classpath of the jail
+	 *
+	 * @return the classpath to create the jail with
+	 */
+	public List<URL> apply(List<URL> classpath) {
+
+		final List<File> jars = jars(classpath);
+		if (jars.isEmpty()) {
+			return classpath;
+		}
+
+		final String key = key(jars);
+		File tree = new File(root, key);
+		File manifest = new File(tree, MANIFEST);
+
+		if (!manifest.isFile()) {
+			if (!background) {
+				extract(key, jars);
+			} else if (EXTRACTING.add(key)) {
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							extract(key, jars);
+						} finally {
+							EXTRACTING.remove(key);
+						}
+					}
+				}, "soapui-class-cache");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			if (!manifest.isFile()) {
+				return classpath;
+			}
+		}
+
+		// marks the tree as used for the pruning of old trees
+		manifest.setLastModified(System.currentTimeMillis());
+
+		List<URL> result = new ArrayList<URL>(classpath.size() + jars.size());
+		for (URL url : classpath) {
+			File jar = file(url);
+			int index = jar != null ? jars.indexOf(jar) : -1;
+			if (index >= 0) {
+				File classes = new File(tree, Integer.toString(index));
+				if (classes.isDirectory()) {
+					try {
+						result.add(classes.toURI().toURL());
+					} catch (MalformedURLException e) {
+						LOG.log(Level.FINE, "Cannot use " + classes, e);
+					}
+				}
+			}
+			result.add(url);
+		}
+		return result;
+	}
+
+	/**
+	 * Extracts the class files of the jars into the tree of their key unless
+	 * it exists already.
+	 *
+	 * @return the tree or null if it could not be created
+	 */
+	File extract(String key, List<File> jars) {
+
+		File tree = new File(root, key);
+		if (new File(tree, MANIFEST).isFile()) {
+			return tree;
+		}
+
+		long start = System.nanoTime();
+		File tmp = new File(root, TMP_PREFIX + key + "-"
+				+ Long.toHexString(System.nanoTime()));
+		try {
+			prune();
+			if (!tmp.mkdirs()) {
+				throw new IOException("Cannot create " + tmp);
+			}
+
+			Properties manifest = new Properties();
+			int classes = 0;
+			for (int i = 0; i < jars.size(); i++) {
+				File jar = jars.get(i);
+				int extracted = extract(jar,
+						new File(tmp, Integer.toString(i)));
+				manifest.setProperty("jar." + i, jar.getAbsolutePath() + '|'
+						+ jar.length() + '|' + jar.lastModified() + '|'
+						+ (extracted < 0 ? "signed" : extracted));
+				classes += Math.max(0, extracted);
+			}
+
+			OutputStream out = new FileOutputStream(new File(tmp, MANIFEST));
+			try {
+				manifest.store(out, "classes extracted for the jail");
+			} finally {
+				out.close();
+			}
+
+			try {
+				Files.move(tmp.toPath(), tree.toPath(),
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// another JVM was quicker
+				if (!new File(tree, MANIFEST).isFile()) {
+					throw e;
+				}
+			}
+
+			LOG.info("Extracted " + classes + " classes of " + jars.size()
+					+ " jars into " + tree + " in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+					+ "ms");
+			return tree;
+
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Failed to extract the classes into "
+					+ tree, e);
+			return null;
+		} finally {
+			delete(tmp);
+		}
+	}
+
+	/**
+	 * @return the number of classes extracted or -1 if the jar is signed
+	 */
+	private static int extract(File jar, File dir) throws IOException {
+		ZipFile zip = new ZipFile(jar);
+		try {
+			List<ZipEntry> classes = new ArrayList<ZipEntry>();
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				String name = entry.getName();
+				if (isSignature(name)) {
+					return -1;
+				}
+				if (!entry.isDirectory() && name.endsWith(".class")
+						&& !name.startsWith("META-INF/") && !name.contains("..")) {
+					classes.add(entry);
+				}
+			}
+
+			byte[] buffer = new byte[64 * 1024];
+			for (ZipEntry entry : classes) {
+				File file = new File(dir, entry.getName().replace('/',
+						File.separatorChar));
+				File parent = file.getParentFile();
+				if (!parent.isDirectory() && !parent.mkdirs()) {
+					throw new IOException("Cannot create " + parent);
+				}
+				InputStream in = zip.getInputStream(entry);
+				try {
+					OutputStream out = new FileOutputStream(file);
+					try {
+						int n;
+						while ((n = in.read(buffer)) != -1) {
+							out.write(buffer, 0, n);
+						}
+					} finally {
+						out.close();
+					}
+				} finally {
+					in.close();
+				}
+			}
+			return classes.size();
+		} finally {
+			zip.close();
+		}
+	}
+
+	private static boolean isSignature(String name) {
+		if (!name.startsWith("META-INF/") || name.indexOf('/', 9) >= 0) {
+			return false;
+		}
+		String upper = name.toUpperCase();
+		return upper.endsWith(".SF") || upper.endsWith(".RSA")
+				|| upper.endsWith(".DSA") || upper.endsWith(".EC");
+	}
+
+	/**
+	 * Removes the trees that have not been used for the maximum age and the
+	 * leftovers of failed extractions.
+	 */
+	private void prune() {
+		File[] trees = root.listFiles();
+		if (trees == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for (File tree : trees) {
+			File manifest = new File(tree, MANIFEST);
+			long used = manifest.isFile() ? manifest.lastModified() : tree
+					.lastModified();
+			long maxAge = tree.getName().startsWith(TMP_PREFIX) ? Math.min(
+					maxAgeMillis, TimeUnit.DAYS.toMillis(1)) : maxAgeMillis;
+			if (tree.isDirectory() && now - used > maxAge) {
+				LOG.fine("Removing unused class cache " + tree);
+				delete(tree);
+			}
+		}
+	}
+
+	private static List<File> jars(List<URL> classpath) {
+		List<File> jars = new ArrayList<File>();
+		for (URL url : classpath) {
+			File file = file(url);
+			if (file != null && file.isFile() && !jars.contains(file)) {
+				jars.add(file);
+			}
+		}
+		return jars;
+	}
+
+	private static File file(URL url) {
+		if (!"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			return new File(url.toURI()).getAbsoluteFile();
+		} catch (URISyntaxException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	static String key(List<File> jars) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			for (File jar : jars) {
+				md.update((jar.getAbsolutePath() + '|' + jar.length() + '|'
+						+ jar.lastModified() + '\n').getBytes("UTF-8"));
+			}
+			return String.format("%032x",
+					new BigInteger(1, md.digest()).shiftRight(128));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -19,6 +19,9 @@
  */
 package io.fares.classloader;
 
+import io.fares.classloader.ClassLoadTrace.Decision;
+import io.fares.classloader.ClassLoadTrace.Kind;
+
 import java.security.SecureClassLoader;
 import java.util.List;
 
@@ -32,11 +35,18 @@ import java.util.List;
  */
 public class FilteringClassLoader extends SecureClassLoader {
 
+	static {
+		// lookups from concurrent preloading threads must not serialise here
+		registerAsParallelCapable();
+	}
+
 	private final String[] filters;
 	private final String[] fnFilters;
 	private final String[] negativeFilters;
 	private final String[] negativeFNFilters;
 
+	private volatile ClassLoadTrace trace;
+
 	/**
 	 * Constructor.
 	 * 
@@ -214,10 +224,37 @@ public class FilteringClassLoader extends SecureClassLoader {
 
 	protected Class<?> loadClass(String name, boolean resolve)
 			throws ClassNotFoundException {
+		ClassLoadTrace t = trace;
+		if (t == null) {
+			return filterClass(name, resolve);
+		}
+		long start = System.nanoTime();
+		try {
+			Class<?> clazz = filterClass(name, resolve);
+			t.record(Kind.CLASS, name, Decision.PASS, System.nanoTime() - start);
+			return clazz;
+		} catch (ClassNotFoundException e) {
+			t.record(Kind.CLASS, name, passes(name, filters, negativeFilters)
+					? Decision.NOT_FOUND : Decision.BLOCK, System.nanoTime()
+					- start);
+			throw e;
+		}
+	}
+
+	private Class<?> filterClass(String name, boolean resolve)
+			throws ClassNotFoundException {
+		if (passes(name, filters, negativeFilters)) {
+			return super.loadClass(name, resolve);
+		}
+		throw new ClassNotFoundException(name);
+	}
+
+	private static boolean passes(String name, String[] filters,
+			String[] negativeFilters) {
 		if (negativeFilters != null) {
 			for (int i = 0; i < negativeFilters.length; i++) {
 				if (name.startsWith(negativeFilters[i])) {
-					throw new ClassNotFoundException(name);
+					return false;
 				}
 			}
 		}
@@ -225,13 +262,12 @@ public class FilteringClassLoader extends SecureClassLoader {
 		if (filters != null) {
 			for (int i = 0; i < filters.length; i++) {
 				if (name.startsWith(filters[i])) {
-					return super.loadClass(name, resolve);
+					return true;
 				}
 			}
-		} else {
-			return super.loadClass(name, resolve);
+			return false;
 		}
-		throw new ClassNotFoundException(name);
+		return true;
 	}
 
 	/*
@@ -245,24 +281,34 @@ public class FilteringClassLoader extends SecureClassLoader {
 	 */
 
 	public java.net.URL getResource(String name) {
-		if (negativeFNFilters != null) {
-			for (int i = 0; i < negativeFNFilters.length; i++) {
-				if (name.startsWith(negativeFNFilters[i])) {
-					return null;
-				}
-			}
+		ClassLoadTrace t = trace;
+		long start = t != null ? System.nanoTime() : 0;
+		boolean passed = passes(name, fnFilters, negativeFNFilters);
+		java.net.URL resource = passed ? super.getResource(name) : null;
+		if (t != null) {
+			t.record(Kind.RESOURCE, name, resource != null ? Decision.PASS
+					: passed ? Decision.NOT_FOUND : Decision.BLOCK,
+					System.nanoTime() - start);
 		}
+		return resource;
+	}
 
-		if (fnFilters != null) {
-			for (int i = 0; i < fnFilters.length; i++) {
-				if (name.startsWith(fnFilters[i])) {
-					return super.getResource(name);
-				}
-			}
-		} else {
-			return super.getResource(name);
-		}
-		return null;
+	/**
+	 * @return the trace recording the decisions of this classloader or null
+	 *         if it is not traced
+	 */
+	public ClassLoadTrace getTrace() {
+		return trace;
+	}
+
+	/**
+	 * Start or stop recording the decisions of this classloader.
+	 * 
+	 * @param trace
+	 *            the trace to record into, null to stop recording
+	 */
+	public void setTrace(ClassLoadTrace trace) {
+		this.trace = trace;
 	}
 
 	/**
@@ -19,6 +19,7 @@
  */
 package io.fares.classloader;
 
+import java.io.File;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
@@ -44,6 +45,23 @@ public class FilteringClassLoaderFactory implements ClassLoaderFactory {
 	List<URL> includeClasspathURLs;
 	List<Class<?>> includeClazzContainerURLs;
 
+	ClassLoadTrace classLoadTrace;
+
+	List<String> sharedJarPrefixes;
+
+	boolean mappedJars = false;
+
+	File classCacheDir;
+
+	JarUsage jarUsage;
+
+	private static final FlightEvents.Type CONSTRUCTION = FlightEvents
+			.define("io.fares.soapui.JailConstruction", "Jail Construction",
+					"Resolving the classpath and creating the classloaders of a jail",
+					"jars", int.class, "resolveMillis", long.class,
+					"sharedLayer", boolean.class, "mappedJars", boolean.class,
+					"classCache", boolean.class);
+
 	public FilteringClassLoaderFactory() {
 
 	}
@@ -228,20 +246,175 @@ public class FilteringClassLoaderFactory implements ClassLoaderFactory {
 		this.includeClasspathURLs = includeClasspathURLs;
 	}
 
+	public ClassLoadTrace getClassLoadTrace() {
+		return classLoadTrace;
+	}
+
+	/**
+	 * @param classLoadTrace
+	 *            records the decisions of the {@link FilteringClassLoader} of
+	 *            every jail created from now on, null to stop tracing
+	 */
+	public void setClassLoadTrace(ClassLoadTrace classLoadTrace) {
+		this.classLoadTrace = classLoadTrace;
+	}
+
+	public FilteringClassLoaderFactory withClassLoadTrace(
+			ClassLoadTrace classLoadTrace) {
+		setClassLoadTrace(classLoadTrace);
+		return this;
+	}
+
+	/**
+	 * @return the file name prefixes of the jars shared between jails or null
+	 *         if every jail loads all its jars itself
+	 */
+	public List<String> getSharedJarPrefixes() {
+		return sharedJarPrefixes;
+	}
+
+	/**
+	 * @param sharedJarPrefixes
+	 *            file name prefixes of the jars to move into a
+	 *            {@link SharedJarLayers shared layer} beneath the filtering
+	 *            classloader, null to disable sharing
+	 */
+	public void setSharedJarPrefixes(List<String> sharedJarPrefixes) {
+		this.sharedJarPrefixes = sharedJarPrefixes;
+	}
+
+	/**
+	 * Share the jars matching the prefixes with other jails that use the
+	 * identical jars.
+	 *
+	 * @param prefixes
+	 *            file name prefixes of the jars to share, the
+	 *            {@link SharedJarLayers#DEFAULT_PREFIXES} if none are given
+	 *
+	 * @return the factory
+	 */
+	public FilteringClassLoaderFactory withSharedJarLayer(String... prefixes) {
+		setSharedJarPrefixes(Arrays
+				.asList(prefixes == null || prefixes.length == 0 ? SharedJarLayers.DEFAULT_PREFIXES
+						: prefixes));
+		return this;
+	}
+
+	public boolean isMappedJars() {
+		return mappedJars;
+	}
+
+	/**
+	 * @param mappedJars
+	 *            true to create the jail as a {@link MappedJarClassLoader}
+	 *            that memory maps its jars, false for a plain
+	 *            {@link URLClassLoader}
+	 */
+	public void setMappedJars(boolean mappedJars) {
+		this.mappedJars = mappedJars;
+	}
+
+	public FilteringClassLoaderFactory withMappedJars() {
+		setMappedJars(true);
+		return this;
+	}
+
+	public File getClassCacheDir() {
+		return classCacheDir;
+	}
+
+	/**
+	 * @param classCacheDir
+	 *            the root of the {@link ExtractedClassCache} the jails load
+	 *            their classes from, null to load them from the jars
+	 */
+	public void setClassCacheDir(File classCacheDir) {
+		this.classCacheDir = classCacheDir;
+	}
+
+	public FilteringClassLoaderFactory withClassCache(File classCacheDir) {
+		setClassCacheDir(classCacheDir);
+		return this;
+	}
+
+	public JarUsage getJarUsage() {
+		return jarUsage;
+	}
+
+	/**
+	 * @param jarUsage
+	 *            records which jars of the jails serve classes and
+	 *            resources, null to not record. Cannot be combined with a
+	 *            shared jar layer or a class cache.
+	 */
+	public void setJarUsage(JarUsage jarUsage) {
+		this.jarUsage = jarUsage;
+	}
+
+	public FilteringClassLoaderFactory withJarUsage(JarUsage jarUsage) {
+		setJarUsage(jarUsage);
+		return this;
+	}
+
 	@Override
 	public ClassLoader createClassLoader() {
-		return createClassLoader(parentClassLoader != null ? parentClassLoader
-				: getClass().getClassLoader());
+		return createJail().getClassLoader();
 	}
 
 	@Override
 	public ClassLoader createClassLoader(ClassLoader parent) {
+		return createJail(parent).getClassLoader();
+	}
+
+	/**
+	 * Creates a jail below the configured parent classloader.
+	 *
+	 * @return the jail and what it took to create it
+	 */
+	public Jail createJail() {
+		return createJail(parentClassLoader != null ? parentClassLoader
+				: getClass().getClassLoader());
+	}
+
+	/**
+	 * @param parent
+	 *            the classloader the jail filters
+	 *
+	 * @return the jail and what it took to create it
+	 */
+	public Jail createJail(ClassLoader parent) {
+		FlightEvents.Event event = CONSTRUCTION.begin();
+		Jail jail = newJail(parent);
+		ClassLoader jailParent = jail.getClassLoader().getParent();
+		event.set(0, jail.getClasspathSize())
+				.set(1, jail.getResolveNanos() / 1000000)
+				.set(2, jailParent != null
+						&& !(jailParent instanceof FilteringClassLoader))
+				.set(3, mappedJars).set(4, classCacheDir != null).commit();
+		return jail;
+	}
+
+	private Jail newJail(ClassLoader parent) {
+
+		// jars served from a layer or the class cache are not counted and
+		// would be proposed as exclusions
+		boolean layered = sharedJarPrefixes != null
+				&& !sharedJarPrefixes.isEmpty();
+		if (jarUsage != null && (layered || classCacheDir != null)) {
+			throw new IllegalStateException(
+					"Jar usage cannot be measured with a shared jar layer "
+							+ "or a class cache, turn them off while measuring");
+		}
 
-		// lets give our classloader some locations to work with
-		List<URL> jailDependencies = getIncludeClasspathURLs();
+		// lets give our classloader some locations to work with, copied as
+		// the factory may be asked for more than one jail
+		List<URL> jailDependencies = new ArrayList<URL>(
+				getIncludeClasspathURLs());
 
 		// get all maven artefact urls
+		long start = System.nanoTime();
 		List<URL> mavenDependencies = classpathResolver.resolveClassPath();
+		long resolveNanos = System.nanoTime() - start;
 
 		// add them to the jail urls configured separately
 		jailDependencies.addAll(mavenDependencies);
@@ -261,13 +434,56 @@ public class FilteringClassLoaderFactory implements ClassLoaderFactory {
 		// fire a filtering classloader with provided filters
 		FilteringClassLoader fwcl = new FilteringClassLoader(parent,
 				passFilters, blockFilters);
+		fwcl.setTrace(classLoadTrace);
+
+		// jars identical to the ones of other jails go into a shared layer
+		// between the jail and the filtering classloader
+		ClassLoader jailParent = fwcl;
+		if (sharedJarPrefixes != null && !sharedJarPrefixes.isEmpty()) {
+			String parentKey = getPassFilters() + "|" + getBlockFilters() + "|"
+					+ System.identityHashCode(parent);
+			jailParent = SharedJarLayers.hoist(parentKey, fwcl,
+					jailDependencies, sharedJarPrefixes);
+		}
+
+		URL[] urls;
+		ClassLoader jail;
+		try {
+			if (jarUsage != null) {
+				jarUsage.register(
+						jailDependencies,
+						classpathResolver instanceof AetherClasspathResolver ? ((AetherClasspathResolver) classpathResolver)
+								.getCoordinates() : null);
+			}
+
+			// classes of jars extracted before are read from the extracted
+			// tree
+			if (classCacheDir != null) {
+				jailDependencies = new ExtractedClassCache(classCacheDir)
+						.apply(jailDependencies);
+			}
 
-		// create a primary classloader with parent being the filtering
-		// classloader blocking all classloading requests as per filter
-		// configuration
-		return new URLClassLoader(
-				jailDependencies.toArray(new URL[jailDependencies.size()]),
-				fwcl);
+			// create a primary classloader with parent being the filtering
+			// classloader blocking all classloading requests as per filter
+			// configuration
+			urls = jailDependencies.toArray(new URL[jailDependencies.size()]);
+			if (mappedJars) {
+				MappedJarClassLoader mapped = new MappedJarClassLoader(urls,
+						jailParent);
+				mapped.setJarUsage(jarUsage);
+				jail = mapped;
+			} else if (jarUsage != null) {
+				jail = new JarUsage.RecordingClassLoader(urls, jailParent,
+						jarUsage);
+			} else {
+				jail = new URLClassLoader(urls, jailParent);
+			}
+		} catch (RuntimeException e) {
+			// the jail never comes to be unloaded
+			SharedJarLayers.release(jailParent);
+			throw e;
+		}
+		return new Jail(jail, resolveNanos, urls.length);
 
 	}
 
@@ -301,4 +517,46 @@ public class FilteringClassLoaderFactory implements ClassLoaderFactory {
 
 	}
 
+	/**
+	 * A jail created by the factory together with the figures of its
+	 * creation, so concurrent creations do not mix them up.
+	 */
+	public static final class Jail {
+
+		private final ClassLoader classLoader;
+
+		private final long resolveNanos;
+
+		private final int classpathSize;
+
+		Jail(ClassLoader classLoader, long resolveNanos, int classpathSize) {
+			this.classLoader = classLoader;
+			this.resolveNanos = resolveNanos;
+			this.classpathSize = classpathSize;
+		}
+
+		/**
+		 * @return the jail classloader
+		 */
+		public ClassLoader getClassLoader() {
+			return classLoader;
+		}
+
+		/**
+		 * @return how long resolving the classpath took in nanoseconds
+		 */
+		public long getResolveNanos() {
+			return resolveNanos;
+		}
+
+		/**
+		 * @return the number of classpath entries, not counting the jars of
+		 *         a shared layer
+		 */
+		public int getClasspathSize() {
+			return classpathSize;
+		}
+
+	}
+
 }
@@ -0,0 +1,271 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Emits Java Flight Recorder events on JVMs that have <code>jdk.jfr</code>
+ * while the library itself still runs on Java 7. Event types are created
+ * through <code>jdk.jfr.EventFactory</code> by reflection, a type that is
+ * not enabled by a running recording hands out a shared no-op event, so
+ * instrumented code only pays for a check of the type when nobody records.
+ * Set the system property {@value #PROPERTY} to <code>false</code> to not
+ * register any types.
+ */
+public final class FlightEvents {
+
+	private static final Logger LOG = Logger.getLogger(FlightEvents.class
+			.getName());
+
+	public static final String PROPERTY = "soapui.mockrunner.jfr";
+
+	/** the category all events are listed under */
+	public static final String CATEGORY = "SoapUI MockRunner";
+
+	private static final Api API = Api.load();
+
+	private FlightEvents() {
+	}
+
+	/**
+	 * @return true if the JVM can record the events
+	 */
+	public static boolean isAvailable() {
+		return API != null;
+	}
+
+	/**
+	 * Defines an event type, the type is a no-op if flight recording is not
+	 * available.
+	 *
+	 * @param name
+	 *            the unique name of the event type
+	 * @param label
+	 *            a human readable name
+	 * @param description
+	 *            what the duration of the event covers
+	 * @param fields
+	 *            the name and type of each field in turn, types are
+	 *            primitives or {@link String}
+	 *
+	 * @return the event type
+	 */
+	public static Type define(String name, String label, String description,
+			Object... fields) {
+		if (API == null) {
+			return new Type(null, null);
+		}
+		try {
+			List<Object> annotations = new ArrayList<Object>();
+			annotations.add(API.annotation("jdk.jfr.Name", name));
+			annotations.add(API.annotation("jdk.jfr.Label", label));
+			annotations.add(API.annotation("jdk.jfr.Description", description));
+			annotations.add(API.annotation("jdk.jfr.Category",
+					new String[] { CATEGORY }));
+
+			List<Object> descriptors = new ArrayList<Object>();
+			for (int i = 0; i + 1 < fields.length; i += 2) {
+				descriptors.add(API.valueDescriptor.newInstance(fields[i + 1],
+						fields[i], Collections.singletonList(API.annotation(
+								"jdk.jfr.Label", fields[i]))));
+			}
+
+			Object factory = API.create.invoke(null, annotations, descriptors);
+			return new Type(factory, API.getEventType.invoke(factory));
+		} catch (Exception e) {
+			LOG.log(Level.FINE, "Cannot define flight recorder event " + name,
+					e);
+			return new Type(null, null);
+		}
+	}
+
+	/**
+	 * A type of events, cheap to ask whether it is recorded.
+	 */
+	public static final class Type {
+
+		private final Object factory;
+
+		private final Object eventType;
+
+		Type(Object factory, Object eventType) {
+			this.factory = factory;
+			this.eventType = eventType;
+		}
+
+		public boolean isEnabled() {
+			if (eventType == null) {
+				return false;
+			}
+			try {
+				return (Boolean) API.isEnabled.invoke(eventType);
+			} catch (Exception e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Starts timing an event.
+		 *
+		 * @return the event or a no-op event if the type is not recorded
+		 */
+		public Event begin() {
+			if (!isEnabled()) {
+				return Event.DISABLED;
+			}
+			try {
+				Object event = API.newEvent.invoke(factory);
+				API.begin.invoke(event);
+				return new Event(event);
+			} catch (Exception e) {
+				return Event.DISABLED;
+			}
+		}
+
+	}
+
+	/**
+	 * An event being timed.
+	 */
+	public static final class Event {
+
+		static final Event DISABLED = new Event(null);
+
+		private final Object event;
+
+		Event(Object event) {
+			this.event = event;
+		}
+
+		/**
+		 * @return false for the no-op event of a type that is not recorded,
+		 *         lets callers skip computing the field values
+		 */
+		public boolean isRecorded() {
+			return event != null;
+		}
+
+		/**
+		 * @param index
+		 *            the position of the field in the definition of the type
+		 * @param value
+		 *            the value, boxed
+		 *
+		 * @return this event
+		 */
+		public Event set(int index, Object value) {
+			if (event != null) {
+				try {
+					API.set.invoke(event, index, value);
+				} catch (Exception e) {
+					LOG.log(Level.FINE, "Cannot set field " + index, e);
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Ends the event and records it if it passes the thresholds of the
+		 * recording.
+		 */
+		public void commit() {
+			if (event != null) {
+				try {
+					API.end.invoke(event);
+					if ((Boolean) API.shouldCommit.invoke(event)) {
+						API.commit.invoke(event);
+					}
+				} catch (Exception e) {
+					LOG.log(Level.FINE, "Cannot commit flight recorder event", e);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * The reflected parts of <code>jdk.jfr</code>.
+	 */
+	private static final class Api {
+
+		Constructor<?> annotationElement;
+		Constructor<?> valueDescriptor;
+		Method create;
+		Method getEventType;
+		Method isEnabled;
+		Method newEvent;
+		Method begin;
+		Method end;
+		Method shouldCommit;
+		Method commit;
+		Method set;
+
+		static Api load() {
+			if ("false".equalsIgnoreCase(System.getProperty(PROPERTY))) {
+				return null;
+			}
+			try {
+				Api api = new Api();
+				Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+				Class<?> event = Class.forName("jdk.jfr.Event");
+				api.annotationElement = Class.forName(
+						"jdk.jfr.AnnotationElement").getConstructor(
+						Class.class, Object.class);
+				api.valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor")
+						.getConstructor(Class.class, String.class, List.class);
+				api.create = factory.getMethod("create", List.class,
+						List.class);
+				api.getEventType = factory.getMethod("getEventType");
+				api.isEnabled = Class.forName("jdk.jfr.EventType").getMethod(
+						"isEnabled");
+				api.newEvent = factory.getMethod("newEvent");
+				api.begin = event.getMethod("begin");
+				api.end = event.getMethod("end");
+				api.shouldCommit = event.getMethod("shouldCommit");
+				api.commit = event.getMethod("commit");
+				api.set = event.getMethod("set", int.class, Object.class);
+				return api;
+			} catch (ClassNotFoundException e) {
+				return null;
+			} catch (Exception e) {
+				LOG.log(Level.FINE, "Flight recorder events are not available",
+						e);
+				return null;
+			}
+		}
+
+		Object annotation(String type, Object value) throws Exception {
+			@SuppressWarnings("unchecked")
+			Class<? extends Annotation> annotation = (Class<? extends Annotation>) Class
+					.forName(type);
+			return annotationElement.newInstance(annotation, value);
+		}
+
+	}
+
+}
@@ -0,0 +1,286 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import java.io.Closeable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tears down a classloader jail so it can be garbage collected: runs the
+ * configured static shutdown methods inside the jail, detaches threads and
+ * shutdown hooks that were created by the jail and finally closes the
+ * classloader. The returned {@link Probe} can be used to verify the jail was
+ * actually collected.
+ */
+public class JailUnloader {
+
+	protected static final Logger LOG = Logger.getLogger(JailUnloader.class
+			.getName());
+
+	private final List<String> shutdownMethods = new ArrayList<String>();
+
+	/**
+	 * Add a public static no-argument method that is invoked inside the jail
+	 * before it is closed.
+	 *
+	 * @param className
+	 *            the class as seen by the jail
+	 * @param methodName
+	 *            the static method to invoke
+	 *
+	 * @return the unloader
+	 */
+	public JailUnloader addShutdownMethod(String className, String methodName) {
+		shutdownMethods.add(className + '#' + methodName);
+		return this;
+	}
+
+	/**
+	 * Releases all known references to the jail and closes it. The caller must
+	 * drop its own references to the jail for it to become collectable.
+	 *
+	 * @param jail
+	 *            the classloader to unload
+	 *
+	 * @return a probe tracking the collection of the jail
+	 */
+	public Probe unload(ClassLoader jail) {
+
+		for (String shutdownMethod : shutdownMethods) {
+			invokeShutdownMethod(jail, shutdownMethod);
+		}
+
+		ClassLoader replacement = JailUnloader.class.getClassLoader();
+		for (Thread t : allThreads()) {
+			if (isJailed(t.getContextClassLoader(), jail)) {
+				t.setContextClassLoader(replacement);
+			}
+			if (t.isAlive() && isJailed(t.getClass().getClassLoader(), jail)) {
+				LOG.fine("Interrupting jail thread " + t.getName());
+				t.interrupt();
+			}
+		}
+
+		for (Thread hook : shutdownHooks()) {
+			if (isJailed(hook.getClass().getClassLoader(), jail)
+					|| isJailed(hook.getContextClassLoader(), jail)) {
+				try {
+					Runtime.getRuntime().removeShutdownHook(hook);
+				} catch (IllegalStateException e) {
+					// JVM is shutting down already
+				}
+			}
+		}
+
+		if (jail instanceof Closeable) {
+			try {
+				((Closeable) jail).close();
+			} catch (Exception e) {
+				LOG.log(Level.WARNING, "Failed to close jail " + jail, e);
+			}
+		}
+
+		// the last jail of a shared layer takes the layer with it
+		SharedJarLayers.release(jail.getParent());
+
+		return new Probe(jail);
+	}
+
+	private void invokeShutdownMethod(ClassLoader jail, String shutdownMethod) {
+		int split = shutdownMethod.indexOf('#');
+		String className = shutdownMethod.substring(0, split);
+		String methodName = shutdownMethod.substring(split + 1);
+		try {
+			Class<?> clazz = Class.forName(className, true, jail);
+			Method method = clazz.getMethod(methodName);
+			method.invoke(null);
+		} catch (ClassNotFoundException e) {
+			LOG.fine("Jail does not contain " + className);
+		} catch (Exception e) {
+			LOG.log(Level.WARNING, "Failed to invoke " + shutdownMethod
+					+ " inside jail", e);
+		}
+	}
+
+	/**
+	 * @param cl
+	 *            the classloader to check
+	 * @param jail
+	 *            the jail
+	 *
+	 * @return true if the classloader is the jail or one of its children
+	 */
+	static boolean isJailed(ClassLoader cl, ClassLoader jail) {
+		while (cl != null) {
+			if (cl == jail) {
+				return true;
+			}
+			cl = cl.getParent();
+		}
+		return false;
+	}
+
+	static Collection<Thread> allThreads() {
+		ThreadGroup root = Thread.currentThread().getThreadGroup();
+		while (root.getParent() != null) {
+			root = root.getParent();
+		}
+		Thread[] threads = new Thread[root.activeCount() + 16];
+		int count;
+		while ((count = root.enumerate(threads, true)) == threads.length) {
+			threads = new Thread[threads.length * 2];
+		}
+		List<Thread> result = new ArrayList<Thread>(count);
+		for (int i = 0; i < count; i++) {
+			result.add(threads[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * The registered shutdown hooks are not public, newer JDKs only reveal
+	 * them when <code>java.lang</code> is opened to this library.
+	 *
+	 * @return all registered shutdown hooks or an empty list if they cannot be
+	 *         read
+	 */
+	@SuppressWarnings("unchecked")
+	static Collection<Thread> shutdownHooks() {
+		try {
+			Class<?> hooksClass = Class
+					.forName("java.lang.ApplicationShutdownHooks");
+			Field hooksField = hooksClass.getDeclaredField("hooks");
+			hooksField.setAccessible(true);
+			synchronized (hooksClass) {
+				Map<Thread, Thread> hooks = (Map<Thread, Thread>) hooksField
+						.get(null);
+				return hooks == null ? Collections.<Thread> emptyList()
+						: new ArrayList<Thread>(hooks.keySet());
+			}
+		} catch (Exception e) {
+			LOG.log(Level.FINE, "Cannot inspect shutdown hooks", e);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Tracks a jail with a weak reference to find out if it was collected.
+	 */
+	public static class Probe {
+
+		private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<ClassLoader>();
+
+		private final WeakReference<ClassLoader> reference;
+
+		private final String name;
+
+		Probe(ClassLoader jail) {
+			this.reference = new WeakReference<ClassLoader>(jail, queue);
+			this.name = jail.toString();
+		}
+
+		public boolean isCollected() {
+			return reference.get() == null;
+		}
+
+		/**
+		 * Requests garbage collections until the jail is collected or the
+		 * timeout expires.
+		 *
+		 * @param timeoutMillis
+		 *            how long to wait for the jail to be collected
+		 *
+		 * @return true if the jail was collected
+		 */
+		public boolean awaitCollected(long timeoutMillis) {
+			long deadline = System.currentTimeMillis() + timeoutMillis;
+			try {
+				while (!isCollected()) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						return false;
+					}
+					System.gc();
+					queue.remove(Math.min(remaining, 100));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return isCollected();
+			}
+			return true;
+		}
+
+		/**
+		 * Lists the usual suspects still holding the jail: live threads
+		 * created by it or using it as context classloader and shutdown hooks.
+		 * This is a heuristic, not a leak report, it names candidates without
+		 * a retention path and cannot see references from static fields of
+		 * classes outside the jail. Take a heap dump to find the actual path.
+		 *
+		 * @return a description of what retains the jail
+		 */
+		public String describeRetainers() {
+			ClassLoader jail = reference.get();
+			if (jail == null) {
+				return name + " has been collected";
+			}
+			StringBuilder sb = new StringBuilder(name);
+			int found = 0;
+			for (Thread t : allThreads()) {
+				if (isJailed(t.getContextClassLoader(), jail)) {
+					sb.append("\n  <- context classloader of thread '")
+							.append(t.getName()).append('\'');
+					found++;
+				}
+				if (isJailed(t.getClass().getClassLoader(), jail)) {
+					sb.append("\n  <- ").append(t.getClass().getName())
+							.append(" of live thread '").append(t.getName())
+							.append('\'');
+					found++;
+				}
+			}
+			for (Thread hook : shutdownHooks()) {
+				if (isJailed(hook.getClass().getClassLoader(), jail)
+						|| isJailed(hook.getContextClassLoader(), jail)) {
+					sb.append("\n  <- shutdown hook '").append(hook.getName())
+							.append('\'');
+					found++;
+				}
+			}
+			if (found == 0) {
+				sb.append("\n  <- no thread or shutdown hook, "
+						+ "probably a static field outside the jail");
+			}
+			return sb.toString();
+		}
+
+	}
+
+}
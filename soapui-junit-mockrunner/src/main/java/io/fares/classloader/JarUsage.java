@@ -0,0 +1,262 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the classes and resources each jar of the jail classpath serves,
+ * so jars a mock never touches can be excluded from resolution. Jails only
+ * record while they are created with a {@link JarUsage}, jars moved into a
+ * {@link SharedJarLayers shared layer} and classes served from an
+ * {@link ExtractedClassCache} are not counted, so measure without them.
+ * <p>
+ * A jar unused in one run may still be needed by another test, the
+ * exclusions are a proposal to be checked against the whole suite.
+ */
+public class JarUsage {
+
+	private static final JarUsage DEFAULT = new JarUsage();
+
+	private static final Comparator<URL> BY_FORM = new Comparator<URL>() {
+		@Override
+		public int compare(URL a, URL b) {
+			return a.toExternalForm().compareTo(b.toExternalForm());
+		}
+	};
+
+	private final ConcurrentMap<URL, Counts> jars = new ConcurrentHashMap<URL, Counts>();
+
+	/**
+	 * @return the usage shared by all jails of the JVM
+	 */
+	public static JarUsage getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Adds the classpath of a jail to the jars reported.
+	 *
+	 * @param classpath
+	 *            the classpath of the jail
+	 * @param coordinates
+	 *            the <code>groupId:artifactId</code> of the jars, may be
+	 *            empty
+	 */
+	public void register(List<URL> classpath, Map<URL, String> coordinates) {
+		for (URL url : classpath) {
+			String coordinate = coordinates != null ? coordinates.get(url)
+					: null;
+			jars.putIfAbsent(url, new Counts(coordinate));
+		}
+	}
+
+	public void recordClass(Class<?> clazz) {
+		CodeSource source = clazz.getProtectionDomain().getCodeSource();
+		if (source != null && source.getLocation() != null) {
+			Counts counts = jars.get(source.getLocation());
+			if (counts != null) {
+				counts.classes.incrementAndGet();
+			}
+		}
+	}
+
+	public void recordResource(URL resource) {
+		if (resource == null) {
+			return;
+		}
+		String form = resource.toExternalForm();
+		int separator = form.indexOf("!/");
+		try {
+			if (form.startsWith("jar:") && separator > 0) {
+				record(new URL(form.substring(4, separator)));
+				return;
+			}
+		} catch (MalformedURLException e) {
+			return;
+		}
+		for (Map.Entry<URL, Counts> jar : jars.entrySet()) {
+			if (form.startsWith(jar.getKey().toExternalForm())) {
+				jar.getValue().resources.incrementAndGet();
+				return;
+			}
+		}
+	}
+
+	private void record(URL jar) {
+		Counts counts = jars.get(jar);
+		if (counts != null) {
+			counts.resources.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the number of classes loaded from the jar so far
+	 */
+	public int getClassCount(URL jar) {
+		Counts counts = jars.get(jar);
+		return counts != null ? counts.classes.get() : 0;
+	}
+
+	/**
+	 * @return the number of resources looked up in the jar so far
+	 */
+	public int getResourceCount(URL jar) {
+		Counts counts = jars.get(jar);
+		return counts != null ? counts.resources.get() : 0;
+	}
+
+	/**
+	 * @return the <code>groupId:artifactId</code> of the registered jars that
+	 *         served neither a class nor a resource
+	 */
+	public List<String> proposeExclusions() {
+		Set<String> used = new TreeSet<String>();
+		Set<String> unused = new TreeSet<String>();
+		for (Counts counts : jars.values()) {
+			if (counts.coordinate == null) {
+				continue;
+			}
+			if (counts.isUsed()) {
+				used.add(counts.coordinate);
+			} else {
+				unused.add(counts.coordinate);
+			}
+		}
+		// a version that was used keeps the artifact
+		unused.removeAll(used);
+		return Collections.unmodifiableList(new ArrayList<String>(unused));
+	}
+
+	/**
+	 * Writes the count of classes and resources per jar, tab separated, and
+	 * the proposed exclusions ready for
+	 * {@link AetherClasspathResolver#addExclusions(String...)}.
+	 *
+	 * @param file
+	 *            the file to write
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void writeReport(File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create directory " + dir);
+		}
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"));
+		try {
+			out.write("# classes\tresources\tartifact\tjar\n");
+			List<URL> sorted = new ArrayList<URL>(jars.keySet());
+			Collections.sort(sorted, BY_FORM);
+			for (URL jar : sorted) {
+				Counts counts = jars.get(jar);
+				out.write(counts.classes.get() + "\t" + counts.resources.get()
+						+ "\t" + counts.coordinate + "\t" + jar + "\n");
+			}
+			out.write("# proposed exclusions\n");
+			for (String exclusion : proposeExclusions()) {
+				out.write(exclusion);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Forgets all jars and counts.
+	 */
+	public void reset() {
+		jars.clear();
+	}
+
+	private static final class Counts {
+
+		final String coordinate;
+
+		final AtomicInteger classes = new AtomicInteger();
+
+		final AtomicInteger resources = new AtomicInteger();
+
+		Counts(String coordinate) {
+			this.coordinate = coordinate;
+		}
+
+		boolean isUsed() {
+			return classes.get() > 0 || resources.get() > 0;
+		}
+
+	}
+
+	/**
+	 * A {@link URLClassLoader} that records what it serves.
+	 */
+	public static class RecordingClassLoader extends URLClassLoader {
+
+		static {
+			registerAsParallelCapable();
+		}
+
+		private final JarUsage usage;
+
+		public RecordingClassLoader(URL[] urls, ClassLoader parent,
+				JarUsage usage) {
+			super(urls, parent);
+			this.usage = usage;
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			Class<?> clazz = super.findClass(name);
+			usage.recordClass(clazz);
+			return clazz;
+		}
+
+		@Override
+		public URL findResource(String name) {
+			URL resource = super.findResource(name);
+			usage.recordResource(resource);
+			return resource;
+		}
+
+	}
+
+}
@@ -0,0 +1,377 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Checks the integrity of resolved jars on several threads at once. Each jar
+ * is hashed with SHA-1 and compared to the checksum file Maven keeps beside
+ * it. Jars without a usable checksum file are checked for a central
+ * directory, jars that do not match theirs are read in full so the CRC of
+ * every entry is checked, as the checksum files of some repositories are
+ * wrong themselves. Jars found intact are recorded by path, length and
+ * modification time in a manifest and are not hashed again until they
+ * change.
+ */
+public class JarVerifier {
+
+	private static final Logger LOG = Logger.getLogger(JarVerifier.class
+			.getName());
+
+	/**
+	 * The manifest used when none is configured
+	 */
+	public static final File DEFAULT_MANIFEST = new File(
+			System.getProperty("java.io.tmpdir"),
+			"soapui-junit-jar-digests.properties");
+
+	private static final int END_SIG = 0x06054b50;
+
+	private static final int END_SIZE = 22;
+
+	private final File manifest;
+
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	public JarVerifier() {
+		this(DEFAULT_MANIFEST);
+	}
+
+	/**
+	 * @param manifest
+	 *            the file that records the intact jars, null to hash every
+	 *            jar each time
+	 */
+	public JarVerifier(File manifest) {
+		this.manifest = manifest;
+	}
+
+	public File getManifest() {
+		return manifest;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * @param jars
+	 *            the classpath to check, entries that are not jar files are
+	 *            skipped
+	 *
+	 * @return the damaged jars, empty if all are intact
+	 */
+	public List<File> verify(List<URL> jars) {
+
+		long start = System.nanoTime();
+		final Properties known = load();
+
+		List<File> files = new ArrayList<File>();
+		for (URL url : jars) {
+			File file = file(url);
+			if (file != null && file.isFile()) {
+				files.add(file);
+			}
+		}
+
+		List<File> damaged = new ArrayList<File>();
+		List<File> hashed = new ArrayList<File>();
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(parallelism, Math.max(1, files.size())), THREADS);
+		try {
+			for (final File file : files) {
+				if (stamp(file).equals(known.getProperty(file.getAbsolutePath()))) {
+					continue;
+				}
+				hashed.add(file);
+				results.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						return verify(file);
+					}
+				}));
+			}
+
+			for (int i = 0; i < hashed.size(); i++) {
+				File file = hashed.get(i);
+				boolean intact;
+				try {
+					intact = results.get(i).get();
+				} catch (ExecutionException e) {
+					LOG.log(Level.WARNING, "Cannot read " + file, e.getCause());
+					intact = false;
+				}
+				if (intact) {
+					known.setProperty(file.getAbsolutePath(), stamp(file));
+				} else {
+					known.remove(file.getAbsolutePath());
+					damaged.add(file);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted verifying jars", e);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		if (!hashed.isEmpty()) {
+			store(known);
+		}
+
+		LOG.fine("Verified " + files.size() + " jars, hashed " + hashed.size()
+				+ ", " + damaged.size() + " damaged, in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+				+ "ms");
+		return damaged;
+	}
+
+	/**
+	 * Forgets the jars, for example after they have been deleted.
+	 */
+	public void forget(List<File> jars) {
+		Properties known = load();
+		for (File jar : jars) {
+			known.remove(jar.getAbsolutePath());
+		}
+		store(known);
+	}
+
+	/**
+	 * @return true if the jar is intact
+	 */
+	static boolean verify(File jar) throws IOException {
+
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		boolean hasEnd = false;
+		FileChannel channel = FileChannel.open(jar.toPath(),
+				StandardOpenOption.READ);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				md.update(buffer);
+				buffer.clear();
+			}
+
+			long size = channel.size();
+			int tail = (int) Math.min(size, END_SIZE + 0xffff);
+			ByteBuffer end = ByteBuffer.allocate(tail).order(
+					ByteOrder.LITTLE_ENDIAN);
+			while (end.hasRemaining()
+					&& channel.read(end, size - tail + end.position()) != -1) {
+				// positional reads leave the hashed channel alone
+			}
+			for (int pos = tail - END_SIZE; pos >= 0 && !hasEnd; pos--) {
+				hasEnd = end.getInt(pos) == END_SIG;
+			}
+		} finally {
+			channel.close();
+		}
+
+		String digest = String.format("%040x", new BigInteger(1, md.digest()));
+		String expected = sidecar(jar);
+
+		if (expected == null) {
+			if (!hasEnd) {
+				LOG.warning("No central directory in " + jar);
+			}
+			return hasEnd;
+		}
+		if (expected.equals(digest)) {
+			return true;
+		}
+
+		// either the download or the checksum file is broken
+		boolean intact = hasEnd && entriesIntact(jar);
+		if (intact) {
+			LOG.fine("Checksum file of " + jar
+					+ " does not match but all entries are intact");
+		} else {
+			LOG.warning("Checksum of " + jar + " is " + digest + " but "
+					+ expected + " was expected");
+		}
+		return intact;
+	}
+
+	/**
+	 * @return the SHA-1 recorded in the checksum file next to the jar or null
+	 *         if there is none or it cannot be read
+	 */
+	private static String sidecar(File jar) {
+		File file = new File(jar.getPath() + ".sha1");
+		if (!file.isFile() || file.length() > 1024) {
+			return null;
+		}
+		try {
+			String content = new String(Files.readAllBytes(file.toPath()),
+					"US-ASCII").trim();
+			String first = content.split("\\s+")[0].toLowerCase();
+			return first.matches("[0-9a-f]{40}") ? first : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static boolean entriesIntact(File jar) {
+		try {
+			ZipInputStream in = new ZipInputStream(new BufferedInputStream(
+					new FileInputStream(jar), 1 << 16));
+			try {
+				byte[] buffer = new byte[1 << 16];
+				while (in.getNextEntry() != null) {
+					// reading to the end checks the crc of the entry
+					while (in.read(buffer) != -1) {
+						// the content itself is of no interest
+					}
+					in.closeEntry();
+				}
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			LOG.log(Level.FINE, "Damaged entry in " + jar, e);
+			return false;
+		}
+	}
+
+	private static String stamp(File file) {
+		return file.length() + "|" + file.lastModified();
+	}
+
+	private Properties load() {
+		Properties known = new Properties();
+		if (manifest != null && manifest.isFile()) {
+			try {
+				InputStream in = new FileInputStream(manifest);
+				try {
+					known.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				LOG.log(Level.FINE, "Cannot read " + manifest, e);
+			}
+		}
+		return known;
+	}
+
+	private void store(Properties known) {
+		if (manifest == null) {
+			return;
+		}
+		File dir = manifest.getAbsoluteFile().getParentFile();
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Cannot create " + dir);
+			}
+			// written aside and moved so other JVMs never read half of it
+			File tmp = File.createTempFile(manifest.getName(), ".tmp", dir);
+			try {
+				OutputStream out = new FileOutputStream(tmp);
+				try {
+					known.store(out, "jars found intact");
+				} finally {
+					out.close();
+				}
+				Files.move(tmp.toPath(), manifest.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				tmp.delete();
+			}
+		} catch (IOException e) {
+			LOG.log(Level.FINE, "Cannot write " + manifest, e);
+		}
+	}
+
+	private static File file(URL url) {
+		if (!"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static final ThreadFactory THREADS = new ThreadFactory() {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "soapui-jar-verifier-"
+					+ count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	};
+
+}
@@ -0,0 +1,674 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.security.SecureClassLoader;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.Attributes.Name;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A jail classloader that memory maps its jars instead of opening them
+ * through {@link java.util.jar.JarFile}. The central directory of each jar is
+ * parsed once into an open addressing hash table held outside the heap, which
+ * points straight at the directory records in the mapped file. Entries are
+ * copied out of the mapping and deflated ones are inflated with pooled
+ * {@link Inflater}s, so loading a class allocates little more than the class
+ * bytes themselves. Classes and resources of directories are read from the
+ * file system and URLs that cannot be mapped, like zip64 or remote jars, are
+ * served by a {@link URLClassLoader} of their own.
+ * <p>
+ * Resource URLs of mapped jars are ordinary <code>jar:</code> URLs, only
+ * {@link #getResourceAsStream(String)} is served from the mapping. Mappings
+ * cannot be released explicitly, after {@link #close()} they are unmapped
+ * when the garbage collector reclaims them.
+ */
+public class MappedJarClassLoader extends SecureClassLoader implements
+		Closeable {
+
+	static {
+		registerAsParallelCapable();
+	}
+
+	private static final Logger LOG = Logger
+			.getLogger(MappedJarClassLoader.class.getName());
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	/** inflaters kept for reuse, enough for the preloading threads */
+	private static final int MAX_POOLED = 16;
+
+	private final URL[] urls;
+
+	private final Source[] sources;
+
+	private final ConcurrentLinkedQueue<InflaterBuffer> inflaters = new ConcurrentLinkedQueue<InflaterBuffer>();
+
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	private volatile boolean closed = false;
+
+	private volatile JarUsage jarUsage;
+
+	public MappedJarClassLoader(URL[] urls, ClassLoader parent) {
+		super(parent);
+		this.urls = urls.clone();
+		this.sources = new Source[urls.length];
+		for (int i = 0; i < urls.length; i++) {
+			sources[i] = open(urls[i]);
+		}
+	}
+
+	public URL[] getURLs() {
+		return urls.clone();
+	}
+
+	public JarUsage getJarUsage() {
+		return jarUsage;
+	}
+
+	/**
+	 * @param jarUsage
+	 *            records the classes and resources served, null to stop
+	 *            recording
+	 */
+	public void setJarUsage(JarUsage jarUsage) {
+		this.jarUsage = jarUsage;
+	}
+
+	/**
+	 * @return the number of jars served from a mapping
+	 */
+	public int getMappedCount() {
+		int count = 0;
+		for (Source source : sources) {
+			if (source instanceof MappedJar) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		if (closed) {
+			throw new ClassNotFoundException(name + " (classloader closed)");
+		}
+		String path = name.replace('.', '/').concat(".class");
+		for (Source source : sources) {
+			byte[] bytes;
+			try {
+				bytes = source.read(path);
+			} catch (IOException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+			if (bytes != null) {
+				definePackageFor(name, source);
+				Class<?> clazz = defineClass(name, bytes, 0, bytes.length,
+						source.codeSource);
+				JarUsage usage = jarUsage;
+				if (usage != null) {
+					usage.recordClass(clazz);
+				}
+				return clazz;
+			}
+		}
+		throw new ClassNotFoundException(name);
+	}
+
+	@Override
+	protected URL findResource(String name) {
+		if (closed) {
+			return null;
+		}
+		for (Source source : sources) {
+			URL url = source.find(name);
+			if (url != null) {
+				JarUsage usage = jarUsage;
+				if (usage != null) {
+					usage.recordResource(url);
+				}
+				return url;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected Enumeration<URL> findResources(String name) throws IOException {
+		List<URL> found = new ArrayList<URL>();
+		if (!closed) {
+			for (Source source : sources) {
+				URL url = source.find(name);
+				if (url != null) {
+					found.add(url);
+				}
+			}
+		}
+		return Collections.enumeration(found);
+	}
+
+	@Override
+	public InputStream getResourceAsStream(String name) {
+		ClassLoader parent = getParent();
+		if (parent == null) {
+			return super.getResourceAsStream(name);
+		}
+		URL url = parent.getResource(name);
+		if (url != null) {
+			try {
+				return url.openStream();
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		if (closed) {
+			return null;
+		}
+		for (Source source : sources) {
+			try {
+				byte[] bytes = source.read(name);
+				if (bytes != null) {
+					JarUsage usage = jarUsage;
+					if (usage != null) {
+						usage.recordResource(source.find(name));
+					}
+					return new ByteArrayInputStream(bytes);
+				}
+			} catch (IOException e) {
+				LOG.log(Level.FINE, "Failed to read " + name + " from "
+						+ source.codeSource.getLocation(), e);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Closes the jars that are not mapped and releases the pooled inflaters.
+	 * Classes and resources are no longer found afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		for (Source source : sources) {
+			source.close();
+		}
+		InflaterBuffer buffer;
+		while ((buffer = inflaters.poll()) != null) {
+			buffer.inflater.end();
+		}
+	}
+
+	private void definePackageFor(String className, Source source) {
+		int dot = className.lastIndexOf('.');
+		if (dot < 0) {
+			return;
+		}
+		String pkg = className.substring(0, dot);
+		if (getPackage(pkg) != null) {
+			return;
+		}
+		Manifest man = source.manifest();
+		String path = pkg.replace('.', '/').concat("/");
+		try {
+			definePackage(pkg, attribute(man, path, Name.SPECIFICATION_TITLE),
+					attribute(man, path, Name.SPECIFICATION_VERSION),
+					attribute(man, path, Name.SPECIFICATION_VENDOR),
+					attribute(man, path, Name.IMPLEMENTATION_TITLE),
+					attribute(man, path, Name.IMPLEMENTATION_VERSION),
+					attribute(man, path, Name.IMPLEMENTATION_VENDOR), null);
+		} catch (IllegalArgumentException e) {
+			// defined concurrently by another thread
+		}
+	}
+
+	private static String attribute(Manifest man, String path, Name name) {
+		if (man == null) {
+			return null;
+		}
+		Attributes section = man.getAttributes(path);
+		String value = section != null ? section.getValue(name) : null;
+		return value != null ? value : man.getMainAttributes().getValue(name);
+	}
+
+	private Source open(URL url) {
+		if ("file".equals(url.getProtocol())) {
+			try {
+				File file = new File(url.toURI());
+				if (file.isDirectory()) {
+					return new Directory(url, file);
+				}
+				if (file.isFile()) {
+					return new MappedJar(url, file);
+				}
+			} catch (URISyntaxException e) {
+				LOG.log(Level.FINE, "Cannot map " + url, e);
+			} catch (IllegalArgumentException e) {
+				LOG.log(Level.FINE, "Cannot map " + url, e);
+			} catch (IOException e) {
+				LOG.log(Level.FINE, "Cannot map " + url, e);
+			}
+		}
+		return new Fallback(url);
+	}
+
+	private InflaterBuffer borrow() {
+		InflaterBuffer buffer = inflaters.poll();
+		if (buffer == null) {
+			return new InflaterBuffer();
+		}
+		pooled.decrementAndGet();
+		return buffer;
+	}
+
+	private void release(InflaterBuffer buffer) {
+		buffer.inflater.reset();
+		if (!closed) {
+			if (pooled.incrementAndGet() <= MAX_POOLED) {
+				inflaters.offer(buffer);
+				return;
+			}
+			pooled.decrementAndGet();
+		}
+		buffer.inflater.end();
+	}
+
+	private static final class InflaterBuffer {
+
+		final Inflater inflater = new Inflater(true);
+
+		byte[] input = new byte[1 << 13];
+
+		byte[] input(int size) {
+			if (input.length < size) {
+				input = new byte[Integer.highestOneBit(size) << 1];
+			}
+			return input;
+		}
+
+	}
+
+	private abstract static class Source {
+
+		final CodeSource codeSource;
+
+		Source(URL url) {
+			this.codeSource = new CodeSource(url, (Certificate[]) null);
+		}
+
+		/**
+		 * @return the content of the entry or null if there is none
+		 */
+		abstract byte[] read(String name) throws IOException;
+
+		abstract URL find(String name);
+
+		Manifest manifest() {
+			return null;
+		}
+
+		void close() {
+		}
+
+	}
+
+	/**
+	 * A jar mapped in full. The index is a table of central directory offsets
+	 * plus one, zero marking a free slot, probed linearly by the FNV-1a hash
+	 * of the entry name.
+	 */
+	private final class MappedJar extends Source {
+
+		private static final int LOC_SIG = 0x04034b50;
+
+		private static final int CEN_SIG = 0x02014b50;
+
+		private static final int END_SIG = 0x06054b50;
+
+		private static final int END_SIZE = 22;
+
+		private final String base;
+
+		private final MappedByteBuffer map;
+
+		private final IntBuffer index;
+
+		private final int mask;
+
+		private volatile Manifest manifest;
+
+		private volatile boolean manifestRead = false;
+
+		MappedJar(URL url, File file) throws IOException {
+			super(url);
+			this.base = "jar:" + url.toExternalForm() + "!/";
+
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				long size = channel.size();
+				if (size > Integer.MAX_VALUE) {
+					throw new IOException("Too large to map: " + file);
+				}
+				map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			} finally {
+				// the mapping stays valid after the channel is closed
+				raf.close();
+			}
+			map.order(ByteOrder.LITTLE_ENDIAN);
+
+			int end = findEnd();
+			int entries = map.getShort(end + 10) & 0xffff;
+			long offset = map.getInt(end + 16) & 0xffffffffL;
+			if (entries == 0xffff || offset == 0xffffffffL) {
+				throw new ZipException("zip64 is not supported: " + file);
+			}
+
+			int slots = Integer.highestOneBit(Math.max(1, entries) * 2 - 1) << 1;
+			mask = slots - 1;
+			index = ByteBuffer.allocateDirect(slots * 4)
+					.order(ByteOrder.nativeOrder()).asIntBuffer();
+
+			int pos = (int) offset;
+			for (int i = 0; i < entries; i++) {
+				if (pos + 46 > map.limit() || map.getInt(pos) != CEN_SIG) {
+					throw new ZipException("Invalid central directory in "
+							+ file);
+				}
+				int nameLength = map.getShort(pos + 28) & 0xffff;
+				int slot = hash(pos + 46, nameLength) & mask;
+				while (index.get(slot) != 0) {
+					slot = (slot + 1) & mask;
+				}
+				index.put(slot, pos + 1);
+				pos += 46 + nameLength + (map.getShort(pos + 30) & 0xffff)
+						+ (map.getShort(pos + 32) & 0xffff);
+			}
+		}
+
+		private int findEnd() throws ZipException {
+			int last = map.limit() - END_SIZE;
+			int first = Math.max(0, last - 0xffff);
+			for (int pos = last; pos >= first; pos--) {
+				if (map.getInt(pos) == END_SIG) {
+					return pos;
+				}
+			}
+			throw new ZipException("No central directory found");
+		}
+
+		private int hash(int pos, int length) {
+			int h = 0x811c9dc5;
+			for (int i = 0; i < length; i++) {
+				h = (h ^ (map.get(pos + i) & 0xff)) * 0x01000193;
+			}
+			return h;
+		}
+
+		private int hash(byte[] name) {
+			int h = 0x811c9dc5;
+			for (byte b : name) {
+				h = (h ^ (b & 0xff)) * 0x01000193;
+			}
+			return h;
+		}
+
+		/**
+		 * @return the offset of the central directory record or -1
+		 */
+		private int lookup(String name) {
+			byte[] key = name.getBytes(UTF8);
+			int slot = hash(key) & mask;
+			int value;
+			while ((value = index.get(slot)) != 0) {
+				int pos = value - 1;
+				if (matches(pos, key)) {
+					return pos;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		private boolean matches(int pos, byte[] key) {
+			if ((map.getShort(pos + 28) & 0xffff) != key.length) {
+				return false;
+			}
+			for (int i = 0; i < key.length; i++) {
+				if (map.get(pos + 46 + i) != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		byte[] read(String name) throws IOException {
+			int pos = lookup(name);
+			if (pos < 0) {
+				return null;
+			}
+
+			int flags = map.getShort(pos + 8) & 0xffff;
+			int method = map.getShort(pos + 10) & 0xffff;
+			long compressed = map.getInt(pos + 20) & 0xffffffffL;
+			long size = map.getInt(pos + 24) & 0xffffffffL;
+			int local = map.getInt(pos + 42);
+			if ((flags & 1) != 0) {
+				throw new ZipException("Encrypted entry " + name);
+			}
+			if (compressed == 0xffffffffL || size == 0xffffffffL
+					|| local == -1) {
+				throw new ZipException("zip64 entry " + name);
+			}
+			if (map.getInt(local) != LOC_SIG) {
+				throw new ZipException("Invalid local header for " + name);
+			}
+			int data = local + 30 + (map.getShort(local + 26) & 0xffff)
+					+ (map.getShort(local + 28) & 0xffff);
+
+			byte[] bytes = new byte[(int) size];
+			ByteBuffer view = map.duplicate();
+			view.position(data);
+			if (method == 0) {
+				view.get(bytes);
+				return bytes;
+			}
+			if (method != 8) {
+				throw new ZipException("Unsupported compression method "
+						+ method + " for " + name);
+			}
+
+			InflaterBuffer buffer = borrow();
+			try {
+				// nowrap inflaters need an extra dummy byte at the end
+				byte[] input = buffer.input((int) compressed + 1);
+				view.get(input, 0, (int) compressed);
+				input[(int) compressed] = 0;
+				Inflater inflater = buffer.inflater;
+				inflater.setInput(input, 0, (int) compressed + 1);
+				int n = 0;
+				while (n < bytes.length) {
+					int r = inflater.inflate(bytes, n, bytes.length - n);
+					if (r == 0 && (inflater.finished()
+							|| inflater.needsInput() || inflater
+								.needsDictionary())) {
+						break;
+					}
+					n += r;
+				}
+				if (n != bytes.length) {
+					throw new ZipException("Truncated entry " + name);
+				}
+				return bytes;
+			} catch (DataFormatException e) {
+				throw new ZipException("Corrupt entry " + name + ": "
+						+ e.getMessage());
+			} finally {
+				release(buffer);
+			}
+		}
+
+		@Override
+		URL find(String name) {
+			if (lookup(name) < 0) {
+				return null;
+			}
+			try {
+				return new URL(base + name);
+			} catch (MalformedURLException e) {
+				return null;
+			}
+		}
+
+		@Override
+		Manifest manifest() {
+			if (!manifestRead) {
+				try {
+					byte[] bytes = read(MANIFEST);
+					if (bytes != null) {
+						manifest = new Manifest(new ByteArrayInputStream(bytes));
+					}
+				} catch (IOException e) {
+					LOG.log(Level.FINE, "Failed to read the manifest of "
+							+ codeSource.getLocation(), e);
+				}
+				manifestRead = true;
+			}
+			return manifest;
+		}
+
+	}
+
+	private static final class Directory extends Source {
+
+		private final File root;
+
+		Directory(URL url, File root) {
+			super(url);
+			this.root = root;
+		}
+
+		private File file(String name) {
+			File file = new File(root, name.replace('/', File.separatorChar));
+			return file.isFile() ? file : null;
+		}
+
+		@Override
+		byte[] read(String name) throws IOException {
+			File file = file(name);
+			return file != null ? Files.readAllBytes(file.toPath()) : null;
+		}
+
+		@Override
+		URL find(String name) {
+			File file = new File(root, name.replace('/', File.separatorChar));
+			if (!file.exists()) {
+				return null;
+			}
+			try {
+				return file.toURI().toURL();
+			} catch (MalformedURLException e) {
+				return null;
+			}
+		}
+
+	}
+
+	private static final class Fallback extends Source {
+
+		private final URLClassLoader loader;
+
+		Fallback(URL url) {
+			super(url);
+			this.loader = new URLClassLoader(new URL[] { url }, null);
+		}
+
+		@Override
+		byte[] read(String name) throws IOException {
+			URL url = loader.findResource(name);
+			if (url == null) {
+				return null;
+			}
+			InputStream in = url.openStream();
+			try {
+				byte[] buffer = new byte[1 << 13];
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				int r;
+				while ((r = in.read(buffer)) != -1) {
+					out.write(buffer, 0, r);
+				}
+				return out.toByteArray();
+			} finally {
+				in.close();
+			}
+		}
+
+		@Override
+		URL find(String name) {
+			return loader.findResource(name);
+		}
+
+		@Override
+		void close() {
+			try {
+				loader.close();
+			} catch (IOException e) {
+				LOG.log(Level.FINE, "Failed to close " + codeSource.getLocation(),
+						e);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,288 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the third-party jars of jails in shared loaders between the jails
+ * and their {@link FilteringClassLoader}, so jails that use identical jars,
+ * compared by checksum, load their classes once. A jail uses the largest
+ * existing layer whose jars it contains entirely, otherwise a new layer is
+ * created from its jars that match the given file name prefixes. A layer is
+ * closed when the last jail using it is {@link #release(ClassLoader)
+ * released}, or by {@link #closeAll()}.
+ * <p>
+ * Classes in a layer cannot see the classes of the jail, so only libraries
+ * that do not depend on SoapUI may be hoisted, and their static state is
+ * shared by all jails of the layer.
+ */
+public final class SharedJarLayers {
+
+	private static final Logger LOG = Logger.getLogger(SharedJarLayers.class
+			.getName());
+
+	/**
+	 * File name prefixes of the libraries SoapUI depends on that are safe to
+	 * share between jails. Jetty and log4j are left out: each jail runs its
+	 * own Jetty server and shuts down its own log4j when it is unloaded,
+	 * which must not affect the other jails.
+	 */
+	public static final String[] DEFAULT_PREFIXES = new String[] {
+			"xmlbeans", "servlet-api", "commons-", "xercesImpl", "xml-apis", "xalan", "saxon", "wsdl4j", "httpclient",
+			"httpcore", "httpmime", "guava", "jackson-", "json-lib", "ezmorph",
+			"bcprov", "wss4j", "xmlsec", "xom", "jaxen" };
+
+	private static final List<Layer> LAYERS = new ArrayList<Layer>();
+
+	// checksums by path, length and modification time
+	private static final Map<String, String> DIGESTS = new ConcurrentHashMap<String, String>();
+
+	private SharedJarLayers() {
+	}
+
+	/**
+	 * Moves the jars a layer can serve out of the jail classpath.
+	 *
+	 * @param parentKey
+	 *            identifies the filtering classloader configuration, layers
+	 *            are only shared between jails with equal keys
+	 * @param parent
+	 *            the filtering classloader of the jail, becomes the parent of
+	 *            a new layer
+	 * @param jars
+	 *            the classpath of the jail, the jars served by the layer are
+	 *            removed from it
+	 * @param prefixes
+	 *            file name prefixes of the jars a new layer is made of
+	 *
+	 * @return the layer to use as parent of the jail or the given parent if
+	 *         no jars can be shared
+	 */
+	public static synchronized ClassLoader hoist(String parentKey,
+			ClassLoader parent, List<URL> jars, List<String> prefixes) {
+
+		Map<URL, String> digests = new LinkedHashMap<URL, String>();
+		for (URL jar : jars) {
+			String digest = digest(jar);
+			if (digest != null) {
+				digests.put(jar, digest);
+			}
+		}
+
+		Layer layer = null;
+		for (Layer candidate : LAYERS) {
+			if (candidate.parentKey.equals(parentKey)
+					&& digests.values().containsAll(candidate.digests)
+					&& (layer == null || candidate.digests.size() > layer.digests
+							.size())) {
+				layer = candidate;
+			}
+		}
+
+		if (layer == null) {
+			List<URL> hoisted = new ArrayList<URL>();
+			Set<String> hoistedDigests = new LinkedHashSet<String>();
+			for (Map.Entry<URL, String> jar : digests.entrySet()) {
+				if (matches(jar.getKey(), prefixes)
+						&& hoistedDigests.add(jar.getValue())) {
+					hoisted.add(jar.getKey());
+				}
+			}
+			if (hoisted.isEmpty()) {
+				return parent;
+			}
+			layer = new Layer(parentKey, hoistedDigests, new URLClassLoader(
+					hoisted.toArray(new URL[hoisted.size()]), parent));
+			LAYERS.add(layer);
+			LOG.fine("Created shared jar layer of " + hoisted.size()
+					+ " jars");
+		} else {
+			LOG.fine("Jail shares " + layer.digests.size()
+					+ " jars with an existing layer");
+		}
+
+		for (Iterator<URL> it = jars.iterator(); it.hasNext();) {
+			String digest = digests.get(it.next());
+			if (digest != null && layer.digests.contains(digest)) {
+				it.remove();
+			}
+		}
+
+		layer.jails++;
+		return layer.loader;
+	}
+
+	/**
+	 * Hands back a layer returned by
+	 * {@link #hoist(String, ClassLoader, List, List)} once its jail is
+	 * unloaded. The layer is closed when no jail uses it anymore.
+	 *
+	 * @param parent
+	 *            the parent of the unloaded jail
+	 *
+	 * @return true if the parent was a layer and it has been closed
+	 */
+	public static synchronized boolean release(ClassLoader parent) {
+		for (Iterator<Layer> it = LAYERS.iterator(); it.hasNext();) {
+			Layer layer = it.next();
+			if (layer.loader == parent) {
+				if (--layer.jails > 0) {
+					return false;
+				}
+				it.remove();
+				close(layer);
+				LOG.fine("Closed shared jar layer of " + layer.digests.size()
+						+ " jars");
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of layers created
+	 */
+	public static synchronized int size() {
+		return LAYERS.size();
+	}
+
+	/**
+	 * Closes the jars of all layers. Jails still using a layer can no longer
+	 * load classes from it.
+	 */
+	public static synchronized void closeAll() {
+		for (Layer layer : LAYERS) {
+			close(layer);
+		}
+		LAYERS.clear();
+	}
+
+	private static void close(Layer layer) {
+		try {
+			layer.loader.close();
+		} catch (IOException e) {
+			LOG.log(Level.FINE, "Failed to close shared jar layer", e);
+		}
+	}
+
+	private static boolean matches(URL jar, List<String> prefixes) {
+		String path = jar.getPath();
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		for (String prefix : prefixes) {
+			if (name.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the SHA-256 checksum of a jar file or null if the URL does not
+	 *         point to a readable file
+	 */
+	static String digest(URL jar) {
+
+		if (!"file".equals(jar.getProtocol())) {
+			return null;
+		}
+
+		File file;
+		try {
+			file = new File(jar.toURI());
+		} catch (URISyntaxException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (!file.isFile()) {
+			return null;
+		}
+
+		String key = file.getAbsolutePath() + '|' + file.length() + '|'
+				+ file.lastModified();
+		String digest = DIGESTS.get(key);
+		if (digest != null) {
+			return digest;
+		}
+
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			InputStream in = new FileInputStream(file);
+			try {
+				byte[] buffer = new byte[64 * 1024];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					md.update(buffer, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+			digest = String.format("%064x", new BigInteger(1, md.digest()));
+		} catch (IOException e) {
+			LOG.log(Level.FINE, "Cannot checksum " + file, e);
+			return null;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		DIGESTS.put(key, digest);
+		return digest;
+	}
+
+	private static final class Layer {
+
+		private final String parentKey;
+
+		private final Set<String> digests;
+
+		private final URLClassLoader loader;
+
+		// the jails using this layer
+		private int jails;
+
+		Layer(String parentKey, Set<String> digests, URLClassLoader loader) {
+			this.parentKey = parentKey;
+			this.digests = digests;
+			this.loader = loader;
+		}
+
+	}
+
+}
@@ -0,0 +1,289 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import io.fares.classloader.ClassLoaderFactory;
+import io.fares.classloader.ClassPreloader;
+import io.fares.classloader.JailUnloader;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a number of classloader jails prepared in the background so a mock
+ * does not have to wait for the classpath to be resolved and the SoapUI core
+ * classes to be loaded. Pools are shared by all mocks of the JVM that use the
+ * same jail configuration.
+ */
+public final class JailPool implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(JailPool.class
+			.getName());
+
+	/**
+	 * The classes every mock needs, loaded into a jail when it is prepared
+	 */
+	public static final String[] CORE_CLASSES = new String[] {
+			"com.eviware.soapui.SoapUI",
+			"com.eviware.soapui.impl.wsdl.WsdlProject",
+			"com.eviware.soapui.impl.wsdl.mock.WsdlMockService",
+			"com.eviware.soapui.impl.wsdl.mock.WsdlMockRunner",
+			"com.eviware.soapui.monitor.JettyMockEngine" };
+
+	/**
+	 * How long {@link #close()} waits for a jail that is being prepared
+	 */
+	private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+	private static final Map<String, JailPool> POOLS = new HashMap<String, JailPool>();
+
+	private final ClassLoaderFactory factory;
+
+	private final int size;
+
+	private final List<String> preloadClasses;
+
+	private final ClassPreloader preloader;
+
+	private final BlockingQueue<Future<ClassLoader>> ready = new LinkedBlockingQueue<Future<ClassLoader>>();
+
+	private volatile boolean closed = false;
+
+	JailPool(ClassLoaderFactory factory, int size, ClassPreloader preloader,
+			String... preloadClasses) {
+		this.factory = factory;
+		this.size = size;
+		this.preloader = preloader;
+		this.preloadClasses = new ArrayList<String>(Arrays.asList(CORE_CLASSES));
+		if (preloadClasses != null) {
+			this.preloadClasses.addAll(Arrays.asList(preloadClasses));
+		}
+	}
+
+	/**
+	 * Get the pool for a jail configuration, creating and filling it if this
+	 * is the first request for the configuration.
+	 *
+	 * @param key
+	 *            identifies the jail configuration, all factories used with
+	 *            the same key must create equivalent jails
+	 * @param factory
+	 *            the factory used to prepare the jails of a new pool
+	 * @param size
+	 *            the number of jails to keep ready
+	 * @param preloadClasses
+	 *            classes to load into each jail on top of the
+	 *            {@link #CORE_CLASSES}
+	 *
+	 * @return the pool
+	 */
+	public static JailPool getPool(String key, ClassLoaderFactory factory,
+			int size, String... preloadClasses) {
+		return getPool(key, factory, size, null, preloadClasses);
+	}
+
+	/**
+	 * Same as {@link #getPool(String, ClassLoaderFactory, int, String...)} but
+	 * the jails of a new pool are also preloaded with a recorded class list.
+	 *
+	 * @param key
+	 *            identifies the jail configuration
+	 * @param factory
+	 *            the factory used to prepare the jails of a new pool
+	 * @param size
+	 *            the number of jails to keep ready
+	 * @param preloader
+	 *            loads the recorded classes into each jail, may be null
+	 * @param preloadClasses
+	 *            classes to load into each jail on top of the
+	 *            {@link #CORE_CLASSES}
+	 *
+	 * @return the pool
+	 */
+	public static synchronized JailPool getPool(String key,
+			ClassLoaderFactory factory, int size, ClassPreloader preloader,
+			String... preloadClasses) {
+		JailPool pool = POOLS.get(key);
+		if (pool == null || pool.closed) {
+			pool = new JailPool(factory, size, preloader, preloadClasses);
+			POOLS.put(key, pool);
+			pool.fill();
+		}
+		return pool;
+	}
+
+	/**
+	 * Closes all pools and unloads the jails they hold.
+	 */
+	public static synchronized void closeAll() {
+		for (JailPool pool : POOLS.values()) {
+			pool.close();
+		}
+		POOLS.clear();
+	}
+
+	/**
+	 * Takes a prepared jail out of the pool. If none is ready yet the jail is
+	 * prepared on the calling thread. Either way a replacement is prepared in
+	 * the background.
+	 *
+	 * @return a jail that is used by the caller exclusively
+	 */
+	public ClassLoader take() {
+
+		Future<ClassLoader> prepared = ready.poll();
+		fill();
+
+		if (prepared == null) {
+			LOG.fine("No warm jail available, preparing one now");
+			return prepare();
+		}
+
+		try {
+			ClassLoader jail = prepared.get();
+			MockMetrics.getDefault().recordJailPooled();
+			return jail;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted waiting for a warm jail", e);
+		} catch (CancellationException e) {
+			throw new RuntimeException("Jail pool has been closed", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to prepare a warm jail",
+					e.getCause());
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Stops preparing jails and unloads the ones that are ready. A jail that
+	 * is still being prepared is waited for a few seconds, if it takes longer
+	 * it is unloaded by the thread preparing it.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		Future<ClassLoader> prepared;
+		while ((prepared = ready.poll()) != null) {
+			try {
+				unload(prepared.get(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			} catch (TimeoutException e) {
+				LOG.fine("Warm jail still preparing, it is unloaded once ready");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (CancellationException e) {
+				// closed before it was prepared
+			} catch (ExecutionException e) {
+				LOG.log(Level.FINE, "Discarding failed warm jail", e.getCause());
+			}
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	private synchronized void fill() {
+		if (closed) {
+			return;
+		}
+		MockExecutorService executor = MockExecutorService.getInstance();
+		while (ready.size() < size) {
+			ready.add(executor.submit(new Callable<ClassLoader>() {
+				@Override
+				public ClassLoader call() throws Exception {
+					if (closed) {
+						throw new CancellationException("jail pool closed");
+					}
+					ClassLoader jail = prepare();
+					// close() may have given up waiting for this jail
+					if (closed) {
+						unload(jail);
+						throw new CancellationException("jail pool closed");
+					}
+					return jail;
+				}
+			}));
+		}
+	}
+
+	private ClassLoader prepare() {
+
+		// factories and resolvers are not meant to be used concurrently
+		ClassLoader jail;
+		synchronized (factory) {
+			jail = MockMetrics.getDefault().createJail(factory);
+		}
+
+		Thread current = Thread.currentThread();
+		ClassLoader original = current.getContextClassLoader();
+		current.setContextClassLoader(jail);
+		try {
+			for (String className : preloadClasses) {
+				try {
+					// load only, SoapUI initialises itself on the mock thread
+					Class.forName(className, false, jail);
+				} catch (ClassNotFoundException e) {
+					LOG.fine("Jail does not contain " + className);
+				} catch (LinkageError e) {
+					LOG.log(Level.FINE, "Failed to preload " + className, e);
+				}
+			}
+		} finally {
+			current.setContextClassLoader(original);
+		}
+
+		if (preloader != null) {
+			try {
+				preloader.preload(jail,
+						MockExecutorService.getInstance().getExecutor(false))
+						.await(Long.MAX_VALUE);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return jail;
+	}
+
+	private static void unload(ClassLoader jail) {
+		// SoapUI has not been started in a warm jail, nothing to shut down
+		new JailUnloader().unload(jail);
+	}
+
+}
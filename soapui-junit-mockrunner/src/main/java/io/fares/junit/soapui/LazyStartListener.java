@@ -0,0 +1,241 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the mock port for the whole test. The first client to connect starts
+ * the mock, which listens on a private port, and every connection is relayed
+ * to it. Clients connecting while SoapUI starts wait for it instead of finding
+ * the port closed.
+ */
+final class LazyStartListener implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(LazyStartListener.class
+			.getName());
+
+	private final MockRunnerTask task;
+
+	private final Runnable starter;
+
+	private final ServerSocket serverSocket;
+
+	private final ExecutorService executor;
+
+	private final CountDownLatch started = new CountDownLatch(1);
+
+	// the port the mock listens on, -1 if it failed to start
+	private volatile int mockPort = -1;
+
+	LazyStartListener(MockRunnerTask task, Runnable starter) {
+		this.task = task;
+		this.starter = starter;
+		this.executor = MockExecutorService.getInstance().getExecutor(false);
+		try {
+			serverSocket = new ServerSocket();
+			serverSocket.setReuseAddress(true);
+			// without an explicit host the mock listens on all interfaces
+			serverSocket.bind("localhost".equals(task.getMockHost())
+					? new InetSocketAddress(task.getMockPort())
+					: new InetSocketAddress(task.getMockHost(), task
+							.getMockPort()));
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot hold mock port "
+					+ task.getMockPort(), e);
+		}
+	}
+
+	void start() {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				boolean first = true;
+				while (true) {
+					Socket client;
+					try {
+						client = serverSocket.accept();
+					} catch (IOException e) {
+						// closed at the end of the test
+						return;
+					}
+					if (first) {
+						first = false;
+						LOG.fine("First connection on port "
+								+ task.getMockPort() + ", starting mock");
+						executor.execute(new Runnable() {
+							@Override
+							public void run() {
+								try {
+									starter.run();
+								} catch (Exception e) {
+									// the rule rethrows the failure to the test
+									LOG.log(Level.WARNING, "Failed to start "
+											+ "mock on first connection", e);
+								}
+							}
+						});
+					}
+					executor.execute(new Relay(client));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Lets the waiting and all later connections through to the mock.
+	 *
+	 * @param port
+	 *            the private port the mock listens on
+	 */
+	void started(int port) {
+		mockPort = port;
+		started.countDown();
+	}
+
+	/**
+	 * Closes the waiting and all later connections, the mock is not coming.
+	 */
+	void failed() {
+		mockPort = -1;
+		started.countDown();
+	}
+
+	/**
+	 * @return a task for the mock, listening on a private port
+	 */
+	static MockRunnerTask privateTask(MockRunnerTask task) {
+		return task.copy().withMockPort(SoapUIMockExecutor.freePort());
+	}
+
+	@Override
+	public void close() {
+		closeQuietly(serverSocket);
+		// release connections still waiting for the mock
+		started.countDown();
+	}
+
+	public boolean isClosed() {
+		return serverSocket.isClosed();
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+
+	/**
+	 * Waits for the mock and relays one connection to it.
+	 */
+	private final class Relay implements Runnable {
+
+		private final Socket client;
+
+		Relay(Socket client) {
+			this.client = client;
+		}
+
+		@Override
+		public void run() {
+			try {
+				started.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				closeQuietly(client);
+				return;
+			}
+			int port = mockPort;
+			if (port == -1 || isClosed()) {
+				closeQuietly(client);
+				return;
+			}
+			try {
+				InetAddress host = "localhost".equals(task.getMockHost())
+						? InetAddress.getLoopbackAddress() : InetAddress
+								.getByName(task.getMockHost());
+				Socket mock = new Socket(host, port);
+				AtomicInteger open = new AtomicInteger(2);
+				executor.execute(new Pump(client, mock, open));
+				new Pump(mock, client, open).run();
+			} catch (IOException e) {
+				LOG.log(Level.FINE, "Cannot relay connection to the mock", e);
+				closeQuietly(client);
+			}
+		}
+
+	}
+
+	/**
+	 * Copies one direction of the relayed connection.
+	 */
+	private static final class Pump implements Runnable {
+
+		private final Socket from;
+		private final Socket to;
+		private final AtomicInteger open;
+
+		Pump(Socket from, Socket to, AtomicInteger open) {
+			this.from = from;
+			this.to = to;
+			this.open = open;
+		}
+
+		@Override
+		public void run() {
+			byte[] buffer = new byte[8192];
+			try {
+				InputStream in = from.getInputStream();
+				OutputStream out = to.getOutputStream();
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					out.write(buffer, 0, n);
+					out.flush();
+				}
+				to.shutdownOutput();
+			} catch (IOException e) {
+				LOG.log(Level.FINEST, "Relayed connection closed", e);
+				closeQuietly(from);
+				closeQuietly(to);
+			} finally {
+				if (open.decrementAndGet() == 0) {
+					closeQuietly(from);
+					closeQuietly(to);
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import io.fares.classloader.FlightEvents;
+
+/**
+ * The flight recorder events of the mocks. The enum passes the filtering
+ * classloader, the code in the jails emits through it without seeing the
+ * {@link FlightEvents} of the rule, which the jail does not share.
+ */
+public enum MockEvent {
+
+	/** fields: mockService, port, jail, classesLoaded */
+	START("io.fares.soapui.MockStart", "Mock Start",
+			"Acquiring a jail and starting a mock service in it",
+			"mockService", String.class, "port", int.class, "jail",
+			String.class, "classesLoaded", long.class),
+
+	/** fields: mockService, async */
+	STOP("io.fares.soapui.MockStop", "Mock Stop",
+			"Stopping a mock as far as the caller waits for it",
+			"mockService", String.class, "async", boolean.class),
+
+	/** fields: project, mockService */
+	PROJECT_LOAD("io.fares.soapui.ProjectLoad", "Project Load",
+			"Reading the SoapUI project in the jail", "project",
+			String.class, "mockService", String.class),
+
+	/** fields: mockService, port */
+	PORT_BIND("io.fares.soapui.PortBind", "Port Bind",
+			"Starting the mock service, which binds its port",
+			"mockService", String.class, "port", int.class),
+
+	/** fields: path, operation */
+	DISPATCH("io.fares.soapui.MockDispatch", "Mock Dispatch",
+			"Dispatching a request to a mock operation and answering it",
+			"path", String.class, "operation", String.class);
+
+	private final FlightEvents.Type type;
+
+	private MockEvent(String name, String label, String description,
+			Object... fields) {
+		this.type = FlightEvents.define(name, label, description, fields);
+	}
+
+	/**
+	 * @return true if the JVM can record flight recorder events at all
+	 */
+	public static boolean isAvailable() {
+		return FlightEvents.isAvailable();
+	}
+
+	/**
+	 * Starts timing an event of this type.
+	 *
+	 * @return the event, a shared no-op one while the type is not recorded
+	 */
+	public Timing begin() {
+		FlightEvents.Event event = type.begin();
+		return event.isRecorded() ? new Timing(event) : Timing.DISABLED;
+	}
+
+	/**
+	 * An event being timed.
+	 */
+	public static final class Timing {
+
+		static final Timing DISABLED = new Timing(null);
+
+		private final FlightEvents.Event event;
+
+		Timing(FlightEvents.Event event) {
+			this.event = event;
+		}
+
+		/**
+		 * @return false if the event is not recorded and the fields need not
+		 *         be computed
+		 */
+		public boolean isRecorded() {
+			return event != null;
+		}
+
+		/**
+		 * @param index
+		 *            the position of the field as listed on the type
+		 * @param value
+		 *            the value, boxed
+		 *
+		 * @return this event
+		 */
+		public Timing set(int index, Object value) {
+			if (event != null) {
+				event.set(index, value);
+			}
+			return this;
+		}
+
+		public void commit() {
+			if (event != null) {
+				event.commit();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,248 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import io.fares.classloader.SharedJarLayers;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The threads used to start and manage mocks. All threads are named daemon
+ * threads so they never keep a test JVM alive, idle threads do not hold on to
+ * the context classloader of a jail and the whole service is closed when the
+ * JVM shuts down or {@link #close()} is called. On JVM shutdown the mocks
+ * shared beyond their rules are stopped first, then the {@link JailPool warm
+ * jails} and the {@link SharedJails shared jails} are unloaded.
+ */
+public final class MockExecutorService implements Closeable {
+
+	private static final Logger LOG = Logger
+			.getLogger(MockExecutorService.class.getName());
+
+	/**
+	 * How long an idle thread is kept around before it is discarded
+	 */
+	private static final long KEEP_ALIVE_SECONDS = 5;
+
+	/**
+	 * How long {@link #close()} waits for running tasks to finish
+	 */
+	private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+	private static MockExecutorService instance;
+
+	// set by the shutdown hook, no service is created after that
+	private static boolean shuttingDown = false;
+
+	private final ThreadPoolExecutor platform;
+
+	private ExecutorService virtual;
+
+	private final Thread shutdownHook;
+
+	private volatile boolean closed = false;
+
+	private MockExecutorService() {
+
+		platform = new ContextClearingThreadPool(new DaemonThreadFactory(
+				"soapui-mock"));
+
+		shutdownHook = new Thread("soapui-mock-shutdown") {
+			@Override
+			public void run() {
+				synchronized (MockExecutorService.class) {
+					shuttingDown = true;
+				}
+				// shared mocks stop first, their teardown needs the threads
+				MockRegistry.stopAll();
+				// the jails are prepared on the threads of this service
+				JailPool.closeAll();
+				SharedJails.closeAll();
+				// layers still open belong to jails that were never unloaded
+				SharedJarLayers.closeAll();
+				closeQuietly();
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * @return the executor service shared by all mocks of this JVM, a new one
+	 *         is created if the previous one was closed
+	 *
+	 * @throws IllegalStateException
+	 *             if the service was closed by the JVM shutting down
+	 */
+	public static synchronized MockExecutorService getInstance() {
+		if (instance == null || instance.isClosed()) {
+			if (shuttingDown) {
+				throw new IllegalStateException(
+						"mock executor service is closed, the JVM is shutting down");
+			}
+			instance = new MockExecutorService();
+		}
+		return instance;
+	}
+
+	/**
+	 * @param virtualThreads
+	 *            true to get an executor running each task on a new virtual
+	 *            thread, falls back to platform threads if the JDK does not
+	 *            support them
+	 *
+	 * @return the executor
+	 */
+	public synchronized ExecutorService getExecutor(boolean virtualThreads) {
+
+		if (closed) {
+			throw new IllegalStateException("mock executor service is closed");
+		}
+
+		if (!virtualThreads) {
+			return platform;
+		}
+
+		if (!VirtualThreads.isSupported()) {
+			LOG.warning("virtual threads require JDK 21 or newer, "
+					+ "using platform threads");
+			return platform;
+		}
+
+		if (virtual == null) {
+			virtual = VirtualThreads.newExecutor("soapui-mock-virtual", null);
+		}
+		return virtual;
+	}
+
+	public <T> Future<T> submit(Callable<T> task) {
+		return getExecutor(false).submit(task);
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Shuts down all threads of this service. Running tasks get a few seconds
+	 * to complete before they are interrupted.
+	 */
+	@Override
+	public void close() {
+
+		ExecutorService v;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			v = virtual;
+		}
+
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// JVM is shutting down already
+		}
+
+		shutdown(platform);
+		if (v != null) {
+			shutdown(v);
+		}
+	}
+
+	private void closeQuietly() {
+		try {
+			close();
+		} catch (Exception e) {
+			LOG.log(Level.FINE, "Failed to close mock executor service", e);
+		}
+	}
+
+	private static void shutdown(ExecutorService service) {
+		service.shutdown();
+		try {
+			if (!service.awaitTermination(CLOSE_TIMEOUT_SECONDS,
+					TimeUnit.SECONDS)) {
+				service.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			service.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Resets the context classloader once a task is done so an idle thread
+	 * does not keep a jail reachable.
+	 */
+	private static final class ContextClearingThreadPool extends
+			ThreadPoolExecutor {
+
+		private final ClassLoader defaultClassLoader = MockExecutorService.class
+				.getClassLoader();
+
+		ContextClearingThreadPool(ThreadFactory threadFactory) {
+			super(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new SynchronousQueue<Runnable>(), threadFactory);
+		}
+
+		@Override
+		protected void afterExecute(Runnable r, Throwable t) {
+			super.afterExecute(r, t);
+			Thread.currentThread().setContextClassLoader(defaultClassLoader);
+		}
+
+	}
+
+	private static final class DaemonThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger counter = new AtomicInteger();
+
+		private final String prefix;
+
+		private final ClassLoader contextClassLoader = MockExecutorService.class
+				.getClassLoader();
+
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+			t.setDaemon(true);
+			// never inherit the jail from whoever triggered the thread
+			t.setContextClassLoader(contextClassLoader);
+			return t;
+		}
+
+	}
+
+}
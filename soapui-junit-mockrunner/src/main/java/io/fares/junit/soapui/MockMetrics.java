@@ -0,0 +1,452 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import io.fares.classloader.ClassLoaderFactory;
+import io.fares.classloader.FilteringClassLoaderFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects how long the phases of starting mocks take and how the mocks
+ * answer, and writes them as JSON when the JVM exits. Recording is enabled
+ * by pointing the system property {@value #PROPERTY} at a directory, the
+ * report of each JVM is written to
+ * <code>mockrunner-metrics-&lt;pid&gt;.json</code> in it.
+ * <p>
+ * The class passes the filtering classloader, the code in the jail records
+ * into the same instance as the rule.
+ */
+public final class MockMetrics {
+
+	private static final Logger LOG = Logger.getLogger(MockMetrics.class
+			.getName());
+
+	/**
+	 * The directory to write the reports to, recording is off without it
+	 */
+	public static final String PROPERTY = "soapui.mockrunner.metrics";
+
+	/** creating a jail */
+	public static final String JAIL = "jail";
+	/** resolving the classpath of a jail */
+	public static final String RESOLVE = "resolve";
+	/** loading the project in the jail */
+	public static final String PROJECT_LOAD = "projectLoad";
+	/** starting the mock service, which binds its port */
+	public static final String PORT_BIND = "portBind";
+	/** the whole start of a mock from the rule */
+	public static final String START = "start";
+	/** stopping a mock as seen by the rule */
+	public static final String STOP = "stop";
+
+	private static final MockMetrics DEFAULT = create();
+
+	private final File directory;
+
+	private final long created = System.currentTimeMillis();
+
+	private final Map<String, Timer> timers = new LinkedHashMap<String, Timer>();
+
+	private final AtomicLong jailsCreated = new AtomicLong();
+	private final AtomicLong jailsPooled = new AtomicLong();
+	private final AtomicLong jailsShared = new AtomicLong();
+
+	private final AtomicLong classpathJars = new AtomicLong();
+	private final AtomicLong classesLoaded = new AtomicLong();
+	private final AtomicLong metaspaceBytes = new AtomicLong();
+
+	private final Histogram latencies = new Histogram();
+
+	MockMetrics(String directory) {
+		this.directory = directory != null && !directory.trim().isEmpty() ? new File(
+				directory.trim()) : null;
+		for (String name : new String[] { JAIL, RESOLVE, PROJECT_LOAD,
+				PORT_BIND, START, STOP }) {
+			timers.put(name, new Timer());
+		}
+	}
+
+	private static MockMetrics create() {
+		final MockMetrics metrics = new MockMetrics(System.getProperty(PROPERTY));
+		if (metrics.isEnabled()) {
+			Runtime.getRuntime().addShutdownHook(
+					new Thread("soapui-mock-metrics") {
+						@Override
+						public void run() {
+							metrics.writeReport();
+						}
+					});
+		}
+		return metrics;
+	}
+
+	public static MockMetrics getDefault() {
+		return DEFAULT;
+	}
+
+	public boolean isEnabled() {
+		return directory != null;
+	}
+
+	/**
+	 * @param phase
+	 *            one of the phases of this class
+	 * @param nanos
+	 *            how long the phase took
+	 */
+	public void record(String phase, long nanos) {
+		Timer timer = timers.get(phase);
+		if (timer != null && directory != null) {
+			timer.record(nanos);
+		}
+	}
+
+	/**
+	 * Creates a jail with the factory and records it, including the
+	 * resolution of its classpath when the factory tells about it.
+	 *
+	 * @param factory
+	 *            creates the jail
+	 *
+	 * @return the jail
+	 */
+	public ClassLoader createJail(ClassLoaderFactory factory) {
+		long start = System.nanoTime();
+		if (factory instanceof FilteringClassLoaderFactory) {
+			FilteringClassLoaderFactory.Jail jail = ((FilteringClassLoaderFactory) factory)
+					.createJail();
+			recordJailCreated(System.nanoTime() - start, jail);
+			return jail.getClassLoader();
+		}
+		ClassLoader jail = factory.createClassLoader();
+		recordJailCreated(System.nanoTime() - start, null);
+		return jail;
+	}
+
+	private void recordJailCreated(long nanos,
+			FilteringClassLoaderFactory.Jail jail) {
+		if (directory == null) {
+			return;
+		}
+		jailsCreated.incrementAndGet();
+		record(JAIL, nanos);
+		if (jail != null) {
+			record(RESOLVE, jail.getResolveNanos());
+			classpathJars.set(jail.getClasspathSize());
+		}
+	}
+
+	/**
+	 * Records a jail that was taken from a pool of warm jails.
+	 */
+	public void recordJailPooled() {
+		if (directory != null) {
+			jailsPooled.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records a mock started in a jail shared with other mocks.
+	 */
+	public void recordJailShared() {
+		if (directory != null) {
+			jailsShared.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records the growth of the JVM while a mock was started.
+	 *
+	 * @param classes
+	 *            the number of classes loaded
+	 * @param metaspace
+	 *            the bytes added to the metaspace or permanent generation
+	 */
+	public void recordGrowth(long classes, long metaspace) {
+		if (directory != null) {
+			classesLoaded.addAndGet(classes);
+			metaspaceBytes.addAndGet(metaspace);
+		}
+	}
+
+	/**
+	 * @param millis
+	 *            the time taken by the mock to answer a request
+	 */
+	public void recordRequest(long millis) {
+		if (directory != null) {
+			latencies.record(millis);
+		}
+	}
+
+	/**
+	 * @return the bytes used by the metaspace, or the permanent generation
+	 *         before Java 8
+	 */
+	public static long metaspaceUsed() {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			String name = pool.getName();
+			if (name.contains("Metaspace") || name.contains("Perm Gen")) {
+				used += pool.getUsage().getUsed();
+			}
+		}
+		return used;
+	}
+
+	public static long loadedClasses() {
+		return ManagementFactory.getClassLoadingMXBean()
+				.getTotalLoadedClassCount();
+	}
+
+	/**
+	 * @return the file the report of this JVM is written to or null if
+	 *         recording is off
+	 */
+	public File getReportFile() {
+		if (directory == null) {
+			return null;
+		}
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		int at = name.indexOf('@');
+		return new File(directory, "mockrunner-metrics-"
+				+ (at > 0 ? name.substring(0, at) : name) + ".json");
+	}
+
+	/**
+	 * Writes the report now, it is written again when the JVM exits.
+	 */
+	public void writeReport() {
+		File file = getReportFile();
+		if (file == null) {
+			return;
+		}
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Cannot create directory " + directory);
+			}
+			Writer out = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(file), "UTF-8"));
+			try {
+				out.write(toJson());
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Cannot write mock metrics to " + file, e);
+		}
+	}
+
+	/**
+	 * @return the collected metrics as a JSON object
+	 */
+	public String toJson() {
+		SimpleDateFormat iso = new SimpleDateFormat(
+				"yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		StringBuilder sb = new StringBuilder(1024);
+		sb.append("{\n");
+		sb.append("  \"jvm\": ")
+				.append(quote(ManagementFactory.getRuntimeMXBean().getName()))
+				.append(",\n");
+		sb.append("  \"javaVersion\": ")
+				.append(quote(System.getProperty("java.version")))
+				.append(",\n");
+		sb.append("  \"started\": ").append(quote(iso.format(new Date(created))))
+				.append(",\n");
+		sb.append("  \"written\": ").append(quote(iso.format(new Date())))
+				.append(",\n");
+
+		sb.append("  \"phases\": {");
+		String separator = "\n";
+		for (Map.Entry<String, Timer> timer : timers.entrySet()) {
+			sb.append(separator).append("    ").append(quote(timer.getKey()))
+					.append(": ");
+			timer.getValue().appendJson(sb);
+			separator = ",\n";
+		}
+		sb.append("\n  },\n");
+
+		sb.append("  \"jails\": { \"created\": ").append(jailsCreated.get())
+				.append(", \"pooled\": ").append(jailsPooled.get())
+				.append(", \"shared\": ").append(jailsShared.get())
+				.append(", \"cacheHits\": ")
+				.append(jailsPooled.get() + jailsShared.get()).append(" },\n");
+		sb.append("  \"classpathJars\": ").append(classpathJars.get())
+				.append(",\n");
+		sb.append("  \"classesLoaded\": ").append(classesLoaded.get())
+				.append(",\n");
+		sb.append("  \"metaspaceDeltaBytes\": ").append(metaspaceBytes.get())
+				.append(",\n");
+
+		sb.append("  \"requests\": { \"count\": ").append(latencies.count())
+				.append(", \"meanMillis\": ").append(latencies.mean())
+				.append(", \"p50Millis\": ").append(latencies.percentile(50))
+				.append(", \"p90Millis\": ").append(latencies.percentile(90))
+				.append(", \"p99Millis\": ").append(latencies.percentile(99))
+				.append(", \"maxMillis\": ").append(latencies.max())
+				.append(" }\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private static String quote(String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	private static final class Timer {
+
+		private final AtomicLong count = new AtomicLong();
+
+		private final AtomicLong totalNanos = new AtomicLong();
+
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		void record(long nanos) {
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			long max;
+			while ((max = maxNanos.get()) < nanos
+					&& !maxNanos.compareAndSet(max, nanos)) {
+				// lost against a concurrent update, look again
+			}
+		}
+
+		void appendJson(StringBuilder sb) {
+			long n = count.get();
+			sb.append("{ \"count\": ").append(n).append(", \"totalMillis\": ")
+					.append(totalNanos.get() / 1000000)
+					.append(", \"meanMillis\": ")
+					.append(n > 0 ? totalNanos.get() / n / 1000000 : 0)
+					.append(", \"maxMillis\": ")
+					.append(maxNanos.get() / 1000000).append(" }");
+		}
+
+	}
+
+	/**
+	 * Counts values exactly below 64 and in 32 buckets per power of two
+	 * above, so percentiles are off by at most about three percent.
+	 */
+	static final class Histogram {
+
+		private static final int SUB_BUCKETS = 32;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(64
+				+ (63 - 6) * SUB_BUCKETS);
+
+		private final AtomicLong count = new AtomicLong();
+
+		private final AtomicLong total = new AtomicLong();
+
+		private final AtomicLong max = new AtomicLong();
+
+		static int index(long value) {
+			if (value < 64) {
+				return (int) Math.max(0, value);
+			}
+			int exp = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int) (value >>> (exp - 5)) & (SUB_BUCKETS - 1);
+			return 64 + (exp - 6) * SUB_BUCKETS + sub;
+		}
+
+		static long lowerBound(int index) {
+			if (index < 64) {
+				return index;
+			}
+			int exp = (index - 64) / SUB_BUCKETS + 6;
+			int sub = (index - 64) % SUB_BUCKETS;
+			return (long) (SUB_BUCKETS + sub) << (exp - 5);
+		}
+
+		void record(long value) {
+			buckets.incrementAndGet(index(value));
+			count.incrementAndGet();
+			total.addAndGet(value);
+			long m;
+			while ((m = max.get()) < value && !max.compareAndSet(m, value)) {
+				// lost against a concurrent update, look again
+			}
+		}
+
+		long count() {
+			return count.get();
+		}
+
+		long mean() {
+			long n = count.get();
+			return n > 0 ? total.get() / n : 0;
+		}
+
+		long max() {
+			return max.get();
+		}
+
+		long percentile(double p) {
+			long n = count.get();
+			if (n == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(n * p / 100.0);
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if (seen >= rank) {
+					return Math.min(lowerBound(i), max.get());
+				}
+			}
+			return max.get();
+		}
+
+	}
+
+}
@@ -0,0 +1,155 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the mocks that are shared beyond the lifetime of a single rule, keyed
+ * by their configuration. Mocks still running when the JVM exits are stopped
+ * by the shutdown hook of the {@link MockExecutorService}.
+ */
+final class MockRegistry {
+
+	private static final Logger LOG = Logger.getLogger(MockRegistry.class
+			.getName());
+
+	private static final Map<String, Entry> MOCKS = new HashMap<String, Entry>();
+
+	private MockRegistry() {
+	}
+
+	/**
+	 * Get the running mock of a configuration, starting it if there is none.
+	 *
+	 * @param key
+	 *            the configuration of the mock
+	 * @param scope
+	 *            how long the mock must live at least
+	 * @param starter
+	 *            creates and starts the mock if it is not running
+	 *
+	 * @return the running mock, must be handed back with
+	 *         {@link #release(String)}
+	 */
+	static SoapUIMockExecutor acquire(String key, MockScope scope,
+			Callable<SoapUIMockExecutor> starter) {
+
+		if (scope == MockScope.JVM) {
+			// its shutdown hook stops the mocks left at JVM exit
+			MockExecutorService.getInstance();
+		}
+
+		Entry entry;
+		synchronized (MockRegistry.class) {
+			entry = MOCKS.get(key);
+			if (entry == null) {
+				entry = new Entry();
+				MOCKS.put(key, entry);
+			}
+			entry.references++;
+			if (scope.ordinal() > entry.scope.ordinal()) {
+				entry.scope = scope;
+			}
+		}
+
+		// start outside the registry lock, other mocks may start meanwhile
+		synchronized (entry) {
+			if (entry.runner == null) {
+				try {
+					entry.runner = starter.call();
+					LOG.fine("Started shared mock " + key);
+				} catch (Exception e) {
+					release(key);
+					throw new RuntimeException("Failed to start shared mock",
+							e);
+				}
+			}
+			return entry.runner;
+		}
+	}
+
+	/**
+	 * Hands back a mock, stopping it if it is not used anymore and its scope
+	 * allows.
+	 *
+	 * @param key
+	 *            the configuration of the mock
+	 */
+	static void release(String key) {
+		Entry entry;
+		synchronized (MockRegistry.class) {
+			entry = MOCKS.get(key);
+			if (entry == null || --entry.references > 0
+					|| entry.scope == MockScope.JVM) {
+				return;
+			}
+			MOCKS.remove(key);
+		}
+		stop(key, entry);
+	}
+
+	/**
+	 * Stops all shared mocks regardless of their scope.
+	 */
+	static void stopAll() {
+		List<Map.Entry<String, Entry>> entries;
+		synchronized (MockRegistry.class) {
+			entries = new ArrayList<Map.Entry<String, Entry>>(MOCKS.entrySet());
+			MOCKS.clear();
+		}
+		for (Map.Entry<String, Entry> entry : entries) {
+			stop(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private static void stop(String key, Entry entry) {
+		synchronized (entry) {
+			if (entry.runner == null) {
+				return;
+			}
+			try {
+				entry.runner.stop();
+				LOG.fine("Stopped shared mock " + key);
+			} catch (Exception e) {
+				LOG.log(Level.WARNING, "Failed to stop shared mock " + key, e);
+			} finally {
+				entry.runner = null;
+			}
+		}
+	}
+
+	private static final class Entry {
+
+		SoapUIMockExecutor runner;
+
+		int references;
+
+		MockScope scope = MockScope.CLASS;
+
+	}
+
+}
@@ -19,6 +19,8 @@
  */
 package io.fares.junit.soapui;
 
+import io.fares.junit.soapui.fault.FaultProfile;
+
 import java.net.URL;
 
 public class MockRunnerTask {
@@ -35,6 +37,36 @@ public class MockRunnerTask {
 
 	private boolean securePort = false;
 
+	// jetty tuning, anything left at -1 keeps the SoapUI default
+	private int workerThreads = -1;
+
+	private int acceptors = -1;
+
+	private int acceptQueueSize = -1;
+
+	private int idleTimeout = -1;
+
+	private boolean keepAlive = true;
+
+	private boolean virtualThreads = false;
+
+	// teardown, -1 waits for the mock to stop however long it takes
+	private int stopTimeout = -1;
+
+	private boolean asyncStop = false;
+
+	// load a copy of the project reduced to the mock service
+	private boolean pruneProject = false;
+
+	// cache the pruned project next to the project
+	private boolean snapshotProject = false;
+
+	// faults injected by a proxy on the mock port
+	private FaultProfile faultProfile;
+
+	// requests remembered per operation by the dispatch cache, -1 disables
+	private int dispatchCacheSize = -1;
+
 	public URL getProjectFile() {
 		return projectFile;
 	}
@@ -95,6 +127,214 @@ public class MockRunnerTask {
 		this.mockPath = path;
 	}
 
+	/**
+	 * @return the maximum number of worker threads of the Jetty thread pool
+	 *         serving the mock or -1 if the SoapUI default is to be used
+	 */
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	public void setWorkerThreads(int workerThreads) {
+		this.workerThreads = workerThreads;
+	}
+
+	/**
+	 * @return the number of threads accepting connections on the mock port or
+	 *         -1 if the SoapUI default is to be used
+	 */
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	public void setAcceptors(int acceptors) {
+		this.acceptors = acceptors;
+	}
+
+	/**
+	 * @return the backlog of the server socket bound to the mock port or -1 if
+	 *         the SoapUI default is to be used
+	 */
+	public int getAcceptQueueSize() {
+		return acceptQueueSize;
+	}
+
+	public void setAcceptQueueSize(int acceptQueueSize) {
+		this.acceptQueueSize = acceptQueueSize;
+	}
+
+	/**
+	 * @return the time in milliseconds an idle connection is kept open by the
+	 *         mock or -1 if the SoapUI default is to be used
+	 */
+	public int getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public void setIdleTimeout(int idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * @return false if the mock has to close each connection after the
+	 *         response has been written
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	public void setKeepAlive(boolean keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * @return true if the mock is to be started and served on virtual threads
+	 *         (requires JDK 21 or newer)
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * @return the time in milliseconds in-flight requests are given to
+	 *         complete when the mock is stopped or -1 to wait without limit
+	 */
+	public int getStopTimeout() {
+		return stopTimeout;
+	}
+
+	public void setStopTimeout(int stopTimeout) {
+		this.stopTimeout = stopTimeout;
+	}
+
+	/**
+	 * @return true if stopping the mock only frees the port and leaves the
+	 *         rest of the teardown to a background thread
+	 */
+	public boolean isAsyncStop() {
+		return asyncStop;
+	}
+
+	public void setAsyncStop(boolean asyncStop) {
+		this.asyncStop = asyncStop;
+	}
+
+	public boolean isPruneProject() {
+		return pruneProject;
+	}
+
+	/**
+	 * @param pruneProject
+	 *            true to have SoapUI load a copy of the project that only
+	 *            contains the mock service and the interfaces it uses
+	 */
+	public void setPruneProject(boolean pruneProject) {
+		this.pruneProject = pruneProject;
+	}
+
+	public boolean isSnapshotProject() {
+		return snapshotProject;
+	}
+
+	/**
+	 * @param snapshotProject
+	 *            true to load a pruned copy of the project that is cached
+	 *            until the project changes, see {@link ProjectSnapshot}
+	 */
+	public void setSnapshotProject(boolean snapshotProject) {
+		this.snapshotProject = snapshotProject;
+	}
+
+	public int getDispatchCacheSize() {
+		return dispatchCacheSize;
+	}
+
+	/**
+	 * @param dispatchCacheSize
+	 *            the number of requests per mock operation whose
+	 *            <code>XPATH</code> or <code>QUERY_MATCH</code> dispatch
+	 *            result is remembered, -1 to let SoapUI dispatch every request
+	 */
+	public void setDispatchCacheSize(int dispatchCacheSize) {
+		this.dispatchCacheSize = dispatchCacheSize;
+	}
+
+	public boolean isDispatchCached() {
+		return dispatchCacheSize > 0;
+	}
+
+	public FaultProfile getFaultProfile() {
+		return faultProfile;
+	}
+
+	/**
+	 * @param faultProfile
+	 *            the faults to inject into requests to the mock, null to
+	 *            serve requests untouched
+	 */
+	public void setFaultProfile(FaultProfile faultProfile) {
+		this.faultProfile = faultProfile;
+	}
+
+	/**
+	 * @return the project SoapUI should load, hand it to
+	 *         {@link #releaseLoadableProject(URL)} after loading
+	 */
+	public URL createLoadableProject() {
+		if (snapshotProject) {
+			return ProjectSnapshot.get(projectFile, mockServiceName);
+		} else if (pruneProject) {
+			return ProjectPruner.prune(projectFile, mockServiceName);
+		}
+		return projectFile;
+	}
+
+	/**
+	 * Deletes the project returned by {@link #createLoadableProject()} if it
+	 * was only written to be loaded once.
+	 *
+	 * @param loaded
+	 *            the project SoapUI has loaded
+	 */
+	public void releaseLoadableProject(URL loaded) {
+		if (pruneProject && !snapshotProject && loaded != projectFile) {
+			ProjectPruner.delete(loaded);
+		}
+	}
+
+	/**
+	 * @return true if any of the Jetty tuning options deviate from the SoapUI
+	 *         defaults
+	 */
+	public boolean isJettyTuned() {
+		return workerThreads != -1 || acceptors != -1 || acceptQueueSize != -1
+				|| idleTimeout != -1 || !keepAlive;
+	}
+
+	/**
+	 * @return a key that is equal for tasks that start identical mocks
+	 */
+	public String getConfigurationKey() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(projectFile).append('|').append(mockServiceName);
+		// the endpoint leaves out the port of a secure mock
+		sb.append('|').append(getMockEndpoint());
+		sb.append('|').append(mockPort).append(',').append(securePort);
+		sb.append('|').append(workerThreads).append(',').append(acceptors);
+		sb.append(',').append(acceptQueueSize).append(',').append(idleTimeout);
+		sb.append(',').append(keepAlive).append(',').append(virtualThreads);
+		sb.append('|').append(pruneProject).append(',').append(snapshotProject);
+		sb.append('|').append(dispatchCacheSize);
+		if (faultProfile != null) {
+			sb.append('|').append(faultProfile);
+		}
+		return sb.toString();
+	}
+
 	public MockRunnerTask withProjectFile(URL file) {
 		setProjectFile(file);
 		return this;
@@ -125,6 +365,92 @@ public class MockRunnerTask {
 		return this;
 	}
 
+	public MockRunnerTask withWorkerThreads(int threads) {
+		setWorkerThreads(threads);
+		return this;
+	}
+
+	public MockRunnerTask withAcceptors(int acceptors) {
+		setAcceptors(acceptors);
+		return this;
+	}
+
+	public MockRunnerTask withAcceptQueueSize(int size) {
+		setAcceptQueueSize(size);
+		return this;
+	}
+
+	public MockRunnerTask withIdleTimeout(int millis) {
+		setIdleTimeout(millis);
+		return this;
+	}
+
+	public MockRunnerTask withKeepAlive(boolean keepAlive) {
+		setKeepAlive(keepAlive);
+		return this;
+	}
+
+	public MockRunnerTask pruneProject() {
+		setPruneProject(true);
+		return this;
+	}
+
+	public MockRunnerTask withStopTimeout(int millis) {
+		setStopTimeout(millis);
+		return this;
+	}
+
+	public MockRunnerTask asyncStop() {
+		setAsyncStop(true);
+		return this;
+	}
+
+	public MockRunnerTask snapshotProject() {
+		setSnapshotProject(true);
+		return this;
+	}
+
+	public MockRunnerTask virtualThreads() {
+		setVirtualThreads(true);
+		return this;
+	}
+
+	public MockRunnerTask withDispatchCache(int size) {
+		setDispatchCacheSize(size);
+		return this;
+	}
+
+	public MockRunnerTask withFaults(FaultProfile profile) {
+		setFaultProfile(profile);
+		return this;
+	}
+
+	/**
+	 * @return a task with the same settings as this one
+	 */
+	public MockRunnerTask copy() {
+		MockRunnerTask copy = new MockRunnerTask();
+		copy.projectFile = projectFile;
+		copy.mockServiceName = mockServiceName;
+		copy.mockHost = mockHost;
+		copy.mockPort = mockPort;
+		copy.mockPath = mockPath;
+		copy.securePort = securePort;
+		copy.workerThreads = workerThreads;
+		copy.acceptors = acceptors;
+		copy.acceptQueueSize = acceptQueueSize;
+		copy.idleTimeout = idleTimeout;
+		copy.keepAlive = keepAlive;
+		copy.virtualThreads = virtualThreads;
+		copy.stopTimeout = stopTimeout;
+		copy.asyncStop = asyncStop;
+		copy.pruneProject = pruneProject;
+		copy.snapshotProject = snapshotProject;
+		copy.faultProfile = faultProfile;
+		copy.dispatchCacheSize = dispatchCacheSize;
+		return copy;
+	}
+
 	public String getQualifiedMockHost() {
 
 		StringBuilder sb = new StringBuilder();
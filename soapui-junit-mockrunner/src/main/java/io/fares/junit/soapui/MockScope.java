@@ -0,0 +1,48 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+/**
+ * How long a mock started by a {@link SoapUIMockRunner} lives.
+ */
+public enum MockScope {
+
+	/**
+	 * The mock is started and stopped by the rule itself, it lives for a test
+	 * method when used as <code>@Rule</code> or for a test class when used as
+	 * <code>@ClassRule</code>.
+	 */
+	CLASS,
+
+	/**
+	 * The mock is shared with all other rules of the same configuration that
+	 * run while it is up, and stopped when the last of them finishes. Declare
+	 * the rule as <code>@ClassRule</code> of a suite to keep the mock running
+	 * for all classes of the suite.
+	 */
+	SUITE,
+
+	/**
+	 * The mock is shared with all other rules of the same configuration and
+	 * kept running until the JVM exits.
+	 */
+	JVM
+
+}
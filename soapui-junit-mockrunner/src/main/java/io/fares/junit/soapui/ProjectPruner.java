@@ -0,0 +1,383 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Streams a SoapUI project and writes a copy that only contains what a mock
+ * service needs: the mock service itself and the interfaces its operations
+ * are bound to, without the sample requests of those interfaces. Test suites,
+ * other mock services and unused interfaces are dropped, so SoapUI parses a
+ * fraction of a large project. SoapUI takes <code>${projectDir}</code> from
+ * the location of the file it loads, so references to it are replaced with
+ * the directory of the original project.
+ */
+public class ProjectPruner {
+
+	public static final String CONFIG_NS = "http://eviware.com/soapui/config";
+
+	private static final Set<String> MOCK_SERVICES = new HashSet<String>(
+			Arrays.asList("mockService", "restMockService"));
+
+	private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+	private static final QName NAME = new QName("name");
+
+	private static final QName RESOURCE_ROOT = new QName("resourceRoot");
+
+	private static final String PROJECT_DIR = "${projectDir}";
+
+	private final List<String> mockServiceNames;
+
+	/**
+	 * @param mockServiceNames
+	 *            the mock services to keep
+	 */
+	public ProjectPruner(String... mockServiceNames) {
+		this.mockServiceNames = Collections
+				.unmodifiableList(Arrays.asList(mockServiceNames));
+	}
+
+	/**
+	 * Prunes a project into a temporary file.
+	 *
+	 * @param project
+	 *            the SoapUI project
+	 * @param mockServiceName
+	 *            the mock service to keep
+	 *
+	 * @return the location of the pruned project, the caller should delete it
+	 *         once SoapUI has loaded it
+	 */
+	public static URL prune(URL project, String mockServiceName) {
+		try {
+			File pruned = File.createTempFile("soapui-", "-pruned.xml");
+			pruned.deleteOnExit();
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(
+					pruned));
+			try {
+				new ProjectPruner(mockServiceName).prune(project, out);
+			} finally {
+				out.close();
+			}
+			return pruned.toURI().toURL();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to prune project " + project, e);
+		} catch (XMLStreamException e) {
+			throw new RuntimeException("Failed to prune project " + project, e);
+		}
+	}
+
+	/**
+	 * Deletes a project written by {@link #prune(URL, String)}.
+	 *
+	 * @param pruned
+	 *            the pruned project
+	 */
+	public static void delete(URL pruned) {
+		try {
+			new File(pruned.toURI()).delete();
+		} catch (URISyntaxException e) {
+			// not ours
+		}
+	}
+
+	/**
+	 * @param project
+	 *            the SoapUI project
+	 * @param out
+	 *            receives the pruned project
+	 *
+	 * @throws IOException
+	 *             if the project cannot be read
+	 * @throws XMLStreamException
+	 *             if the project is not well formed
+	 */
+	public void prune(URL project, OutputStream out) throws IOException,
+			XMLStreamException {
+
+		// the interfaces are declared before the mock services, so their
+		// names have to be collected in a first, cheap pass
+		Set<String> interfaces = findInterfaces(project);
+
+		XMLInputFactory inputFactory = newInputFactory();
+		XMLEventFactory events = XMLEventFactory.newInstance();
+		InputStream in = new BufferedInputStream(project.openStream());
+		try {
+			XMLEventReader reader = inputFactory.createXMLEventReader(in);
+			XMLEventWriter writer = XMLOutputFactory.newInstance()
+					.createXMLEventWriter(out, "UTF-8");
+
+			File dir = projectDir(project);
+			String projectDir = dir != null ? dir.getAbsolutePath().replace(
+					File.separatorChar, '/') : null;
+
+			int depth = 0;
+			String section = null;
+			// text may be split into several events, a reference to the
+			// project directory is only found in the whole text
+			StringBuilder text = null;
+			boolean cdata = false;
+			while (reader.hasNext()) {
+				XMLEvent event = reader.nextEvent();
+				if (projectDir != null && event.isCharacters()) {
+					Characters characters = event.asCharacters();
+					if (text != null && characters.isCData() != cdata) {
+						writer.add(text(text, cdata, projectDir, events));
+						text = null;
+					}
+					if (text == null) {
+						text = new StringBuilder();
+						cdata = characters.isCData();
+					}
+					text.append(characters.getData());
+					continue;
+				}
+				if (text != null) {
+					writer.add(text(text, cdata, projectDir, events));
+					text = null;
+				}
+				if (event.isStartElement()) {
+					StartElement start = event.asStartElement();
+					depth++;
+					if (depth == 2) {
+						section = start.getName().getLocalPart();
+					}
+					if (depth == 1) {
+						start = withResourceRoot(start, dir, events);
+					} else if (isDropped(start, depth, section, interfaces)) {
+						skip(reader);
+						depth--;
+						continue;
+					}
+					event = projectDir != null ? withProjectDir(start,
+							projectDir, events) : start;
+				} else if (event.isEndElement()) {
+					depth--;
+				}
+				writer.add(event);
+			}
+			writer.flush();
+			reader.close();
+		} finally {
+			in.close();
+		}
+	}
+
+	private boolean isDropped(StartElement start, int depth, String section,
+			Set<String> interfaces) {
+		if (!CONFIG_NS.equals(start.getName().getNamespaceURI())) {
+			return false;
+		}
+		String name = start.getName().getLocalPart();
+		if (depth == 2) {
+			if ("testSuite".equals(name)) {
+				return true;
+			} else if ("interface".equals(name)) {
+				return !interfaces.contains(value(start, NAME));
+			} else if (MOCK_SERVICES.contains(name)) {
+				return !mockServiceNames.contains(value(start, NAME));
+			}
+		} else if ("interface".equals(section)) {
+			// sample requests of soap operations and rest methods
+			return "call".equals(name)
+					|| (depth >= 5 && "request".equals(name));
+		}
+		return false;
+	}
+
+	private Set<String> findInterfaces(URL project) throws IOException,
+			XMLStreamException {
+		Set<String> interfaces = new HashSet<String>();
+		InputStream in = new BufferedInputStream(project.openStream());
+		try {
+			XMLStreamReader reader = newInputFactory().createXMLStreamReader(
+					in);
+			int depth = 0;
+			boolean inMockService = false;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					String name = reader.getLocalName();
+					if (depth == 2) {
+						inMockService = MOCK_SERVICES.contains(name)
+								&& mockServiceNames.contains(reader
+										.getAttributeValue(null, "name"));
+						if (!inMockService) {
+							skipElement(reader);
+							depth--;
+						}
+					} else if (inMockService) {
+						String ref = reader.getAttributeValue(null, "interface");
+						if (ref != null) {
+							interfaces.add(ref);
+						}
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				}
+			}
+			reader.close();
+		} finally {
+			in.close();
+		}
+		return interfaces;
+	}
+
+	private static void skipElement(XMLStreamReader reader)
+			throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private static void skip(XMLEventReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			XMLEvent event = reader.nextEvent();
+			if (event.isStartElement()) {
+				depth++;
+			} else if (event.isEndElement()) {
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Relative resources are resolved against the project directory, which
+	 * changes when the pruned copy is written elsewhere.
+	 */
+	private static StartElement withResourceRoot(StartElement start,
+			File dir, XMLEventFactory events) {
+		String root = value(start, RESOURCE_ROOT);
+		if (dir == null
+				|| !(root == null || root.isEmpty() || PROJECT_DIR
+						.equals(root))) {
+			return start;
+		}
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		@SuppressWarnings("unchecked")
+		Iterator<Attribute> it = start.getAttributes();
+		while (it.hasNext()) {
+			Attribute attribute = it.next();
+			if (!RESOURCE_ROOT.equals(attribute.getName())) {
+				attributes.add(attribute);
+			}
+		}
+		attributes.add(events.createAttribute(RESOURCE_ROOT,
+				dir.getAbsolutePath()));
+		return events.createStartElement(start.getName(),
+				attributes.iterator(), start.getNamespaces());
+	}
+
+	private static StartElement withProjectDir(StartElement start,
+			String projectDir, XMLEventFactory events) {
+		boolean found = false;
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		@SuppressWarnings("unchecked")
+		Iterator<Attribute> it = start.getAttributes();
+		while (it.hasNext()) {
+			Attribute attribute = it.next();
+			if (attribute.getValue().contains(PROJECT_DIR)) {
+				found = true;
+				attribute = events.createAttribute(attribute.getName(),
+						attribute.getValue().replace(PROJECT_DIR, projectDir));
+			}
+			attributes.add(attribute);
+		}
+		return found ? events.createStartElement(start.getName(),
+				attributes.iterator(), start.getNamespaces()) : start;
+	}
+
+	private static Characters text(StringBuilder text, boolean cdata,
+			String projectDir, XMLEventFactory events) {
+		String data = text.toString().replace(PROJECT_DIR, projectDir);
+		return cdata ? events.createCData(data) : events.createCharacters(data);
+	}
+
+	private static File projectDir(URL project) {
+		if (!"file".equals(project.getProtocol())) {
+			return null;
+		}
+		try {
+			return new File(project.toURI()).getParentFile();
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	private static String value(StartElement start, QName name) {
+		Attribute attribute = start.getAttributeByName(name);
+		return attribute != null ? attribute.getValue() : null;
+	}
+
+	private static XMLInputFactory newInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		try {
+			// keep inlined definitions in CDATA sections instead of escaping
+			factory.setProperty(REPORT_CDATA, Boolean.TRUE);
+		} catch (IllegalArgumentException e) {
+			// not supported by this StAX implementation
+		}
+		return factory;
+	}
+
+}
@@ -0,0 +1,235 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Caches the pruned copy of a project for a mock service, so the project only
+ * has to be pruned again when it changes. The snapshot is stored next to the
+ * project, or in a temporary directory if that is not possible, and named
+ * after the SHA-256 digest of the project, its location and the mock service
+ * name. The location is part of the digest because the snapshot refers to
+ * the directory of the project, so checkouts sharing the temporary directory
+ * do not share snapshots.
+ * <p>
+ * Run {@link #main(String[])} to create snapshots upfront, e.g. as part of
+ * the build.
+ */
+public final class ProjectSnapshot {
+
+	private static final Logger LOG = Logger.getLogger(ProjectSnapshot.class
+			.getName());
+
+	/**
+	 * Part of the digest, bump when the pruning changes
+	 */
+	static final int FORMAT = 2;
+
+	static final String SUFFIX = ".snapshot.xml";
+
+	private ProjectSnapshot() {
+	}
+
+	/**
+	 * Creates snapshots of a project.
+	 *
+	 * @param args
+	 *            the project file followed by the mock service names
+	 *
+	 * @throws Exception
+	 *             if a snapshot cannot be created
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("usage: " + ProjectSnapshot.class.getName()
+					+ " <project file> <mock service> [<mock service> ...]");
+			System.exit(1);
+		}
+		URL project = new File(args[0]).toURI().toURL();
+		for (int i = 1; i < args.length; i++) {
+			System.out.println(get(project, args[i]));
+		}
+	}
+
+	/**
+	 * @param project
+	 *            the SoapUI project
+	 * @param mockServiceName
+	 *            the mock service the snapshot is for
+	 *
+	 * @return the snapshot of the project for the mock service, created if
+	 *         there is none for the current content of the project
+	 */
+	public static URL get(URL project, String mockServiceName) {
+		try {
+			String digest = digest(project, mockServiceName);
+			File snapshot = new File(cacheDir(project), baseName(project,
+					mockServiceName) + '-' + digest + SUFFIX);
+			if (!snapshot.isFile()) {
+				write(project, mockServiceName, snapshot);
+			}
+			return snapshot.toURI().toURL();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to snapshot project " + project,
+					e);
+		} catch (XMLStreamException e) {
+			throw new RuntimeException("Failed to snapshot project " + project,
+					e);
+		}
+	}
+
+	private static void write(URL project, String mockServiceName,
+			File snapshot) throws IOException, XMLStreamException {
+
+		long start = System.nanoTime();
+
+		// write aside and move in place, concurrent JVMs may race here
+		File tmp = File.createTempFile(snapshot.getName(), ".tmp",
+				snapshot.getParentFile());
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(
+					tmp));
+			try {
+				new ProjectPruner(mockServiceName).prune(project, out);
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), snapshot.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmp.delete();
+		}
+
+		removeStale(snapshot, baseName(project, mockServiceName));
+
+		if (LOG.isLoggable(Level.FINE)) {
+			LOG.fine("Created snapshot " + snapshot + " in "
+					+ (System.nanoTime() - start) / 1000000 + "ms");
+		}
+	}
+
+	/**
+	 * Snapshots of earlier versions of the project are not needed anymore.
+	 */
+	private static void removeStale(File snapshot, String baseName) {
+		File[] siblings = snapshot.getParentFile().listFiles();
+		if (siblings == null) {
+			return;
+		}
+		for (File sibling : siblings) {
+			String name = sibling.getName();
+			if (!sibling.equals(snapshot) && name.endsWith(SUFFIX)
+					&& name.startsWith(baseName + '-')
+					&& name.length() == snapshot.getName().length()) {
+				sibling.delete();
+			}
+		}
+	}
+
+	static String digest(URL project, String mockServiceName)
+			throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-256 is not available", e);
+		}
+		md.update((FORMAT + "|" + mockServiceName + '|' + location(project) + '|')
+				.getBytes("UTF-8"));
+		InputStream in = project.openStream();
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				md.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		StringBuilder sb = new StringBuilder(64);
+		for (byte b : md.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the directory of a project file, the URL of any other project
+	 */
+	private static String location(URL project) throws IOException {
+		if ("file".equals(project.getProtocol())) {
+			try {
+				return new File(project.toURI()).getParentFile()
+						.getCanonicalPath();
+			} catch (URISyntaxException e) {
+				// fall back to the URL
+			}
+		}
+		return project.toExternalForm();
+	}
+
+	private static File cacheDir(URL project) throws IOException {
+		if ("file".equals(project.getProtocol())) {
+			try {
+				File dir = new File(project.toURI()).getParentFile();
+				if (dir != null && dir.canWrite()) {
+					return dir;
+				}
+			} catch (URISyntaxException e) {
+				// use the temporary directory
+			}
+		}
+		File dir = new File(System.getProperty("java.io.tmpdir"),
+				"soapui-mock-snapshots");
+		if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+			throw new IOException("Cannot create snapshot directory " + dir);
+		}
+		return dir;
+	}
+
+	private static String baseName(URL project, String mockServiceName) {
+		String path = project.getPath();
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		if (name.endsWith(".xml")) {
+			name = name.substring(0, name.length() - 4);
+		}
+		return (name + '.' + mockServiceName).replaceAll("[^A-Za-z0-9._-]",
+				"_");
+	}
+
+}
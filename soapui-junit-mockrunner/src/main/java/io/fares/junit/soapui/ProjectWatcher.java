@@ -0,0 +1,172 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the project file of a running mock and reloads the mock when the
+ * file changes. Editors often write a file in several steps, the reload waits
+ * until the file has been quiet for a moment.
+ */
+public final class ProjectWatcher implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(ProjectWatcher.class
+			.getName());
+
+	/**
+	 * How long the file must stay unchanged before the mock is reloaded
+	 */
+	private static final long QUIET_MILLIS = 200;
+
+	private final Path projectFile;
+
+	private final ReloadableSoapUIMock mock;
+
+	private final WatchService watchService;
+
+	private volatile int reloads = 0;
+
+	/**
+	 * @param projectFile
+	 *            the project to watch, must be a file on the default file
+	 *            system
+	 * @param mock
+	 *            the mock to reload
+	 */
+	public ProjectWatcher(URL projectFile, ReloadableSoapUIMock mock) {
+		if (!"file".equals(projectFile.getProtocol())) {
+			throw new RuntimeException("Only project files can be watched, "
+					+ projectFile + " is not a file");
+		}
+		try {
+			this.projectFile = new File(projectFile.toURI()).toPath()
+					.toAbsolutePath();
+			this.watchService = FileSystems.getDefault().newWatchService();
+			this.projectFile.getParent().register(watchService,
+					StandardWatchEventKinds.ENTRY_MODIFY,
+					StandardWatchEventKinds.ENTRY_CREATE);
+		} catch (URISyntaxException e) {
+			throw new RuntimeException("Cannot watch " + projectFile, e);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot watch " + projectFile, e);
+		}
+		this.mock = mock;
+	}
+
+	/**
+	 * Starts watching on a mock executor thread.
+	 *
+	 * @return this watcher
+	 */
+	public ProjectWatcher start() {
+		MockExecutorService.getInstance().getExecutor(false)
+				.execute(new Runnable() {
+					@Override
+					public void run() {
+						watch();
+					}
+				});
+		return this;
+	}
+
+	/**
+	 * @return the number of reloads triggered so far
+	 */
+	public int getReloads() {
+		return reloads;
+	}
+
+	private void watch() {
+		try {
+			for (;;) {
+				WatchKey key = watchService.take();
+				boolean changed = pollChange(key);
+				// wait for the writes to settle
+				while (changed) {
+					WatchKey next = watchService.poll(QUIET_MILLIS,
+							TimeUnit.MILLISECONDS);
+					if (next == null) {
+						break;
+					}
+					pollChange(next);
+				}
+				if (changed) {
+					reload();
+				}
+			}
+		} catch (InterruptedException e) {
+			// stop watching
+		} catch (ClosedWatchServiceException e) {
+			// stop watching
+		}
+	}
+
+	private boolean pollChange(WatchKey key) {
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			Object context = event.context();
+			if (context instanceof Path
+					&& projectFile.getFileName().equals(context)) {
+				changed = true;
+			}
+		}
+		key.reset();
+		return changed;
+	}
+
+	private void reload() {
+		long start = System.nanoTime();
+		try {
+			mock.reload();
+			reloads++;
+			LOG.info("Reloaded " + projectFile + " in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+					+ "ms");
+		} catch (RuntimeException e) {
+			// keep the mock running and watching, the file may be half edited
+			LOG.log(Level.WARNING, "Failed to reload " + projectFile, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			LOG.log(Level.FINE, "Failed to close watch service", e);
+		}
+	}
+
+}
@@ -0,0 +1,242 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import io.fares.classloader.ClassLoaderFactory;
+import io.fares.classloader.JailUnloader;
+import io.fares.junit.soapui.internal.SoapUIJailShutdown;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds one jail per SoapUI version and jail configuration. All mocks of that
+ * configuration run side by side in the same jail, so a suite mixing SoapUI
+ * versions resolves and loads each version once. Every mock leases the jail
+ * and hands it back when it stops, the jail is unloaded once the last mock
+ * has handed it back. Prefetched jails are kept until {@link #closeAll()},
+ * which the mock executor runs when the JVM exits. Jails are built in the
+ * background, jails of different versions are built in parallel.
+ */
+public final class SharedJails {
+
+	private static final Logger LOG = Logger.getLogger(SharedJails.class
+			.getName());
+
+	private static final Map<String, Lease> JAILS = new HashMap<String, Lease>();
+
+	private SharedJails() {
+	}
+
+	/**
+	 * Starts building the jail for the key in the background unless it is
+	 * built or being built already. The jail is kept when its mocks stop.
+	 *
+	 * @param key
+	 *            identifies the jail configuration, all factories used with
+	 *            the same key must create equivalent jails
+	 * @param factory
+	 *            creates the jail if there is none for the key yet
+	 *
+	 * @return the jail once it is built
+	 */
+	public static synchronized Future<ClassLoader> prefetch(String key,
+			ClassLoaderFactory factory) {
+		Lease lease = lease(key, factory);
+		lease.pinned = true;
+		return lease.jail;
+	}
+
+	private static Lease lease(String key, final ClassLoaderFactory factory) {
+		Lease lease = JAILS.get(key);
+		if (lease == null) {
+			lease = new Lease(MockExecutorService.getInstance().submit(
+					new Callable<ClassLoader>() {
+						@Override
+						public ClassLoader call() {
+							long start = System.nanoTime();
+							ClassLoader jail = MockMetrics.getDefault()
+									.createJail(factory);
+							LOG.fine("Built shared jail in "
+									+ (System.nanoTime() - start) / 1000000
+									+ "ms");
+							return jail;
+						}
+					}));
+			JAILS.put(key, lease);
+		}
+		return lease;
+	}
+
+	/**
+	 * Leases the shared jail of a configuration, it must be handed back with
+	 * {@link #release(String, ClassLoader)}.
+	 *
+	 * @param key
+	 *            identifies the jail configuration
+	 * @param factory
+	 *            creates the jail if there is none for the key yet
+	 *
+	 * @return the shared jail, built on demand
+	 */
+	public static ClassLoader acquire(String key, ClassLoaderFactory factory) {
+		Lease lease;
+		boolean built;
+		synchronized (SharedJails.class) {
+			built = JAILS.containsKey(key);
+			lease = lease(key, factory);
+			lease.holders++;
+		}
+		try {
+			ClassLoader shared = lease.jail.get();
+			if (built) {
+				MockMetrics.getDefault().recordJailShared();
+			}
+			return shared;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			release(key, lease);
+			throw new RuntimeException("Interrupted waiting for shared jail", e);
+		} catch (ExecutionException e) {
+			synchronized (SharedJails.class) {
+				// let the next mock try again
+				if (JAILS.get(key) == lease) {
+					JAILS.remove(key);
+				}
+			}
+			throw new RuntimeException("Failed to build shared jail",
+					e.getCause());
+		} catch (CancellationException e) {
+			throw new RuntimeException("Shared jails have been closed", e);
+		}
+	}
+
+	/**
+	 * Hands back a jail leased with {@link #acquire(String, ClassLoaderFactory)}
+	 * and unloads it if no other mock holds it and it was not prefetched.
+	 *
+	 * @param key
+	 *            identifies the jail configuration
+	 * @param jail
+	 *            the jail that was leased, a jail that has been replaced
+	 *            since is ignored
+	 */
+	public static void release(String key, ClassLoader jail) {
+		Lease lease;
+		synchronized (SharedJails.class) {
+			lease = JAILS.get(key);
+			if (lease == null || !lease.holds(jail)) {
+				return;
+			}
+		}
+		release(key, lease);
+	}
+
+	private static void release(String key, Lease lease) {
+		synchronized (SharedJails.class) {
+			if (--lease.holders > 0 || lease.pinned || JAILS.get(key) != lease) {
+				return;
+			}
+			JAILS.remove(key);
+		}
+		LOG.fine("Unloading shared jail, its last mock has stopped");
+		unload(lease.jail);
+	}
+
+	/**
+	 * @param key
+	 *            identifies the jail configuration
+	 *
+	 * @return the number of mocks holding the jail
+	 */
+	static synchronized int holders(String key) {
+		Lease lease = JAILS.get(key);
+		return lease != null ? lease.holders : 0;
+	}
+
+	/**
+	 * @return the number of shared jails built or being built
+	 */
+	public static synchronized int size() {
+		return JAILS.size();
+	}
+
+	/**
+	 * Unloads all shared jails. Mocks still running in them are shut down.
+	 */
+	public static void closeAll() {
+		List<Lease> leases;
+		synchronized (SharedJails.class) {
+			leases = new ArrayList<Lease>(JAILS.values());
+			JAILS.clear();
+		}
+		for (Lease lease : leases) {
+			unload(lease.jail);
+		}
+	}
+
+	private static void unload(Future<ClassLoader> jail) {
+		if (jail.cancel(true)) {
+			return;
+		}
+		try {
+			new JailUnloader().addShutdownMethod(
+					SoapUIJailShutdown.class.getName(), "shutdown").unload(
+					jail.get());
+		} catch (Exception e) {
+			LOG.log(Level.FINE, "Discarding failed shared jail", e);
+		}
+	}
+
+	/**
+	 * A shared jail and the number of mocks running in it.
+	 */
+	private static final class Lease {
+
+		final Future<ClassLoader> jail;
+
+		int holders;
+
+		boolean pinned;
+
+		Lease(Future<ClassLoader> jail) {
+			this.jail = jail;
+		}
+
+		boolean holds(ClassLoader loader) {
+			try {
+				return jail.isDone() && !jail.isCancelled()
+						&& jail.get() == loader;
+			} catch (Exception e) {
+				return false;
+			}
+		}
+
+	}
+
+}
@@ -20,16 +20,27 @@
 package io.fares.junit.soapui;
 
 import io.fares.classloader.ClassLoaderFactory;
+import io.fares.classloader.ClassPreloader;
+import io.fares.classloader.JailUnloader;
+import io.fares.junit.soapui.fault.FaultInjectingProxy;
 import io.fares.junit.soapui.internal.ReflectionJUnitSoapUIRunner;
 import io.fares.junit.soapui.internal.SimpleJUnitSoapUIRunner;
+import io.fares.junit.soapui.internal.SoapUIJailShutdown;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 // TODO annotate with "needs class loader factory"
-public final class SoapUIMockExecutor implements SoapUIMock {
+public final class SoapUIMockExecutor implements ReloadableSoapUIMock {
 
 	public static final String REFELCTION_IMPL = ReflectionJUnitSoapUIRunner.class
 			.getName();
@@ -37,7 +48,20 @@ public final class SoapUIMockExecutor implements SoapUIMock {
 	public static final String SIMPLE_IMPL = SimpleJUnitSoapUIRunner.class
 			.getName();
 
-	private static ExecutorService service = Executors.newCachedThreadPool();
+	private static final Logger LOG = Logger.getLogger(SoapUIMockExecutor.class
+			.getName());
+
+	/**
+	 * How long {@link #stop()} waits for the jail to be collected when
+	 * verification is enabled
+	 */
+	private static final long UNLOAD_TIMEOUT_MILLIS = 5000;
+
+	/**
+	 * How long the jail is kept after a preload was cancelled for the
+	 * preloading threads to finish the classes they are loading
+	 */
+	private static final long PRELOAD_CANCEL_MILLIS = 2000;
 
 	/**
 	 * The mock runner delegate responsible for managing the actual SoapUI mock
@@ -57,6 +81,48 @@ public final class SoapUIMockExecutor implements SoapUIMock {
 	 */
 	private String implClassName;
 
+	/**
+	 * The jail the delegate runs in, released when the mock is stopped
+	 */
+	private ClassLoader jail;
+
+	private boolean verifyUnload = false;
+
+	/**
+	 * If set, jails are taken from this pool instead of being created
+	 */
+	private JailPool jailPool;
+
+	/**
+	 * If set, loads classes into the jail while the mock is starting
+	 */
+	private ClassPreloader preloader;
+
+	private ClassPreloader.Preload preload;
+
+	/**
+	 * The task of the running mock, decides how it is stopped
+	 */
+	private MockRunnerTask task;
+
+	private volatile long teardownMillis = -1;
+
+	/**
+	 * If set, the mock runs in the shared jail of this key
+	 */
+	private String sharedJailKey;
+
+	/**
+	 * Holds the mock port in front of the mock if the task injects faults
+	 */
+	private FaultInjectingProxy faultProxy;
+
+	/**
+	 * Reloads the mock when its project changes, one per mock no matter how
+	 * many rules share it
+	 */
+	private ProjectWatcher watcher;
+
 	protected SoapUIMockExecutor() {
 	}
 
@@ -79,33 +145,487 @@ public final class SoapUIMockExecutor implements SoapUIMock {
 					"A implementation class name must be configured");
 		}
 
+		this.task = task;
+
+		// with faults the mock moves to a free port behind the proxy
+		MockRunnerTask mockTask = task;
+		if (task.getFaultProfile() != null) {
+			if (!task.isMockPortSet()) {
+				throw new RuntimeException(
+						"Fault injection requires the mock port to be set");
+			}
+			mockTask = task.copy().withMockPort(freePort());
+		}
+
+		MockMetrics metrics = MockMetrics.getDefault();
+		MockEvent.Timing event = MockEvent.START.begin();
+		long start = System.nanoTime();
+		long classes = metrics.isEnabled() || event.isRecorded() ? MockMetrics
+				.loadedClasses() : 0;
+		long metaspace = metrics.isEnabled() ? MockMetrics.metaspaceUsed() : 0;
+
 		try {
 
+			if (sharedJailKey != null) {
+				jail = SharedJails.acquire(sharedJailKey, classLoaderFactory);
+				event.set(2, "shared");
+			} else if (jailPool != null) {
+				jail = jailPool.take();
+				event.set(2, "pooled");
+			} else {
+				event.set(2, "created");
+				jail = metrics.createJail(classLoaderFactory);
+			}
+
+			MockExecutorService executor = MockExecutorService.getInstance();
+
+			// load the recorded classes on all cores while the mock thread
+			// is busy reading the project
+			if (preloader != null) {
+				preload = preloader.preload(jail, executor.getExecutor(false));
+			}
+
 			// run up a future
-			Future<SoapUIMock> srf = service
-					.submit(new CallableRunner(classLoaderFactory
-							.createClassLoader(), implClassName, task));
+			Future<SoapUIMock> srf = executor.getExecutor(
+					task.isVirtualThreads()).submit(
+					new CallableRunner(jail, implClassName, mockTask));
 
 			// better to wait until this whole mock is loaded
-			delegate = srf.get();
+			try {
+				delegate = srf.get();
+			} catch (InterruptedException e) {
+				srf.cancel(true);
+				Thread.currentThread().interrupt();
+				throw e;
+			}
+
+			if (mockTask != task) {
+				faultProxy = new FaultInjectingProxy(task.getFaultProfile(),
+						listenAddress(task), mockAddress(mockTask)).start();
+			}
+
+			if (event.isRecorded()) {
+				event.set(0, task.getMockServiceName())
+						.set(1, task.getMockPort())
+						.set(3, MockMetrics.loadedClasses() - classes).commit();
+			}
+
+			if (metrics.isEnabled()) {
+				metrics.record(MockMetrics.START, System.nanoTime() - start);
+				metrics.recordGrowth(MockMetrics.loadedClasses() - classes,
+						MockMetrics.metaspaceUsed() - metaspace);
+			}
+
+			if (preload != null && LOG.isLoggable(Level.FINE)) {
+				LOG.fine("Preloaded " + preload.getLoaded() + " classes ("
+						+ preload.getFailed() + " failed) while starting, "
+						+ (preload.isDone() ? "done" : "still loading"));
+			}
 
 		} catch (Exception e) {
-			throw new RuntimeException("Failed to start soapui runner thread",
-					e);
+			RuntimeException failure = new RuntimeException(
+					"Failed to start soapui runner thread", e);
+			try {
+				abortStart();
+			} catch (RuntimeException cleanup) {
+				failure.addSuppressed(cleanup);
+			}
+			throw failure;
 		}
 
 	}
 
+	/**
+	 * Releases what a failed {@link #start(MockRunnerTask)} has taken so far:
+	 * the preload is cancelled, a partly started mock is stopped and the jail
+	 * is unloaded unless it is shared with other mocks.
+	 */
+	private void abortStart() {
+
+		if (jail == null) {
+			return;
+		}
+
+		if (preload != null) {
+			cancelPreload(preload);
+			preload = null;
+		}
+
+		if (faultProxy != null) {
+			faultProxy.close();
+			faultProxy = null;
+		}
+
+		SoapUIMock mock = delegate;
+		delegate = null;
+
+		new Teardown(mock, jail, -1).run();
+		jail = null;
+	}
+
+	/**
+	 * Stops the mock and unloads the jail it was running in. If the task asks
+	 * for an asynchronous stop only the port is freed and the rest of the
+	 * teardown continues in the background.
+	 */
 	@Override
 	public void stop() {
-		if (delegate != null) {
-			delegate.stop();
+
+		MockEvent.Timing event = MockEvent.STOP.begin();
+		long start = System.nanoTime();
+
+		ProjectWatcher watching;
+		synchronized (this) {
+			watching = watcher;
+			watcher = null;
+		}
+		if (watching != null) {
+			watching.close();
+		}
+
+		if (preload != null) {
+			cancelPreload(preload);
+			preload = null;
+		}
+
+		if (faultProxy != null) {
+			faultProxy.close();
+			faultProxy = null;
+		}
+
+		// the teardown holds the only references to the mock and its jail so
+		// the jail can be collected once it has been unloaded, a shared jail
+		// is handed back and stays with the other mocks running in it
+		Teardown teardown = new Teardown(delegate, jail,
+				task != null ? task.getStopTimeout() : -1);
+		boolean async = task != null && task.isAsyncStop();
+		if (async && jail != null && sharedJailKey == null) {
+			// a shared jail serves other ports from the same server
+			invokeInJail(jail, "closeConnectors");
+		}
+		delegate = null;
+		jail = null;
+
+		if (async) {
+			MockExecutorService.getInstance().getExecutor(false)
+					.execute(teardown);
+			teardownMillis = elapsedMillis(start);
+			LOG.fine("Freed mock port in " + teardownMillis
+					+ "ms, stopping the mock in the background");
+		} else {
+			teardown.run();
+			teardownMillis = elapsedMillis(start);
+		}
+		MockMetrics.getDefault().record(MockMetrics.STOP,
+				System.nanoTime() - start);
+		event.set(0, task != null ? task.getMockServiceName() : null)
+				.set(1, async).commit();
+
+	}
+
+	/**
+	 * @return how long the last {@link #stop()} blocked the caller in
+	 *         milliseconds or -1 if the mock has not been stopped yet
+	 */
+	public long getTeardownMillis() {
+		return teardownMillis;
+	}
+
+	private void stopMock(final SoapUIMock mock, int stopTimeout) {
+
+		if (stopTimeout < 0) {
+			mock.stop();
+			return;
+		}
+
+		Future<Void> stop = MockExecutorService.getInstance().submit(
+				new Callable<Void>() {
+					@Override
+					public Void call() {
+						mock.stop();
+						return null;
+					}
+				});
+		try {
+			stop.get(stopTimeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			// unloading the jail stops the jetty server regardless
+			LOG.warning("Mock did not stop within " + stopTimeout
+					+ "ms, unloading its jail");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to stop the mock", e.getCause());
+		}
+	}
+
+	/**
+	 * Stops a preload and waits for it before the jail is released, so no
+	 * class is loaded into a jail that is being unloaded.
+	 */
+	private static void cancelPreload(ClassPreloader.Preload preload) {
+		if (!preload.cancel(PRELOAD_CANCEL_MILLIS)) {
+			LOG.warning("Preload did not stop within " + PRELOAD_CANCEL_MILLIS
+					+ "ms, releasing the jail anyway");
+		}
+	}
+
+	/**
+	 * Runs a static method of {@link SoapUIJailShutdown} inside the jail.
+	 */
+	private static void invokeInJail(ClassLoader jail, String methodName) {
+		try {
+			Class.forName(SoapUIJailShutdown.class.getName(), true, jail)
+					.getMethod(methodName).invoke(null);
+		} catch (Exception e) {
+			LOG.log(Level.WARNING, "Failed to invoke " + methodName
+					+ " inside jail", e);
 		}
 	}
 
+	/**
+	 * @return the port clients of the mock connect to, in front of the fault
+	 *         proxy if there is one
+	 */
+	int getMockPort() {
+		return task.getMockPort();
+	}
+
+	/**
+	 * @return the proxy injecting faults in front of the mock or null if the
+	 *         task does not inject faults
+	 */
+	public FaultInjectingProxy getFaultProxy() {
+		return faultProxy;
+	}
+
+	static int freePort() {
+		try {
+			ServerSocket socket = new ServerSocket(0);
+			try {
+				return socket.getLocalPort();
+			} finally {
+				socket.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot find a free port for the mock",
+					e);
+		}
+	}
+
+	private static InetSocketAddress listenAddress(MockRunnerTask task) {
+		// without an explicit host the mock listens on all interfaces
+		return "localhost".equals(task.getMockHost()) ? new InetSocketAddress(
+				task.getMockPort()) : new InetSocketAddress(task.getMockHost(),
+				task.getMockPort());
+	}
+
+	private static InetSocketAddress mockAddress(MockRunnerTask task) {
+		return "localhost".equals(task.getMockHost()) ? new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), task.getMockPort())
+				: new InetSocketAddress(task.getMockHost(), task.getMockPort());
+	}
+
+	private static long elapsedMillis(long start) {
+		return (System.nanoTime() - start) / 1000000;
+	}
+
 	@Override
 	public boolean isRunning() {
-		return delegate.isRunning();
+		return delegate != null && delegate.isRunning();
+	}
+
+	/**
+	 * @return true if the implementation running in the jail can reload its
+	 *         project
+	 */
+	public boolean isReloadable() {
+		return delegate instanceof ReloadableSoapUIMock;
+	}
+
+	/**
+	 * Reloads the mock whenever its project file changes until the mock is
+	 * stopped. Calling it again, e.g. from another rule sharing the mock, does
+	 * not add another watcher.
+	 */
+	public synchronized void watchProject() {
+		if (watcher != null) {
+			return;
+		}
+		if (!isReloadable()) {
+			LOG.warning("Mock implementation " + implClassName
+					+ " cannot reload, not watching the project");
+			return;
+		}
+		watcher = new ProjectWatcher(task.getProjectFile(), this).start();
+	}
+
+	/**
+	 * @return true while the project of the mock is watched
+	 */
+	public synchronized boolean isWatchingProject() {
+		return watcher != null;
+	}
+
+	/**
+	 * Reloads the project of the running mock inside the jail.
+	 */
+	@Override
+	public void reload() {
+
+		final SoapUIMock mock = delegate;
+		if (!(mock instanceof ReloadableSoapUIMock)) {
+			throw new RuntimeException("Mock implementation " + implClassName
+					+ " cannot be reloaded");
+		}
+
+		final ClassLoader jail = this.jail;
+		Future<Void> reload = MockExecutorService.getInstance().submit(
+				new Callable<Void>() {
+					@Override
+					public Void call() {
+						Thread current = Thread.currentThread();
+						ClassLoader original = current.getContextClassLoader();
+						current.setContextClassLoader(jail);
+						try {
+							((ReloadableSoapUIMock) mock).reload();
+							return null;
+						} finally {
+							current.setContextClassLoader(original);
+						}
+					}
+				});
+
+		try {
+			reload.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted reloading the mock", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to reload the mock",
+					e.getCause());
+		}
+	}
+
+	/**
+	 * @param verifyUnload
+	 *            true to have {@link #stop()} wait for the jail to be garbage
+	 *            collected and report what retains it if it is not
+	 */
+	public void setVerifyUnload(boolean verifyUnload) {
+		this.verifyUnload = verifyUnload;
+	}
+
+	public boolean isVerifyUnload() {
+		return verifyUnload;
+	}
+
+	/**
+	 * @param jailPool
+	 *            a pool of prepared jails to take the jail for the next
+	 *            {@link #start(MockRunnerTask)} from
+	 */
+	public void setJailPool(JailPool jailPool) {
+		this.jailPool = jailPool;
+	}
+
+	public JailPool getJailPool() {
+		return jailPool;
+	}
+
+	/**
+	 * @param sharedJailKey
+	 *            run the mock in the {@link SharedJails shared jail} of this
+	 *            key instead of a jail of its own, null to use an own jail
+	 */
+	public void setSharedJailKey(String sharedJailKey) {
+		this.sharedJailKey = sharedJailKey;
+	}
+
+	public String getSharedJailKey() {
+		return sharedJailKey;
+	}
+
+	/**
+	 * @param preloader
+	 *            loads classes into the jail in parallel to the mock startup
+	 */
+	public void setPreloader(ClassPreloader preloader) {
+		this.preloader = preloader;
+	}
+
+	public ClassPreloader getPreloader() {
+		return preloader;
+	}
+
+	private void unloadJail(ClassLoader unload) {
+
+		if (unload == null) {
+			return;
+		}
+
+		// an asynchronous teardown may run after the next start
+		if (jail == unload) {
+			jail = null;
+		}
+
+		JailUnloader.Probe probe = new JailUnloader().addShutdownMethod(
+				SoapUIJailShutdown.class.getName(), "shutdown").unload(unload);
+		unload = null;
+
+		if (verifyUnload) {
+			if (probe.awaitCollected(UNLOAD_TIMEOUT_MILLIS)) {
+				LOG.fine("SoapUI jail has been collected");
+			} else {
+				LOG.warning("SoapUI jail was not collected within "
+						+ UNLOAD_TIMEOUT_MILLIS + "ms, suspects: "
+						+ probe.describeRetainers());
+			}
+		}
+	}
+
+	private final class Teardown implements Runnable {
+
+		private SoapUIMock mock;
+
+		private ClassLoader jail;
+
+		private final int stopTimeout;
+
+		Teardown(SoapUIMock mock, ClassLoader jail, int stopTimeout) {
+			this.mock = mock;
+			this.jail = jail;
+			this.stopTimeout = stopTimeout;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			long stopped = start;
+			try {
+				if (mock != null) {
+					stopMock(mock, stopTimeout);
+				}
+				stopped = System.nanoTime();
+			} finally {
+				mock = null;
+				ClassLoader unload = jail;
+				jail = null;
+				if (sharedJailKey != null) {
+					if (unload != null) {
+						SharedJails.release(sharedJailKey, unload);
+					}
+				} else {
+					unloadJail(unload);
+				}
+				if (LOG.isLoggable(Level.FINE)) {
+					LOG.fine("Mock teardown took " + elapsedMillis(start)
+							+ "ms (stop " + (stopped - start) / 1000000
+							+ "ms, unload " + elapsedMillis(stopped) + "ms)");
+				}
+			}
+		}
+
 	}
 
 	private final class CallableRunner implements Callable<SoapUIMock> {
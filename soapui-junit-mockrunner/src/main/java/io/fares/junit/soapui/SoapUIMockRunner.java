@@ -20,23 +20,34 @@
 package io.fares.junit.soapui;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.junit.rules.TestRule;
 import org.junit.runner.Description;
 import org.junit.runners.model.Statement;
 import org.eclipse.aether.repository.Authentication;
 import org.eclipse.aether.repository.Proxy;
+import org.eclipse.aether.repository.RepositoryPolicy;
 import org.eclipse.aether.util.repository.AuthenticationBuilder;
 
 import static io.fares.junit.soapui.SoapUI.*;
 import io.fares.classloader.AetherClasspathResolver;
+import io.fares.classloader.ClassLoadTrace;
+import io.fares.classloader.ClassPreloader;
 import io.fares.classloader.ClasspathResolver;
+import io.fares.classloader.ExtractedClassCache;
 import io.fares.classloader.FilteringClassLoaderFactory;
+import io.fares.classloader.JarUsage;
+import io.fares.classloader.MappedJarClassLoader;
+import io.fares.classloader.SharedJarLayers;
+import io.fares.junit.soapui.fault.FaultInjectingProxy;
+import io.fares.junit.soapui.fault.FaultProfile;
 
 public class SoapUIMockRunner implements TestRule {
 
@@ -63,11 +74,63 @@ public class SoapUIMockRunner implements TestRule {
 	// used to control the startup and teardown of the soapui mock
 	private MockRunnerTask task = new MockRunnerTask();
 
+	// wait for the jail to be collected on teardown
+	private boolean verifyJailUnload = false;
+
+	// number of jails prepared in the background for the next rules
+	private int warmJails = 0;
+
+	// loads a recorded list of classes into the jail while starting
+	private ClassPreloader preloader;
+
+	// records the class lookups of the jail and where to dump them
+	private ClassLoadTrace classLoadTrace;
+	private File classLoadTraceFile;
+
+	// where the jar usage of the jails is reported, null if not measured
+	private File jarUsageFile;
+
+	// how long the started mock lives and whether it is shared
+	private MockScope scope = MockScope.CLASS;
+
+	// the registry key of a shared mock while this rule holds it
+	private String sharedKey;
+
+	// run the mock in the jail shared by all rules of the same configuration
+	private boolean shareJail = false;
+
+	// file name prefixes of the jars loaded once for all jails
+	private String[] sharedJarPrefixes;
+
+	// memory map the jars of the jail instead of opening them as JarFiles
+	private boolean mappedJars = false;
+
+	// where the classes of the jail jars are extracted to, null if they are not
+	private File classCacheDir;
+
+	// reload the mock when the project file changes
+	private boolean watchProject = false;
+
+	// start the mock when it is first needed instead of in before()
+	private boolean lazy = false;
+
+	// set between before() and after(), the window a lazy mock may start in
+	private volatile boolean armed = false;
+
+	// holds the port of a lazy mock until the first client connects
+	private LazyStartListener placeholder;
+
 	/**
 	 * Need to keep track of the executing runner
 	 */
 	private SoapUIMockExecutor runner;
 
+	// why the mock failed to start during the current test
+	private RuntimeException startFailure;
+
+	// false while only the lazy start listener has seen the failure
+	private boolean startFailureReported;
+
 	/**
 	 * Creates a basic configured {@link SoapUIMockRunner}
 	 */
@@ -119,6 +182,132 @@ public class SoapUIMockRunner implements TestRule {
 					"a project resource location must be provided to the rule");
 		}
 
+		synchronized (this) {
+			startFailure = null;
+			startFailureReported = false;
+			armed = true;
+		}
+
+		if (lazy) {
+			if (task.isMockPortSet()) {
+				placeholder = new LazyStartListener(task, new Runnable() {
+					@Override
+					public void run() {
+						synchronized (SoapUIMockRunner.this) {
+							try {
+								startMock();
+							} catch (RuntimeException e) {
+								// only the listener saw it, after() reports it
+								startFailureReported = false;
+								throw e;
+							}
+						}
+					}
+				});
+				placeholder.start();
+			}
+		} else {
+			startMock();
+		}
+
+	}
+
+	/**
+	 * Resolves SoapUI, creates the jail and starts the mock unless it is
+	 * running already or the test has finished. A mock that failed to start
+	 * is not started again during the same test, the failure is rethrown
+	 * instead.
+	 */
+	protected synchronized void startMock() {
+
+		if (startFailure != null) {
+			startFailureReported = true;
+			throw new RuntimeException("Mock failed to start earlier",
+					startFailure);
+		}
+
+		if (runner != null || !armed) {
+			return;
+		}
+
+		// behind a placeholder the mock listens on a private port, the
+		// placeholder keeps the mock port and relays to it
+		final MockRunnerTask mockTask = placeholder != null ? LazyStartListener
+				.privateTask(task) : task;
+
+		try {
+			if (scope == MockScope.CLASS) {
+				runner = startExecutor(mockTask);
+			} else {
+				String key = task.getConfigurationKey() + '|' + implName + '|'
+						+ jailKey() + (placeholder != null ? "|lazy" : "");
+				runner = MockRegistry.acquire(key, scope,
+						new Callable<SoapUIMockExecutor>() {
+							@Override
+							public SoapUIMockExecutor call() throws Exception {
+								return startExecutor(mockTask);
+							}
+						});
+				sharedKey = key;
+			}
+		} catch (RuntimeException e) {
+			startFailure = e;
+			startFailureReported = true;
+			if (placeholder != null) {
+				placeholder.failed();
+			}
+			throw e;
+		}
+
+		if (placeholder != null) {
+			placeholder.started(runner.getMockPort());
+		}
+
+		if (watchProject) {
+			// shared mocks are watched once, the watcher stops with the mock
+			runner.watchProject();
+		}
+
+	}
+
+	/**
+	 * @return a started executor, never one whose mock failed to start
+	 */
+	private SoapUIMockExecutor startExecutor(MockRunnerTask mockTask) {
+		SoapUIMockExecutor executor = createExecutor();
+		try {
+			executor.start(mockTask);
+		} catch (RuntimeException e) {
+			try {
+				executor.stop();
+			} catch (RuntimeException s) {
+				e.addSuppressed(s);
+			}
+			throw e;
+		}
+		return executor;
+	}
+
+	private SoapUIMockExecutor createExecutor() {
+
+		FilteringClassLoaderFactory clf = createClassLoaderFactory();
+
+		// lets do this
+		SoapUIMockExecutor executor = new SoapUIMockExecutor(clf, implName);
+		executor.setVerifyUnload(verifyJailUnload);
+		executor.setPreloader(preloader);
+		if (shareJail) {
+			executor.setSharedJailKey(jailKey());
+		} else if (warmJails > 0) {
+			executor.setJailPool(JailPool.getPool(jailKey(), clf, warmJails,
+					preloader, implName));
+		}
+		return executor;
+
+	}
+
+	private FilteringClassLoaderFactory createClassLoaderFactory() {
+
 		// first need to configure the resolver with soapui dependency and repo
 		resolver.addArtifact(newSoapUIArtifact(soapuiVersion));
 
@@ -139,7 +328,7 @@ public class SoapUIMockRunner implements TestRule {
 		// classpath that is visible to the soapui itself (e.g. one can add any
 		// extensions here)
 		if (includeUnitTestLocation) {
-			clf.addIncludeClazzContainerURLs(base.getClass());
+			clf.addIncludeClazzContainerURLs(testClass());
 		}
 
 		// alsways need to add the container of this class (self) as we need to
@@ -149,17 +338,109 @@ public class SoapUIMockRunner implements TestRule {
 
 		// add classloader of the base test as parent, thats obviously the
 		// context class loader here
-		clf.setParentClassLoader(base.getClass().getClassLoader());
+		clf.setParentClassLoader(testClass().getClassLoader());
 
-		// lets do this
-		runner = new SoapUIMockExecutor(clf, implName);
-		runner.start(task);
+		clf.setClassLoadTrace(classLoadTrace);
+
+		if (jarUsageFile != null) {
+			clf.setJarUsage(JarUsage.getDefault());
+		}
+
+		if (sharedJarPrefixes != null) {
+			clf.withSharedJarLayer(sharedJarPrefixes);
+		}
+
+		clf.setMappedJars(mappedJars);
+		clf.setClassCacheDir(classCacheDir);
+
+		return clf;
 
 	}
 
-	protected void after() {
-		if (runner != null && runner.isRunning()) {
-			runner.stop();
+	/**
+	 * @return the class the jail is set up for, the rule itself while no test
+	 *         is applied yet
+	 */
+	private Class<?> testClass() {
+		return base != null ? base.getClass() : getClass();
+	}
+
+	/**
+	 * @return a key identifying the jail configuration of this rule, rules
+	 *         with the same key can share warm jails
+	 */
+	private String jailKey() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(soapuiVersion != null ? soapuiVersion : version());
+		sb.append('|').append(getPassFilters());
+		sb.append('|').append(getBlockFilters());
+		sb.append('|').append(resolver.getProxy());
+		sb.append('|').append(includeUnitTestLocation);
+		sb.append('|').append(
+				sharedJarPrefixes != null ? Arrays.asList(sharedJarPrefixes)
+						: null);
+		sb.append('|').append(mappedJars);
+		sb.append('|').append(classCacheDir);
+		sb.append('|').append(jarUsageFile != null);
+		if (resolver instanceof AetherClasspathResolver) {
+			sb.append('|').append(
+					((AetherClasspathResolver) resolver).getExclusions());
+		}
+		sb.append('|').append(
+				System.identityHashCode(testClass().getClassLoader()));
+		return sb.toString();
+	}
+
+	protected synchronized void after() {
+		armed = false;
+		if (placeholder != null) {
+			placeholder.close();
+			placeholder = null;
+		}
+		if (sharedKey != null) {
+			// the registry stops the mock when its scope ends
+			try {
+				MockRegistry.release(sharedKey);
+			} finally {
+				sharedKey = null;
+				runner = null;
+			}
+		} else if (runner != null) {
+			// also unloads the jail if the mock failed to start
+			try {
+				runner.stop();
+			} finally {
+				runner = null;
+			}
+		}
+		if (classLoadTrace != null) {
+			dumpClassLoadTrace();
+		}
+		if (jarUsageFile != null) {
+			try {
+				JarUsage.getDefault().writeReport(jarUsageFile);
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot write jar usage to "
+						+ jarUsageFile, e);
+			}
+		}
+		RuntimeException failure = startFailure;
+		boolean reported = startFailureReported;
+		startFailure = null;
+		if (failure != null && !reported) {
+			throw new RuntimeException(
+					"Mock failed to start on the first connection", failure);
+		}
+	}
+
+	private void dumpClassLoadTrace() {
+		File preloadList = new File(classLoadTraceFile.getPath() + ".preload");
+		try {
+			classLoadTrace.dump(classLoadTraceFile);
+			classLoadTrace.writePreloadList(preloadList);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write class load trace to "
+					+ classLoadTraceFile, e);
 		}
 	}
 
@@ -239,6 +520,470 @@ public class SoapUIMockRunner implements TestRule {
 		return this;
 	}
 
+	/**
+	 * Limit the Jetty thread pool serving the mock to the given number of
+	 * worker threads.
+	 *
+	 * @param threads
+	 *            the maximum number of worker threads
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner withWorkerThreads(int threads) {
+		task.setWorkerThreads(threads);
+		return this;
+	}
+
+	/**
+	 * @param acceptors
+	 *            the number of threads accepting connections on the mock port
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner withAcceptors(int acceptors) {
+		task.setAcceptors(acceptors);
+		return this;
+	}
+
+	/**
+	 * @param size
+	 *            the backlog of pending connections on the mock port
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner withAcceptQueueSize(int size) {
+		task.setAcceptQueueSize(size);
+		return this;
+	}
+
+	/**
+	 * @param millis
+	 *            the time an idle connection is kept open by the mock
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner withIdleTimeout(int millis) {
+		task.setIdleTimeout(millis);
+		return this;
+	}
+
+	/**
+	 * @param keepAlive
+	 *            false to have the mock close every connection once the
+	 *            response is written
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner withKeepAlive(boolean keepAlive) {
+		task.setKeepAlive(keepAlive);
+		return this;
+	}
+
+	/**
+	 * Limit how long stopping the mock may take. In-flight requests are given
+	 * this long to complete, then the mock is torn down regardless.
+	 *
+	 * @param millis
+	 *            the drain deadline
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner withStopTimeout(int millis) {
+		task.setStopTimeout(millis);
+		return this;
+	}
+
+	/**
+	 * Only free the mock port when the rule finishes and tear down the mock
+	 * and its jail in the background, so the next test class does not wait
+	 * for it. Combine with {@link #withStopTimeout(int)} to bound how long
+	 * in-flight requests keep the background teardown busy.
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner asyncStop() {
+		task.setAsyncStop(true);
+		return this;
+	}
+
+	/**
+	 * Have SoapUI load a copy of the project that only contains the mock
+	 * service and the interfaces it is bound to. The copy is streamed, so
+	 * large projects with many interfaces and test suites load faster and use
+	 * less heap.
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner pruneProject() {
+		task.pruneProject();
+		return this;
+	}
+
+	/**
+	 * Like {@link #pruneProject()}, but the pruned project is cached next to
+	 * the project and only pruned again when the project changes.
+	 *
+	 * @return this rule
+	 *
+	 * @see ProjectSnapshot
+	 */
+	public SoapUIMockRunner snapshotProject() {
+		task.snapshotProject();
+		return this;
+	}
+
+	/**
+	 * Start the mock and serve its requests on virtual threads. Only effective
+	 * on JDK 21 or newer, older JDKs fall back to platform threads. Requests
+	 * are moved onto virtual threads by replacing the thread pool of the Jetty
+	 * 6 server held by the SoapUI 5 mock engine, tested with SoapUI 5.2.1.
+	 * Other mock engines keep their thread pool and a warning is logged.
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner virtualThreads() {
+		task.setVirtualThreads(true);
+		return this;
+	}
+
+	/**
+	 * Remember which response the <code>XPATH</code> and
+	 * <code>QUERY_MATCH</code> dispatched operations of the mock chose for a
+	 * request, so equal requests are answered without SoapUI parsing them
+	 * again. Plain XPath dispatch expressions are evaluated while streaming
+	 * the request. Requires the simple binding.
+	 *
+	 * @param size
+	 *            the number of requests remembered per operation
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner withDispatchCache(int size) {
+		task.setDispatchCacheSize(size);
+		return this;
+	}
+
+	/**
+	 * Put a proxy on the mock port that injects latency, throttles responses,
+	 * answers with errors or resets connections per operation, and move the
+	 * mock to a free port behind it. Requires the mock port to be set.
+	 *
+	 * @param profile
+	 *            the faults to inject
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner withFaults(FaultProfile profile) {
+		task.setFaultProfile(profile);
+		return this;
+	}
+
+	/**
+	 * @return the proxy injecting faults in front of the running mock or null
+	 *         if no faults are injected
+	 */
+	public FaultInjectingProxy getFaultProxy() {
+		return runner != null ? runner.getFaultProxy() : null;
+	}
+
+	/**
+	 * Wait for the classloader jail to be garbage collected when the mock is
+	 * stopped and log what retains it if it is not. This costs a few full
+	 * garbage collections per teardown, use it to hunt down leaks.
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner verifyJailUnload() {
+		this.verifyJailUnload = true;
+		return this;
+	}
+
+	/**
+	 * Keep a number of jails prepared in the background, so the next rule with
+	 * the same jail configuration only has to load the project and bind the
+	 * port. Most useful when many test classes each start a mock.
+	 *
+	 * @param size
+	 *            the number of jails to keep ready
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner warmJails(int size) {
+		this.warmJails = size;
+		return this;
+	}
+
+	/**
+	 * Load the classes of a recorded class list into the jail on all cores
+	 * while the mock is starting.
+	 *
+	 * @param resourcePath
+	 *            the classpath location of the list, one class name per line
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner preloadClasses(String resourcePath) {
+		URL url = getClass().getClassLoader().getResource(resourcePath);
+		if (url == null) {
+			throw new RuntimeException(
+					"class list cannot be loaded from resource path "
+							+ resourcePath);
+		}
+		return preloadClasses(url);
+	}
+
+	/**
+	 * @param classList
+	 *            the location of a class list, one class name per line
+	 *
+	 * @return this rule
+	 *
+	 * @see #preloadClasses(String)
+	 */
+	public SoapUIMockRunner preloadClasses(URL classList) {
+		try {
+			this.preloader = ClassPreloader.fromList(classList);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot read class list " + classList,
+					e);
+		}
+		return this;
+	}
+
+	/**
+	 * Record every class and resource lookup that reaches the filtering
+	 * classloader of the jail together with the filter decision and its
+	 * latency. When the mock is stopped the trace is written to the file and
+	 * the classes the jail loaded itself are written to a list next to it
+	 * with the extension <code>.preload</code>, ready for
+	 * {@link #preloadClasses(URL)}.
+	 *
+	 * @param traceFile
+	 *            the file to write the trace to
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner traceClassLoading(File traceFile) {
+		return traceClassLoading(traceFile, ClassLoadTrace.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param traceFile
+	 *            the file to write the trace to
+	 * @param capacity
+	 *            the number of lookups kept, older ones are dropped
+	 *
+	 * @return this rule
+	 *
+	 * @see #traceClassLoading(File)
+	 */
+	public SoapUIMockRunner traceClassLoading(File traceFile, int capacity) {
+		this.classLoadTraceFile = traceFile;
+		this.classLoadTrace = new ClassLoadTrace(capacity);
+		return this;
+	}
+
+	/**
+	 * Count the classes and resources each jar of the jail serves. When the
+	 * mock is stopped the counts of all measured jails of the JVM are written
+	 * to the file, followed by the artifacts that served nothing as proposed
+	 * exclusions for {@link #withExclusions(String...)}. The mock fails to
+	 * start if {@link #withSharedJarLayer(String...)} or
+	 * {@link #withClassCache(File)} is used as well, as the jars they serve
+	 * would not be counted.
+	 *
+	 * @param reportFile
+	 *            the file to write the report to
+	 *
+	 * @return this rule
+	 *
+	 * @see JarUsage
+	 */
+	public SoapUIMockRunner measureClasspath(File reportFile) {
+		this.jarUsageFile = reportFile;
+		return this;
+	}
+
+	/**
+	 * Leave the artifacts a headless mock does not need, like the Swing
+	 * libraries and the load test charts, out of the jail classpath.
+	 *
+	 * @return this rule
+	 *
+	 * @see AetherClasspathResolver#MOCK_RUNTIME_EXCLUSIONS
+	 */
+	public SoapUIMockRunner withMockRuntimeProfile() {
+		return withExclusions(AetherClasspathResolver.MOCK_RUNTIME_EXCLUSIONS);
+	}
+
+	/**
+	 * @param exclusions
+	 *            <code>groupId:artifactId</code> of the SoapUI dependencies to
+	 *            leave out of the jail classpath, either part may be
+	 *            <code>*</code>
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner withExclusions(String... exclusions) {
+		if (resolver instanceof AetherClasspathResolver) {
+			((AetherClasspathResolver) resolver).addExclusions(exclusions);
+		}
+		return this;
+	}
+
+	/**
+	 * Defer resolving and starting SoapUI until a test needs the mock: the
+	 * first call to {@link #getMockEndpoint()} or, if a mock port is set, the
+	 * first connection to that port. The port is then held by a placeholder
+	 * for the whole test, which starts the mock on a private port and relays
+	 * every connection to it, so clients connecting while SoapUI starts wait
+	 * for it. Test classes whose tests are all filtered out or ignored never
+	 * start SoapUI.
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner lazy() {
+		this.lazy = true;
+		return this;
+	}
+
+	/**
+	 * Watch the project file and reload the mock service into the running
+	 * jail when the file changes, without resolving SoapUI or rebinding the
+	 * port again. Point the rule to the project in the source tree with
+	 * {@link #withProjectFile(File)}, the copy on the test classpath is not
+	 * updated by editing the source. Requires the simple binding.
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner watchProject() {
+		this.watchProject = true;
+		return this;
+	}
+
+	/**
+	 * Run the mock in a jail shared with all rules of the same SoapUI version
+	 * and jail configuration instead of building a jail per rule. Mocks of
+	 * different versions run side by side. The jail is unloaded when the last
+	 * mock running in it stops, use {@link #prefetchJail()} to keep it until
+	 * the JVM exits, so every SoapUI version a suite uses is resolved and
+	 * loaded once.
+	 *
+	 * @return this rule
+	 *
+	 * @see SharedJails
+	 */
+	public SoapUIMockRunner shareJail() {
+		this.shareJail = true;
+		return this;
+	}
+
+	/**
+	 * Load the third-party libraries of SoapUI, such as XMLBeans and the
+	 * commons libraries, once for all jails that use identical jars instead of
+	 * once per jail. Saves metaspace when several jails, for example of
+	 * different SoapUI versions, are alive at the same time. The layer is
+	 * closed with the last jail using it. Libraries with static state of
+	 * their own, like Jetty and log4j, should not be shared.
+	 *
+	 * @param prefixes
+	 *            file name prefixes of the jars to share, the
+	 *            {@link SharedJarLayers#DEFAULT_PREFIXES} if none are given
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner withSharedJarLayer(String... prefixes) {
+		this.sharedJarPrefixes = prefixes != null ? prefixes : new String[0];
+		return this;
+	}
+
+	/**
+	 * Load the jail from memory mapped jars. The jar directories are indexed
+	 * once and classes are read straight from the mapping, which cuts the
+	 * garbage produced while SoapUI starts up.
+	 *
+	 * @return this rule
+	 *
+	 * @see MappedJarClassLoader
+	 */
+	public SoapUIMockRunner withMappedJars() {
+		this.mappedJars = true;
+		return this;
+	}
+
+	/**
+	 * Same as {@link #withClassCache(File)} with the
+	 * {@link ExtractedClassCache#DEFAULT_ROOT}.
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner withClassCache() {
+		return withClassCache(ExtractedClassCache.DEFAULT_ROOT);
+	}
+
+	/**
+	 * Extract the classes of the SoapUI jars into a directory the first time
+	 * they are used, later jails and test runs load them from there instead
+	 * of inflating the jars again. A changed classpath is extracted anew.
+	 *
+	 * @param dir
+	 *            the root directory of the cache, shared by all versions
+	 *
+	 * @return this rule
+	 *
+	 * @see ExtractedClassCache
+	 */
+	public SoapUIMockRunner withClassCache(File dir) {
+		this.classCacheDir = dir;
+		return this;
+	}
+
+	/**
+	 * Start building the shared jail of this rule in the background right
+	 * away, implies {@link #shareJail()}. The jail is kept until the JVM
+	 * exits. Configure the SoapUI version, filters and proxy before calling
+	 * this.
+	 *
+	 * @return this rule
+	 */
+	public SoapUIMockRunner prefetchJail() {
+		shareJail();
+		SharedJails.prefetch(jailKey(), createClassLoaderFactory());
+		return this;
+	}
+
+	/**
+	 * Start building the shared jails of the given SoapUI versions in
+	 * parallel, for rules that use the default jail configuration and
+	 * {@link #shareJail()}. Call this once before a suite that mixes SoapUI
+	 * versions.
+	 *
+	 * @param versions
+	 *            the SoapUI versions to prepare
+	 */
+	public static void prefetchJails(String... versions) {
+		for (String version : versions) {
+			new SoapUIMockRunner().soapuiVersion(version).prefetchJail();
+		}
+	}
+
+	/**
+	 * Share the mock with other rules of the same configuration instead of
+	 * starting one per rule. Rules share a mock when their project, mock
+	 * service, endpoint, tuning, binding and jail configuration are equal.
+	 *
+	 * @param scope
+	 *            how long the mock lives
+	 *
+	 * @return this rule
+	 *
+	 * @see MockScope
+	 */
+	public SoapUIMockRunner withScope(MockScope scope) {
+		this.scope = scope != null ? scope : MockScope.CLASS;
+		return this;
+	}
+
 	public SoapUIMockRunner simpleBinding() {
 		this.implName = SoapUIMockExecutor.SIMPLE_IMPL;
 		return this;
@@ -267,7 +1012,14 @@ public class SoapUIMockRunner implements TestRule {
 		return this;
 	}
 
+	/**
+	 * @return the endpoint of the mock, a lazy mock is started by this call
+	 *         if a test is running
+	 */
 	public String getMockEndpoint() {
+		if (lazy && armed) {
+			startMock();
+		}
 		return task.getMockEndpoint();
 	}
 
@@ -313,6 +1065,25 @@ public class SoapUIMockRunner implements TestRule {
 		return this;
 	}
 
+	/**
+	 * How damaged SoapUI jars are handled, by default they are deleted and
+	 * downloaded once more before the mock fails to start.
+	 *
+	 * @param checksumPolicy
+	 *            one of the {@link RepositoryPolicy} checksum policies
+	 *
+	 * @return this rule
+	 *
+	 * @see AetherClasspathResolver#setChecksumPolicy(String)
+	 */
+	public SoapUIMockRunner withChecksumPolicy(String checksumPolicy) {
+		if (resolver instanceof AetherClasspathResolver) {
+			((AetherClasspathResolver) resolver)
+					.setChecksumPolicy(checksumPolicy);
+		}
+		return this;
+	}
+
 	public SoapUIMockRunner setProxy(String type, String host, int port,
 			String username, String password) {
 
@@ -0,0 +1,148 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Access to the virtual threads of JDK 21 and newer. The library is compiled
+ * against an older JDK so everything is looked up by reflection, callers have
+ * to check {@link #isSupported()} and fall back to platform threads.
+ */
+public final class VirtualThreads {
+
+	private static final Logger LOG = Logger.getLogger(VirtualThreads.class
+			.getName());
+
+	private static final Method OF_VIRTUAL;
+	private static final Method NAME;
+	private static final Method FACTORY;
+	private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method factory = null;
+		Method newThreadPerTaskExecutor = null;
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+			newThreadPerTaskExecutor = java.util.concurrent.Executors.class
+					.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			// preview releases refuse to create virtual threads
+			factory.invoke(ofVirtual.invoke(null));
+		} catch (Exception e) {
+			LOG.log(Level.FINE, "virtual threads are not available", e);
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		FACTORY = factory;
+		NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+	}
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @return true if the running JDK can create virtual threads
+	 */
+	public static boolean isSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Creates a factory of virtual threads which all start with the given
+	 * context classloader instead of the one of the thread that happens to
+	 * create them.
+	 *
+	 * @param name
+	 *            the prefix of the thread names, a counter is appended
+	 *
+	 * @param contextClassLoader
+	 *            the context classloader of the new threads, if null the
+	 *            threads inherit it from their creator
+	 *
+	 * @return a virtual thread factory
+	 *
+	 * @throws UnsupportedOperationException
+	 *             if the JDK does not support virtual threads
+	 */
+	public static ThreadFactory newThreadFactory(String name,
+			final ClassLoader contextClassLoader) {
+
+		if (!isSupported()) {
+			throw new UnsupportedOperationException(
+					"virtual threads require JDK 21 or newer");
+		}
+
+		final ThreadFactory factory;
+		try {
+			Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name + "-",
+					0L);
+			factory = (ThreadFactory) FACTORY.invoke(builder);
+		} catch (Exception e) {
+			throw new UnsupportedOperationException(
+					"failed to create virtual thread factory", e);
+		}
+
+		if (contextClassLoader == null) {
+			return factory;
+		}
+
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = factory.newThread(r);
+				t.setContextClassLoader(contextClassLoader);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * @param name
+	 *            the prefix of the thread names
+	 *
+	 * @param contextClassLoader
+	 *            the context classloader of the new threads or null
+	 *
+	 * @return an executor that starts a new virtual thread for each task
+	 */
+	public static ExecutorService newExecutor(String name,
+			ClassLoader contextClassLoader) {
+		try {
+			return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null,
+					newThreadFactory(name, contextClassLoader));
+		} catch (UnsupportedOperationException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new UnsupportedOperationException(
+					"failed to create virtual thread executor", e);
+		}
+	}
+
+}
@@ -0,0 +1,794 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.fault;
+
+import io.fares.junit.soapui.MockExecutorService;
+import io.fares.junit.soapui.fault.FaultProfile.Fault;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sits on the mock port in front of the mock and injects the faults of a
+ * {@link FaultProfile} into the HTTP requests passing through: latency before
+ * a request reaches the mock, throttled responses, error responses and
+ * connection resets. All connections are served by a single selector thread
+ * and delays are kept on a {@link TimerWheel}, so thousands of delayed
+ * requests do not hold a thread each.
+ * <p>
+ * Requests are framed by their <code>Content-Length</code> or chunked
+ * encoding and processed in order per connection, pipelined requests are not
+ * supported. Traffic that is not plain HTTP, such as TLS, is passed through
+ * without faults.
+ */
+public class FaultInjectingProxy implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(FaultInjectingProxy.class
+			.getName());
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Buffers queued per direction before reading from the other side pauses
+	 */
+	private static final int MAX_QUEUED = 8;
+
+	/**
+	 * Longest request head accepted before the connection is passed through
+	 */
+	private static final int MAX_HEAD = 64 * 1024;
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private static final byte[] HEAD_END = { '\r', '\n', '\r', '\n' };
+
+	private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n"
+			.getBytes(ISO_8859_1);
+
+	private static final Pattern BODY_ELEMENT = Pattern.compile(
+			"<(?:[\\w.-]+:)?Body\\b[^>]*>\\s*(?:<!--.*?-->\\s*)*<(?:[\\w.-]+:)?([\\w.-]+)",
+			Pattern.DOTALL);
+
+	private static final Pattern ACTION_PARAM = Pattern.compile(
+			"action\\s*=\\s*\"?([^\";]*)", Pattern.CASE_INSENSITIVE);
+
+	private final FaultProfile profile;
+
+	private final InetSocketAddress listenAddress;
+
+	private final InetSocketAddress mockAddress;
+
+	private final TimerWheel wheel = new TimerWheel();
+
+	// requests seen per operation, only used by the selector thread
+	private final Map<String, long[]> sequences = new HashMap<String, long[]>();
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong delayed = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final AtomicLong resets = new AtomicLong();
+
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	private Selector selector;
+
+	private ServerSocketChannel server;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * @param profile
+	 *            the faults to inject
+	 * @param listenAddress
+	 *            the address clients connect to
+	 * @param mockAddress
+	 *            the address of the mock the requests are passed on to
+	 */
+	public FaultInjectingProxy(FaultProfile profile,
+			InetSocketAddress listenAddress, InetSocketAddress mockAddress) {
+		this.profile = profile;
+		this.listenAddress = listenAddress;
+		this.mockAddress = mockAddress;
+	}
+
+	/**
+	 * Binds the listen address and starts serving connections.
+	 *
+	 * @return this proxy
+	 */
+	public FaultInjectingProxy start() {
+		try {
+			selector = Selector.open();
+			server = ServerSocketChannel.open();
+			server.socket().setReuseAddress(true);
+			server.socket().bind(listenAddress);
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			closeQuietly(server);
+			closeQuietly(selector);
+			stopped.countDown();
+			throw new RuntimeException("Cannot bind fault proxy to "
+					+ listenAddress, e);
+		}
+		MockExecutorService.getInstance().getExecutor(false)
+				.execute(new Runnable() {
+					@Override
+					public void run() {
+						loop();
+					}
+				});
+		LOG.fine("Injecting faults on port " + getPort() + " in front of "
+				+ mockAddress + ": " + profile);
+		return this;
+	}
+
+	/**
+	 * @return the port clients connect to
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getDelayed() {
+		return delayed.get();
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public long getResets() {
+		return resets.get();
+	}
+
+	/**
+	 * Closes all connections and frees the port.
+	 */
+	@Override
+	public void close() {
+		if (closed || selector == null) {
+			return;
+		}
+		closed = true;
+		selector.wakeup();
+		try {
+			// channels are only released once the selector has closed
+			stopped.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void loop() {
+		try {
+			while (!closed) {
+				long wait = wheel.getWaitMillis();
+				if (wait > 0) {
+					selector.select(wait);
+				} else {
+					selector.select();
+				}
+				wheel.advance(System.nanoTime());
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						((Connection) key.attachment()).ready(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Fault proxy on " + listenAddress
+					+ " failed", e);
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				closeQuietly(key.channel());
+			}
+			closeQuietly(selector);
+			stopped.countDown();
+		}
+	}
+
+	/**
+	 * Accepts a client and connects it to the mock. A connection that cannot
+	 * be set up is closed, the proxy keeps serving the others.
+	 */
+	private void accept() {
+		SocketChannel client;
+		try {
+			client = server.accept();
+		} catch (IOException e) {
+			LOG.log(Level.FINE, "Cannot accept a client on " + listenAddress,
+					e);
+			return;
+		}
+		if (client == null) {
+			return;
+		}
+		SocketChannel mock = null;
+		try {
+			mock = SocketChannel.open();
+			client.configureBlocking(false);
+			client.socket().setTcpNoDelay(true);
+			mock.configureBlocking(false);
+			mock.socket().setTcpNoDelay(true);
+			Connection connection = new Connection(client, mock);
+			connection.clientKey = client.register(selector,
+					SelectionKey.OP_READ, connection);
+			connection.connected = mock.connect(mockAddress);
+			connection.mockKey = mock.register(selector,
+					connection.connected ? SelectionKey.OP_READ
+							: SelectionKey.OP_CONNECT, connection);
+		} catch (IOException e) {
+			LOG.log(Level.FINE, "Cannot connect to mock at " + mockAddress, e);
+			closeQuietly(client);
+			if (mock != null) {
+				closeQuietly(mock);
+			}
+		}
+	}
+
+	private Fault decide(String operation) {
+		String key = operation != null ? operation : "";
+		long[] sequence = sequences.get(key);
+		if (sequence == null) {
+			sequence = new long[1];
+			sequences.put(key, sequence);
+		}
+		return profile.decide(operation, sequence[0]++);
+	}
+
+	/**
+	 * Picks the first name of a request that has a rule, falling back to the
+	 * first name found.
+	 */
+	private String operation(String action, byte[] request, int bodyStart) {
+
+		String found = null;
+
+		if (action != null && action.length() > 0) {
+			if (profile.getOperations().containsKey(action)) {
+				return action;
+			}
+			String name = action.substring(Math.max(action.lastIndexOf('/'),
+					action.lastIndexOf('#')) + 1);
+			if (name.length() > 0) {
+				if (profile.getOperations().containsKey(name)) {
+					return name;
+				}
+				found = name;
+			}
+		}
+
+		int length = Math.min(request.length - bodyStart, MAX_HEAD);
+		Matcher m = BODY_ELEMENT.matcher(new String(request, bodyStart,
+				length, ISO_8859_1));
+		if (m.find()) {
+			String element = m.group(1);
+			if (found == null || profile.getOperations().containsKey(element)) {
+				return element;
+			}
+		}
+
+		return found;
+	}
+
+	private static byte[] errorResponse(int status) {
+		byte[] body = ("<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+				+ "<soapenv:Body><soapenv:Fault><faultcode>soapenv:Server</faultcode>"
+				+ "<faultstring>Injected fault</faultstring></soapenv:Fault>"
+				+ "</soapenv:Body></soapenv:Envelope>").getBytes(ISO_8859_1);
+		byte[] head = ("HTTP/1.1 " + status + " Injected Fault\r\n"
+				+ "Content-Type: text/xml;charset=UTF-8\r\n"
+				+ "Content-Length: " + body.length + "\r\n\r\n")
+				.getBytes(ISO_8859_1);
+		byte[] response = Arrays.copyOf(head, head.length + body.length);
+		System.arraycopy(body, 0, response, head.length, body.length);
+		return response;
+	}
+
+	private static int indexOf(byte[] data, int from, int to, byte[] pattern) {
+		outer: for (int i = from; i <= to - pattern.length; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (data[i + j] != pattern[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable == null) {
+			return;
+		}
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+
+	/**
+	 * A client connection and its connection to the mock.
+	 */
+	private final class Connection {
+
+		private final SocketChannel client;
+
+		private final SocketChannel mock;
+
+		private SelectionKey clientKey;
+
+		private SelectionKey mockKey;
+
+		private boolean connected = false;
+
+		// client bytes not framed into a request yet
+		private byte[] in = new byte[BUFFER_SIZE];
+
+		private int inLength = 0;
+
+		private final Deque<ByteBuffer> toMock = new ArrayDeque<ByteBuffer>();
+
+		private final Deque<ByteBuffer> toClient = new ArrayDeque<ByteBuffer>();
+
+		private boolean passthrough = false;
+
+		// a delayed request blocks the requests behind it
+		private boolean held = false;
+
+		private boolean continueSent = false;
+
+		private boolean clientEof = false;
+
+		private boolean mockEof = false;
+
+		private boolean mockOutputShut = false;
+
+		private boolean open = true;
+
+		// response throttling of the current request
+		private int bytesPerSecond = -1;
+
+		private double tokens = 0;
+
+		private long lastRefill = System.nanoTime();
+
+		private boolean throttled = false;
+
+		Connection(SocketChannel client, SocketChannel mock) {
+			this.client = client;
+			this.mock = mock;
+		}
+
+		void ready(SelectionKey key) {
+			try {
+				if (key == mockKey) {
+					if (key.isConnectable()) {
+						mock.finishConnect();
+						connected = true;
+					}
+					if (key.isWritable()) {
+						write(mock, toMock);
+					}
+					if (key.isReadable()) {
+						readMock();
+					}
+				} else {
+					if (key.isWritable()) {
+						write(client, toClient);
+					}
+					if (key.isReadable()) {
+						readClient();
+					}
+				}
+				progress();
+			} catch (IOException e) {
+				LOG.log(Level.FINEST, "Proxied connection failed", e);
+				close();
+			} catch (RuntimeException e) {
+				// one broken connection must not stop the proxy
+				LOG.log(Level.FINE, "Proxied connection failed", e);
+				close();
+			}
+		}
+
+		private void readClient() throws IOException {
+			if (in.length - inLength < BUFFER_SIZE / 2) {
+				in = Arrays.copyOf(in, in.length * 2);
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(in, inLength, in.length
+					- inLength);
+			int n = client.read(buffer);
+			if (n < 0) {
+				clientEof = true;
+			} else {
+				inLength += n;
+			}
+		}
+
+		private void readMock() throws IOException {
+			int limit = BUFFER_SIZE;
+			if (bytesPerSecond > 0) {
+				refill();
+				if (tokens < 1) {
+					pause();
+					return;
+				}
+				limit = (int) Math.min(limit, tokens);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(limit);
+			int n = mock.read(buffer);
+			if (n < 0) {
+				mockEof = true;
+			} else if (n > 0) {
+				if (bytesPerSecond > 0) {
+					tokens -= n;
+				}
+				buffer.flip();
+				toClient.add(buffer);
+			}
+		}
+
+		private void refill() {
+			long now = System.nanoTime();
+			// allow bursts of 50ms worth of bytes
+			double burst = Math.max(1, bytesPerSecond / 20d);
+			tokens = Math.min(burst, tokens + (now - lastRefill)
+					* bytesPerSecond / 1e9);
+			lastRefill = now;
+		}
+
+		private void pause() {
+			throttled = true;
+			long wait = Math.max(1,
+					(long) (Math.max(1, bytesPerSecond / 20d) * 1000 / bytesPerSecond));
+			wheel.schedule(wait, new Runnable() {
+				@Override
+				public void run() {
+					throttled = false;
+					progress();
+				}
+			});
+		}
+
+		private void write(SocketChannel channel, Deque<ByteBuffer> queue)
+				throws IOException {
+			while (!queue.isEmpty()) {
+				ByteBuffer buffer = queue.peek();
+				channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					return;
+				}
+				queue.poll();
+			}
+		}
+
+		void progress() {
+			if (!open) {
+				return;
+			}
+			try {
+				frame();
+				if (!open) {
+					return;
+				}
+				if (clientEof && !held && inLength == 0 && toMock.isEmpty()
+						&& connected && !mockOutputShut) {
+					mock.socket().shutdownOutput();
+					mockOutputShut = true;
+				}
+				if (mockEof && toClient.isEmpty()) {
+					close();
+					return;
+				}
+				updateInterest();
+			} catch (IOException e) {
+				LOG.log(Level.FINEST, "Proxied connection failed", e);
+				close();
+			} catch (RuntimeException e) {
+				// timer tasks end up here, keep the event loop running
+				LOG.log(Level.FINE, "Proxied connection failed", e);
+				close();
+			}
+		}
+
+		private void updateInterest() {
+			int clientOps = 0;
+			if (!clientEof && !held && toMock.size() < MAX_QUEUED) {
+				clientOps |= SelectionKey.OP_READ;
+			}
+			if (!toClient.isEmpty()) {
+				clientOps |= SelectionKey.OP_WRITE;
+			}
+			clientKey.interestOps(clientOps);
+
+			int mockOps = 0;
+			if (!connected) {
+				mockOps = SelectionKey.OP_CONNECT;
+			} else {
+				if (!mockEof && !throttled && toClient.size() < MAX_QUEUED) {
+					mockOps |= SelectionKey.OP_READ;
+				}
+				if (!toMock.isEmpty()) {
+					mockOps |= SelectionKey.OP_WRITE;
+				}
+			}
+			mockKey.interestOps(mockOps);
+		}
+
+		/**
+		 * Frames the buffered client bytes into requests and dispatches them
+		 * until a request is incomplete or delayed.
+		 */
+		private void frame() throws IOException {
+			while (!passthrough && !held && inLength > 0 && open) {
+				int length = frameRequest();
+				if (length < 0) {
+					break;
+				}
+			}
+			if (inLength > 0 && !held && (passthrough || clientEof)) {
+				// forward whatever cannot be framed as is
+				toMock.add(ByteBuffer.wrap(Arrays.copyOf(in, inLength)));
+				inLength = 0;
+			}
+		}
+
+		/**
+		 * @return the length of the dispatched request or -1 if the buffered
+		 *         bytes do not hold a complete request
+		 */
+		private int frameRequest() throws IOException {
+
+			if (!looksLikeHttp()) {
+				LOG.fine("Not an HTTP request, passing the connection through");
+				passthrough = true;
+				return -1;
+			}
+
+			int headEnd = indexOf(in, 0, inLength, HEAD_END);
+			if (headEnd < 0) {
+				if (inLength > MAX_HEAD) {
+					passthrough = true;
+				}
+				return -1;
+			}
+
+			String head = new String(in, 0, headEnd, ISO_8859_1);
+			String[] lines = head.split("\r\n");
+			long contentLength = 0;
+			boolean chunked = false;
+			String action = null;
+			int expectLine = -1;
+			for (int i = 1; i < lines.length; i++) {
+				int colon = lines[i].indexOf(':');
+				if (colon < 0) {
+					continue;
+				}
+				String name = lines[i].substring(0, colon).trim();
+				String value = lines[i].substring(colon + 1).trim();
+				if ("Content-Length".equalsIgnoreCase(name)) {
+					contentLength = contentLength(value);
+				} else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+					chunked = value.toLowerCase().contains("chunked");
+				} else if ("SOAPAction".equalsIgnoreCase(name)) {
+					action = value.replace("\"", "");
+				} else if ("Content-Type".equalsIgnoreCase(name)
+						&& action == null) {
+					Matcher m = ACTION_PARAM.matcher(value);
+					if (m.find()) {
+						action = m.group(1);
+					}
+				} else if ("Expect".equalsIgnoreCase(name)
+						&& "100-continue".equalsIgnoreCase(value)) {
+					expectLine = i;
+				}
+			}
+
+			int bodyStart = headEnd + HEAD_END.length;
+			int end = chunked ? chunkedEnd(bodyStart) : (int) Math.min(
+					Integer.MAX_VALUE, bodyStart + contentLength);
+			if (end < 0 || end > inLength) {
+				if (expectLine >= 0 && !continueSent) {
+					toClient.add(ByteBuffer.wrap(CONTINUE));
+					continueSent = true;
+				}
+				return -1;
+			}
+
+			byte[] request;
+			if (expectLine >= 0) {
+				// the client has been told to continue, the mock must not
+				StringBuilder sb = new StringBuilder();
+				for (int i = 0; i < lines.length; i++) {
+					if (i != expectLine) {
+						sb.append(lines[i]).append("\r\n");
+					}
+				}
+				byte[] rewritten = sb.append("\r\n").toString()
+						.getBytes(ISO_8859_1);
+				request = Arrays.copyOf(rewritten, rewritten.length + end
+						- bodyStart);
+				System.arraycopy(in, bodyStart, request, rewritten.length, end
+						- bodyStart);
+				bodyStart = rewritten.length;
+			} else {
+				request = Arrays.copyOf(in, end);
+			}
+
+			System.arraycopy(in, end, in, 0, inLength - end);
+			inLength -= end;
+			continueSent = false;
+
+			dispatch(request, operation(action, request, bodyStart));
+			return request.length;
+		}
+
+		private boolean looksLikeHttp() {
+			// the request line starts with an upper case method
+			for (int i = 0; i < Math.min(inLength, 8); i++) {
+				byte b = in[i];
+				if (b == ' ') {
+					return i > 0;
+				} else if (b < 'A' || b > 'Z') {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private int chunkedEnd(int start) throws IOException {
+			int pos = start;
+			while (true) {
+				int eol = indexOf(in, pos, inLength, CRLF);
+				if (eol < 0) {
+					return -1;
+				}
+				String size = new String(in, pos, eol - pos, ISO_8859_1);
+				int semicolon = size.indexOf(';');
+				if (semicolon >= 0) {
+					size = size.substring(0, semicolon);
+				}
+				int chunk;
+				try {
+					chunk = Integer.parseInt(size.trim(), 16);
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed chunk size " + size);
+				}
+				pos = eol + CRLF.length;
+				if (chunk == 0) {
+					// skip the trailers up to the empty line
+					while (true) {
+						eol = indexOf(in, pos, inLength, CRLF);
+						if (eol < 0) {
+							return -1;
+						} else if (eol == pos) {
+							return pos + CRLF.length;
+						}
+						pos = eol + CRLF.length;
+					}
+				}
+				pos += chunk + CRLF.length;
+				if (pos > inLength) {
+					return -1;
+				}
+			}
+		}
+
+		private long contentLength(String value) throws IOException {
+			try {
+				long length = Long.parseLong(value);
+				if (length >= 0) {
+					return length;
+				}
+			} catch (NumberFormatException e) {
+				// reported below
+			}
+			throw new IOException("Malformed Content-Length " + value);
+		}
+
+		private void dispatch(final byte[] request, String operation)
+				throws IOException {
+
+			requests.incrementAndGet();
+			Fault fault = decide(operation);
+			bytesPerSecond = fault.getRule().getBytesPerSecond();
+
+			switch (fault.getKind()) {
+			case RESET:
+				resets.incrementAndGet();
+				reset();
+				break;
+			case ERROR:
+				errors.incrementAndGet();
+				toClient.add(ByteBuffer.wrap(errorResponse(fault.getRule()
+						.getErrorStatus())));
+				break;
+			case DELAY:
+				delayed.incrementAndGet();
+				held = true;
+				wheel.schedule(fault.getLatencyMillis(), new Runnable() {
+					@Override
+					public void run() {
+						held = false;
+						toMock.add(ByteBuffer.wrap(request));
+						progress();
+					}
+				});
+				break;
+			default:
+				toMock.add(ByteBuffer.wrap(request));
+			}
+		}
+
+		private void reset() throws IOException {
+			// a zero linger time makes close send a RST
+			client.socket().setSoLinger(true, 0);
+			close();
+		}
+
+		void close() {
+			open = false;
+			closeQuietly(client);
+			closeQuietly(mock);
+		}
+
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.fault;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The faults a {@link FaultInjectingProxy} injects, per operation with a
+ * default for all others. Every decision is derived from the seed, the
+ * operation and the number of the request within that operation, so the n-th
+ * request of an operation gets the same fault on every run however requests
+ * of different operations interleave.
+ *
+ * <pre>
+ * new FaultProfile().withSeed(42)
+ *         .withDefault(new FaultRule().withLatency(20, 10))
+ *         .withOperation("GetWeather",
+ *                 new FaultRule().withLatency(2000).withErrorRate(0.1));
+ * </pre>
+ */
+public class FaultProfile {
+
+	private long seed = 0;
+
+	private FaultRule defaultRule = new FaultRule();
+
+	private final Map<String, FaultRule> operations = new LinkedHashMap<String, FaultRule>();
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public FaultRule getDefaultRule() {
+		return defaultRule;
+	}
+
+	public void setDefaultRule(FaultRule defaultRule) {
+		this.defaultRule = defaultRule != null ? defaultRule : new FaultRule();
+	}
+
+	public Map<String, FaultRule> getOperations() {
+		return Collections.unmodifiableMap(operations);
+	}
+
+	public FaultProfile withSeed(long seed) {
+		setSeed(seed);
+		return this;
+	}
+
+	public FaultProfile withDefault(FaultRule rule) {
+		setDefaultRule(rule);
+		return this;
+	}
+
+	/**
+	 * @param operation
+	 *            the operation name, the full SOAP action or the name of the
+	 *            first element of the SOAP body
+	 * @param rule
+	 *            the faults for the operation
+	 *
+	 * @return this profile
+	 */
+	public FaultProfile withOperation(String operation, FaultRule rule) {
+		operations.put(operation, rule);
+		return this;
+	}
+
+	/**
+	 * @param operation
+	 *            the operation of a request, may be null
+	 *
+	 * @return the rule of the operation or the default rule
+	 */
+	public FaultRule getRule(String operation) {
+		FaultRule rule = operation != null ? operations.get(operation) : null;
+		return rule != null ? rule : defaultRule;
+	}
+
+	/**
+	 * Draws the fault of a request.
+	 *
+	 * @param operation
+	 *            the operation of the request, may be null
+	 * @param sequence
+	 *            the number of the request within the operation
+	 *
+	 * @return the fault to inject
+	 */
+	public Fault decide(String operation, long sequence) {
+
+		FaultRule rule = getRule(operation);
+
+		long h = mix(seed ^ mix((operation != null ? operation.hashCode() : 0)
+				+ 0x9E3779B97F4A7C15L * (sequence + 1)));
+
+		if (unit(h) < rule.getResetRate()) {
+			return new Fault(rule, Fault.Kind.RESET, 0);
+		}
+		h = mix(h);
+		if (unit(h) < rule.getErrorRate()) {
+			return new Fault(rule, Fault.Kind.ERROR, 0);
+		}
+		h = mix(h);
+		long latency = rule.getLatencyMillis();
+		if (rule.getJitterMillis() > 0) {
+			latency += (long) (unit(h) * (rule.getJitterMillis() + 1));
+		}
+		return new Fault(rule, latency > 0 ? Fault.Kind.DELAY
+				: Fault.Kind.NONE, latency);
+	}
+
+	// SplitMix64 finaliser
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static double unit(long h) {
+		return (h >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * @return a description that is equal for profiles injecting the same
+	 *         faults
+	 */
+	@Override
+	public String toString() {
+		return "seed=" + seed + ",default={" + defaultRule + "},operations="
+				+ operations;
+	}
+
+	/**
+	 * The fault drawn for a single request.
+	 */
+	public static final class Fault {
+
+		public enum Kind {
+			NONE, DELAY, ERROR, RESET
+		}
+
+		private final FaultRule rule;
+
+		private final Kind kind;
+
+		private final long latencyMillis;
+
+		Fault(FaultRule rule, Kind kind, long latencyMillis) {
+			this.rule = rule;
+			this.kind = kind;
+			this.latencyMillis = latencyMillis;
+		}
+
+		public FaultRule getRule() {
+			return rule;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		public long getLatencyMillis() {
+			return latencyMillis;
+		}
+
+	}
+
+}
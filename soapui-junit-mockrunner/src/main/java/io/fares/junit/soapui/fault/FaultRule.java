@@ -0,0 +1,180 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.fault;
+
+/**
+ * The faults injected into the requests of one operation. Rates are
+ * probabilities between 0 and 1 drawn per request.
+ */
+public class FaultRule {
+
+	private long latencyMillis = 0;
+
+	private long jitterMillis = 0;
+
+	private int bytesPerSecond = -1;
+
+	private double resetRate = 0;
+
+	private double errorRate = 0;
+
+	private int errorStatus = 500;
+
+	public long getLatencyMillis() {
+		return latencyMillis;
+	}
+
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = Math.max(0, latencyMillis);
+	}
+
+	public long getJitterMillis() {
+		return jitterMillis;
+	}
+
+	public void setJitterMillis(long jitterMillis) {
+		this.jitterMillis = Math.max(0, jitterMillis);
+	}
+
+	public int getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	public void setBytesPerSecond(int bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	public boolean isThrottled() {
+		return bytesPerSecond > 0;
+	}
+
+	public double getResetRate() {
+		return resetRate;
+	}
+
+	public void setResetRate(double resetRate) {
+		this.resetRate = rate(resetRate);
+	}
+
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	public void setErrorRate(double errorRate) {
+		this.errorRate = rate(errorRate);
+	}
+
+	public int getErrorStatus() {
+		return errorStatus;
+	}
+
+	public void setErrorStatus(int errorStatus) {
+		this.errorStatus = errorStatus;
+	}
+
+	/**
+	 * @param millis
+	 *            the time each request is held before it reaches the mock
+	 *
+	 * @return this rule
+	 */
+	public FaultRule withLatency(long millis) {
+		setLatencyMillis(millis);
+		return this;
+	}
+
+	/**
+	 * @param millis
+	 *            the time each request is held before it reaches the mock
+	 * @param jitterMillis
+	 *            up to this much is added to the latency of each request
+	 *
+	 * @return this rule
+	 */
+	public FaultRule withLatency(long millis, long jitterMillis) {
+		setLatencyMillis(millis);
+		setJitterMillis(jitterMillis);
+		return this;
+	}
+
+	/**
+	 * @param bytesPerSecond
+	 *            the rate responses are sent back to the client at
+	 *
+	 * @return this rule
+	 */
+	public FaultRule withBandwidth(int bytesPerSecond) {
+		setBytesPerSecond(bytesPerSecond);
+		return this;
+	}
+
+	/**
+	 * @param rate
+	 *            the share of requests answered by resetting the connection
+	 *
+	 * @return this rule
+	 */
+	public FaultRule withResetRate(double rate) {
+		setResetRate(rate);
+		return this;
+	}
+
+	/**
+	 * @param rate
+	 *            the share of requests answered with a SOAP fault instead of
+	 *            reaching the mock
+	 *
+	 * @return this rule
+	 */
+	public FaultRule withErrorRate(double rate) {
+		setErrorRate(rate);
+		return this;
+	}
+
+	/**
+	 * @param rate
+	 *            the share of requests answered with an error
+	 * @param status
+	 *            the HTTP status of the error response
+	 *
+	 * @return this rule
+	 */
+	public FaultRule withErrorRate(double rate, int status) {
+		setErrorRate(rate);
+		setErrorStatus(status);
+		return this;
+	}
+
+	private static double rate(double rate) {
+		if (rate < 0 || rate > 1) {
+			throw new IllegalArgumentException("rate " + rate
+					+ " is not between 0 and 1");
+		}
+		return rate;
+	}
+
+	@Override
+	public String toString() {
+		return "latency=" + latencyMillis + "+" + jitterMillis + ",bandwidth="
+				+ bytesPerSecond + ",reset=" + resetRate + ",error="
+				+ errorRate + "/" + errorStatus;
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.fault;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timer wheel driven by the thread that owns it. Scheduling and
+ * expiring a timeout is constant time no matter how many are pending, and no
+ * thread waits for a timeout: the owner calls {@link #advance(long)} from its
+ * event loop and the expired tasks run on that thread. Not thread safe.
+ */
+public class TimerWheel {
+
+	public static final long DEFAULT_TICK_MILLIS = 5;
+
+	public static final int DEFAULT_SLOTS = 512;
+
+	private final long tickNanos;
+
+	private final List<List<Timeout>> wheel;
+
+	private final int mask;
+
+	private final long origin;
+
+	private long tick = 0;
+
+	private int pending = 0;
+
+	public TimerWheel() {
+		this(DEFAULT_TICK_MILLIS, DEFAULT_SLOTS);
+	}
+
+	/**
+	 * @param tickMillis
+	 *            the resolution of the wheel
+	 * @param slots
+	 *            the number of slots, rounded up to a power of two
+	 */
+	public TimerWheel(long tickMillis, int slots) {
+		int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+		this.wheel = new ArrayList<List<Timeout>>(size);
+		for (int i = 0; i < size; i++) {
+			wheel.add(new ArrayList<Timeout>());
+		}
+		this.mask = size - 1;
+		this.origin = System.nanoTime();
+	}
+
+	/**
+	 * @param delayMillis
+	 *            how long to wait, rounded up to the next tick
+	 * @param task
+	 *            run by {@link #advance(long)} once the delay has passed
+	 *
+	 * @return a handle to cancel the timeout
+	 */
+	public Timeout schedule(long delayMillis, Runnable task) {
+		long ticks = Math.max(1,
+				(TimeUnit.MILLISECONDS.toNanos(delayMillis) + tickNanos - 1)
+						/ tickNanos);
+		// ticks count from now, which may be ahead of the last advance
+		long deadline = currentTick(System.nanoTime()) + ticks;
+		Timeout timeout = new Timeout(deadline, task);
+		wheel.get((int) (deadline & mask)).add(timeout);
+		pending++;
+		return timeout;
+	}
+
+	/**
+	 * Runs the tasks of all timeouts that expired up to the given time.
+	 *
+	 * @param nowNanos
+	 *            the current {@link System#nanoTime()}
+	 *
+	 * @return the number of tasks run
+	 */
+	public int advance(long nowNanos) {
+		long target = currentTick(nowNanos);
+		int run = 0;
+		List<Timeout> expired = new ArrayList<Timeout>();
+		while (tick < target && pending > 0) {
+			tick++;
+			Iterator<Timeout> it = wheel.get((int) (tick & mask)).iterator();
+			while (it.hasNext()) {
+				Timeout timeout = it.next();
+				if (timeout.cancelled) {
+					it.remove();
+					pending--;
+				} else if (timeout.deadline <= tick) {
+					it.remove();
+					pending--;
+					expired.add(timeout);
+				}
+			}
+			// run outside the iteration, tasks may schedule new timeouts
+			for (Timeout timeout : expired) {
+				timeout.task.run();
+				run++;
+			}
+			expired.clear();
+		}
+		tick = target;
+		return run;
+	}
+
+	/**
+	 * @return how long the owner may block before it has to call
+	 *         {@link #advance(long)} again, 0 if nothing is pending
+	 */
+	public long getWaitMillis() {
+		return pending > 0 ? Math.max(1,
+				TimeUnit.NANOSECONDS.toMillis(tickNanos)) : 0;
+	}
+
+	/**
+	 * @return the number of scheduled timeouts, including cancelled ones
+	 *         that have not been swept yet
+	 */
+	public int getPending() {
+		return pending;
+	}
+
+	private long currentTick(long nowNanos) {
+		return (nowNanos - origin) / tickNanos;
+	}
+
+	/**
+	 * A scheduled task.
+	 */
+	public static final class Timeout {
+
+		private final long deadline;
+
+		private final Runnable task;
+
+		private boolean cancelled = false;
+
+		Timeout(long deadline, Runnable task) {
+			this.deadline = deadline;
+			this.task = task;
+		}
+
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+	}
+
+}
@@ -0,0 +1,321 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.internal;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.eviware.soapui.model.mock.MockService;
+
+import static org.unitils.util.ReflectionUtils.*;
+
+/**
+ * Puts a caching front on the dispatchers of mock operations that select
+ * their response with an XPath expression (<code>XPATH</code>) or a list of
+ * XPath queries (<code>QUERY_MATCH</code>). SoapUI parses every request into
+ * a DOM to evaluate those. The front remembers the response chosen for a
+ * request by the digest of the request, and evaluates simple
+ * <code>XPATH</code> expressions with a {@link StreamingXPath} instead of
+ * asking SoapUI. Dispatch expressions that refer to properties can change
+ * their result between equal requests and are left alone.
+ */
+class DispatchAccelerator {
+
+	private static final Logger LOG = Logger
+			.getLogger(DispatchAccelerator.class.getName());
+
+	private static final Set<String> CACHEABLE_STYLES = Collections
+			.unmodifiableSet(new HashSet<String>(Arrays.asList("XPATH",
+					"QUERY_MATCH")));
+
+	/**
+	 * Accelerates the dispatch of all operations of the mock service that use
+	 * a cacheable dispatch style.
+	 *
+	 * @param mockService
+	 *            the mock service, before it is started
+	 * @param cacheSize
+	 *            the number of requests remembered per operation
+	 *
+	 * @return the number of accelerated operations
+	 */
+	static int install(MockService mockService, int cacheSize) {
+		int installed = 0;
+		for (int i = 0; i < mockService.getMockOperationCount(); i++) {
+			if (accelerate(mockService.getMockOperationAt(i), cacheSize)) {
+				installed++;
+			}
+		}
+		LOG.fine("Accelerated the dispatch of " + installed + " of "
+				+ mockService.getMockOperationCount() + " operations of "
+				+ mockService.getName());
+		return installed;
+	}
+
+	/**
+	 * @param operation
+	 *            the mock operation
+	 * @param cacheSize
+	 *            the number of requests remembered
+	 *
+	 * @return true if the dispatch of the operation is accelerated
+	 */
+	static boolean accelerate(Object operation, int cacheSize) {
+
+		Method getDispatchStyle = getMethod(operation.getClass(),
+				"getDispatchStyle", false);
+		Field dispatcherField = getFieldWithName(operation.getClass(),
+				"dispatcher", false);
+		if (getDispatchStyle == null || dispatcherField == null) {
+			LOG.fine("Mock operation " + operation.getClass().getName()
+					+ " does not hold a dispatcher");
+			return false;
+		}
+
+		try {
+			// the cast keeps javac 8 from choosing valueOf(char[])
+			String style = String.valueOf((Object) invokeMethod(operation,
+					getDispatchStyle));
+			if (!CACHEABLE_STYLES.contains(style)) {
+				return false;
+			}
+
+			Object dispatcher = getFieldValue(operation, dispatcherField);
+			if (dispatcher == null || Proxy.isProxyClass(dispatcher.getClass())) {
+				return false;
+			}
+
+			if (String.valueOf(invoke(invoke(operation, "getConfig"),
+					"getDispatchConfig")).contains("${")
+					|| String.valueOf(invoke(operation, "getDispatchPath"))
+							.contains("${")) {
+				LOG.fine("Dispatch of " + name(operation)
+						+ " refers to properties, not caching it");
+				return false;
+			}
+
+			StreamingXPath xpath = null;
+			if ("XPATH".equals(style)) {
+				Object path = invoke(operation, "getDispatchPath");
+				xpath = path != null ? StreamingXPath.compile(path.toString())
+						: null;
+			}
+
+			Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+			for (Class<?> c = dispatcher.getClass(); c != null; c = c
+					.getSuperclass()) {
+				interfaces.addAll(Arrays.asList(c.getInterfaces()));
+			}
+
+			Object front = Proxy.newProxyInstance(dispatcher.getClass()
+					.getClassLoader(), interfaces.toArray(new Class<?>[interfaces
+					.size()]), new CachingDispatcher(operation, dispatcher,
+					xpath, cacheSize));
+			setFieldValue(operation, dispatcherField, front);
+
+			LOG.fine("Caching " + style + " dispatch of " + name(operation)
+					+ (xpath != null ? ", streaming " + xpath : ""));
+			return true;
+
+		} catch (Exception e) {
+			LOG.log(Level.WARNING, "Failed to accelerate the dispatch of "
+					+ operation, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Calls a getter that may not exist in every SoapUI version.
+	 */
+	private static Object invoke(Object target, String methodName)
+			throws Exception {
+		if (target == null) {
+			return null;
+		}
+		Method method = getMethod(target.getClass(), methodName, false);
+		return method != null ? invokeMethod(target, method) : null;
+	}
+
+	private static String name(Object modelItem) throws Exception {
+		return String.valueOf(invoke(modelItem, "getName"));
+	}
+
+	/**
+	 * Answers the dispatcher calls of SoapUI, selecting responses from the
+	 * cache where possible.
+	 */
+	static final class CachingDispatcher implements InvocationHandler {
+
+		// remembers requests that SoapUI answers with the default response
+		private static final Object NO_RESPONSE = new Object();
+
+		private final Object operation;
+
+		private final Object delegate;
+
+		private final StreamingXPath xpath;
+
+		private final Map<ByteBuffer, Object> cache;
+
+		private final Method getMockResponseByName;
+
+		private final AtomicLong hits = new AtomicLong();
+
+		private final AtomicLong misses = new AtomicLong();
+
+		CachingDispatcher(Object operation, Object delegate,
+				StreamingXPath xpath, final int cacheSize) {
+			this.operation = operation;
+			this.delegate = delegate;
+			this.xpath = xpath;
+			this.getMockResponseByName = getMethod(operation.getClass(),
+					"getMockResponseByName", false, String.class);
+			this.cache = new LinkedHashMap<ByteBuffer, Object>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<ByteBuffer, Object> eldest) {
+					return size() > cacheSize;
+				}
+			};
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+
+			if ("selectMockResponse".equals(method.getName()) && args != null
+					&& args.length == 2) {
+				return select(method, args);
+			} else if ("equals".equals(method.getName()) && args != null
+					&& args.length == 1) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(method.getName()) && args == null) {
+				return System.identityHashCode(proxy);
+			}
+
+			return forward(method, args);
+		}
+
+		private Object select(Method method, Object[] args) throws Throwable {
+
+			Object content = DispatchAccelerator.invoke(args[0],
+					"getRequestContent");
+			if (content == null) {
+				return forward(method, args);
+			}
+
+			ByteBuffer key = digest(content.toString());
+			Object cached;
+			synchronized (cache) {
+				cached = cache.get(key);
+			}
+			if (cached == NO_RESPONSE) {
+				hits.incrementAndGet();
+				return null;
+			} else if (cached != null) {
+				Object response = responseByName((String) cached);
+				if (response != null) {
+					hits.incrementAndGet();
+					return response;
+				}
+			}
+			misses.incrementAndGet();
+
+			Object response = null;
+			if (xpath != null) {
+				try {
+					// like SoapUI only the first value names the response
+					List<String> values = xpath.evaluate(content.toString());
+					if (!values.isEmpty()) {
+						response = responseByName(values.get(0));
+					}
+				} catch (XMLStreamException e) {
+					// let SoapUI report the broken request
+					LOG.log(Level.FINEST, "Cannot stream request", e);
+				}
+			}
+
+			if (response == null) {
+				response = forward(method, args);
+			}
+
+			synchronized (cache) {
+				cache.put(key, response != null ? name(response) : NO_RESPONSE);
+			}
+			return response;
+		}
+
+		private Object responseByName(String name) throws Exception {
+			return getMockResponseByName != null ? invokeMethod(operation,
+					getMockResponseByName, name) : null;
+		}
+
+		private Object forward(Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(delegate, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		private static ByteBuffer digest(String content) {
+			try {
+				return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256")
+						.digest(content.getBytes("UTF-8")));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		long getHits() {
+			return hits.get();
+		}
+
+		long getMisses() {
+			return misses.get();
+		}
+
+	}
+
+}
@@ -0,0 +1,484 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.internal;
+
+import io.fares.junit.soapui.MockEvent;
+import io.fares.junit.soapui.MockMetrics;
+import io.fares.junit.soapui.MockRunnerTask;
+import io.fares.junit.soapui.VirtualThreads;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.eviware.soapui.SoapUI;
+import com.eviware.soapui.model.mock.MockOperation;
+import com.eviware.soapui.model.mock.MockResult;
+import com.eviware.soapui.model.mock.MockRunner;
+import com.eviware.soapui.model.support.MockRunListenerAdapter;
+
+import static org.unitils.util.ReflectionUtils.*;
+
+/**
+ * SoapUI does not expose the Jetty server of its mock engine. This helper
+ * reaches into the engine of the jail to apply the tuning options of a
+ * {@link MockRunnerTask}. Anything that does not look as expected is logged
+ * and skipped, the mock will then simply run with the SoapUI defaults.
+ */
+class JettyMockEngineSupport {
+
+	private static final Logger LOG = Logger
+			.getLogger(JettyMockEngineSupport.class.getName());
+
+	/**
+	 * SoapUI applies all system properties with this prefix to the Jetty
+	 * connector it creates for a new mock port
+	 */
+	static final String CONNECTOR_PREFIX = "soapui.mock.connector.";
+
+	/**
+	 * Sets the connector tuning of the task as system properties so the mock
+	 * engine picks them up when it creates the connector for the mock port.
+	 * Callers must hold {@link #lock()} until the mock is started and the
+	 * returned previous values are restored.
+	 *
+	 * @param task
+	 *            the task to read the tuning options from
+	 *
+	 * @return the previous values of all system properties that were set
+	 */
+	static Map<String, String> applyConnectorProperties(MockRunnerTask task) {
+
+		Map<String, String> previous = new LinkedHashMap<String, String>();
+
+		if (task.getAcceptors() != -1) {
+			setProperty(previous, "acceptors", task.getAcceptors());
+		}
+		if (task.getAcceptQueueSize() != -1) {
+			setProperty(previous, "acceptQueueSize", task.getAcceptQueueSize());
+		}
+		if (task.getIdleTimeout() != -1) {
+			setProperty(previous, "maxIdleTime", task.getIdleTimeout());
+		}
+
+		return previous;
+	}
+
+	static void restoreProperties(Map<String, String> previous) {
+		for (Map.Entry<String, String> e : previous.entrySet()) {
+			if (e.getValue() == null) {
+				System.clearProperty(e.getKey());
+			} else {
+				System.setProperty(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * System properties are shared by all jails, the monitor is taken from a
+	 * class that is loaded above the filtering classloader.
+	 *
+	 * @return the monitor guarding the connector system properties
+	 */
+	static Object lock() {
+		return MockRunnerTask.class;
+	}
+
+	/**
+	 * Sizes the thread pool of the mock engine's Jetty server. Jetty grows and
+	 * shrinks the pool on demand, so this also works when the server has been
+	 * started already.
+	 *
+	 * @param task
+	 *            the task to read the worker thread count from
+	 *
+	 * @return true if the pool was found and configured
+	 */
+	static boolean applyThreadPool(MockRunnerTask task) {
+
+		if (task.getWorkerThreads() == -1) {
+			return true;
+		}
+
+		Object server = getServer();
+		if (server == null) {
+			return false;
+		}
+
+		sizeThreadPool(server, task.getWorkerThreads());
+		return true;
+	}
+
+	/**
+	 * Sets the maximum size of the thread pool of a Jetty server and lowers
+	 * its minimum size if that is above the new maximum.
+	 *
+	 * @param server
+	 *            the Jetty server
+	 * @param workerThreads
+	 *            the maximum number of threads
+	 */
+	static void sizeThreadPool(Object server, int workerThreads) {
+		try {
+			Object pool = invokeMethod(server,
+					getMethod(server.getClass(), "getThreadPool", false));
+			Method setMaxThreads = pool == null ? null : getMethod(
+					pool.getClass(), "setMaxThreads", false, int.class);
+			if (setMaxThreads == null) {
+				LOG.warning("Jetty thread pool " + pool
+						+ " cannot be sized, using SoapUI defaults");
+				return;
+			}
+			invokeMethod(pool, setMaxThreads, workerThreads);
+			Method setMinThreads = getMethod(pool.getClass(), "setMinThreads",
+					false, int.class);
+			Method getMinThreads = getMethod(pool.getClass(), "getMinThreads",
+					false);
+			if (setMinThreads != null && getMinThreads != null) {
+				int min = (Integer) invokeMethod(pool, getMinThreads);
+				if (min > workerThreads) {
+					invokeMethod(pool, setMinThreads, workerThreads);
+				}
+			}
+		} catch (Exception e) {
+			LOG.log(Level.WARNING, "Failed to size the Jetty thread pool", e);
+		}
+	}
+
+	/**
+	 * Replaces the thread pool of the mock engine's Jetty server with one that
+	 * runs every job on a new virtual thread. This has to happen before the
+	 * server is started for the first time, so the engine is asked to create
+	 * its server early. Relies on the private <code>server</code> field and
+	 * <code>initServer()</code> method of the <code>JettyMockEngine</code> of
+	 * SoapUI 5, checked against 5.2.1 by <code>SimpleJUnitSoapUIRunnerTest</code>.
+	 *
+	 * @param contextClassLoader
+	 *            the classloader of the jail, set as context classloader of
+	 *            all request threads
+	 *
+	 * @return true if the virtual thread pool is in place
+	 */
+	static boolean useVirtualThreads(ClassLoader contextClassLoader) {
+
+		if (!VirtualThreads.isSupported()) {
+			LOG.warning("virtual threads require JDK 21 or newer, "
+					+ "the mock will use platform threads");
+			return false;
+		}
+
+		Object server = getServer(true);
+		if (server == null) {
+			return false;
+		}
+
+		try {
+			Method isStarted = getMethod(server.getClass(), "isStarted", false);
+			if (Boolean.TRUE.equals(invokeMethod(server, isStarted))) {
+				LOG.warning("Jetty server of the jail is already running, "
+						+ "the mock will use its thread pool");
+				return false;
+			}
+
+			Class<?> poolInterface = server.getClass().getClassLoader()
+					.loadClass("org.mortbay.thread.ThreadPool");
+			Object pool = Proxy.newProxyInstance(
+					poolInterface.getClassLoader(),
+					new Class<?>[] { poolInterface },
+					new VirtualThreadPool(VirtualThreads.newThreadFactory(
+							"soapui-mock-request", contextClassLoader)));
+			invokeMethod(server, getMethod(server.getClass(), "setThreadPool",
+					false, poolInterface), pool);
+			return true;
+		} catch (Exception e) {
+			LOG.log(Level.WARNING,
+					"Failed to install the virtual thread pool", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Makes the Jetty server give in-flight requests the stop timeout of the
+	 * task to complete when it is stopped.
+	 *
+	 * @param task
+	 *            the task to read the stop timeout from
+	 */
+	static void applyGracefulShutdown(MockRunnerTask task) {
+		if (task.getStopTimeout() == -1) {
+			return;
+		}
+		Object server = getServer();
+		if (server != null) {
+			setGracefulShutdown(server, task.getStopTimeout());
+		}
+	}
+
+	/**
+	 * @param server
+	 *            the Jetty server
+	 * @param stopTimeout
+	 *            how long in-flight requests may take to complete when the
+	 *            server is stopped, in milliseconds
+	 */
+	static void setGracefulShutdown(Object server, int stopTimeout) {
+		Method setGracefulShutdown = getMethod(server.getClass(),
+				"setGracefulShutdown", false, int.class);
+		if (setGracefulShutdown == null) {
+			LOG.fine("Jetty server does not support graceful shutdown");
+			return;
+		}
+		try {
+			invokeMethod(server, setGracefulShutdown, stopTimeout);
+		} catch (Exception e) {
+			LOG.log(Level.FINE, "Failed to set the graceful shutdown", e);
+		}
+	}
+
+	/**
+	 * Closes the server sockets of the mock engine, so the ports are free
+	 * again while open connections are still served.
+	 */
+	static void closeConnectors() {
+		Object server = getServer();
+		if (server != null) {
+			closeConnectors(server);
+		}
+	}
+
+	/**
+	 * @param server
+	 *            the Jetty server whose server sockets are closed
+	 */
+	static void closeConnectors(Object server) {
+		Method getConnectors = getMethod(server.getClass(), "getConnectors",
+				false);
+		if (getConnectors == null) {
+			LOG.fine("Jetty server does not expose its connectors");
+			return;
+		}
+		try {
+			Object connectors = invokeMethod(server, getConnectors);
+			if (!(connectors instanceof Object[])) {
+				return;
+			}
+			for (Object connector : (Object[]) connectors) {
+				Method close = getMethod(connector.getClass(), "close", false);
+				if (close != null) {
+					invokeMethod(connector, close);
+				}
+			}
+		} catch (Exception e) {
+			LOG.log(Level.WARNING, "Failed to close the mock connectors", e);
+		}
+	}
+
+	/**
+	 * @return the Jetty server of the mock engine in this jail or null if it
+	 *         has not been created yet
+	 */
+	static Object getServer() {
+		return getServer(false);
+	}
+
+	/**
+	 * @param init
+	 *            true to have the mock engine create its server if it did not
+	 *            do so yet
+	 *
+	 * @return the Jetty server of the mock engine in this jail or null if it
+	 *         is not available
+	 */
+	static Object getServer(boolean init) {
+		Object engine = SoapUI.getMockEngine();
+		if (engine == null) {
+			return null;
+		}
+		Field serverField = getFieldWithName(engine.getClass(), "server", false);
+		if (serverField == null) {
+			LOG.warning("Mock engine " + engine.getClass().getName()
+					+ " does not hold a Jetty server");
+			return null;
+		}
+		Object server = getFieldValue(engine, serverField);
+		if (server == null && init) {
+			Method initServer = getMethod(engine.getClass(), "initServer",
+					false);
+			if (initServer == null) {
+				LOG.warning("Mock engine " + engine.getClass().getName()
+						+ " cannot be asked to create its Jetty server");
+				return null;
+			}
+			try {
+				invokeMethod(engine, initServer);
+			} catch (Exception e) {
+				LOG.log(Level.WARNING,
+						"Failed to create the Jetty server of the mock engine",
+						e);
+				return null;
+			}
+			server = getFieldValue(engine, serverField);
+		}
+		return server;
+	}
+
+	private static void setProperty(Map<String, String> previous, String name,
+			int value) {
+		String key = CONNECTOR_PREFIX + name;
+		previous.put(key, System.getProperty(key));
+		System.setProperty(key, Integer.toString(value));
+	}
+
+	/**
+	 * Implements the Jetty <code>ThreadPool</code> interface by starting a new
+	 * virtual thread for every dispatched job.
+	 */
+	static class VirtualThreadPool implements InvocationHandler {
+
+		private final ThreadFactory factory;
+
+		private final AtomicInteger active = new AtomicInteger();
+
+		VirtualThreadPool(ThreadFactory factory) {
+			this.factory = factory;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+
+			String name = method.getName();
+
+			if ("dispatch".equals(name)) {
+				final Runnable job = (Runnable) args[0];
+				factory.newThread(new Runnable() {
+					@Override
+					public void run() {
+						active.incrementAndGet();
+						try {
+							job.run();
+						} finally {
+							active.decrementAndGet();
+						}
+					}
+				}).start();
+				return Boolean.TRUE;
+			} else if ("getThreads".equals(name)) {
+				return active.get();
+			} else if ("getIdleThreads".equals(name)) {
+				return 0;
+			} else if ("isLowOnThreads".equals(name)) {
+				return Boolean.FALSE;
+			} else if ("join".equals(name)) {
+				return null;
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("toString".equals(name)) {
+				return "VirtualThreadPool[active=" + active.get() + "]";
+			}
+
+			throw new UnsupportedOperationException(method.toString());
+		}
+
+	}
+
+	/**
+	 * Asks Jetty to close the connection once the response is written by
+	 * setting the <code>Connection: close</code> header before SoapUI
+	 * dispatches the request.
+	 */
+	static class CloseConnectionListener extends MockRunListenerAdapter {
+
+		@Override
+		public MockResult onMockRequest(MockRunner runner,
+				HttpServletRequest request, HttpServletResponse response) {
+			response.setHeader("Connection", "close");
+			return null;
+		}
+
+	}
+
+	/**
+	 * Records the time the mock took to answer each request.
+	 */
+	static class RequestMetricsListener extends MockRunListenerAdapter {
+
+		@Override
+		public void onMockResult(MockResult result) {
+			if (result != null) {
+				MockMetrics.getDefault().recordRequest(result.getTimeTaken());
+			}
+		}
+
+	}
+
+	/**
+	 * Times each request from its arrival at the mock until the mock has
+	 * answered it as a flight recorder event.
+	 */
+	static class DispatchEventListener extends MockRunListenerAdapter {
+
+		private final ThreadLocal<MockEvent.Timing> current = new ThreadLocal<MockEvent.Timing>();
+
+		@Override
+		public MockResult onMockRequest(MockRunner runner,
+				HttpServletRequest request, HttpServletResponse response) {
+			MockEvent.Timing event = MockEvent.DISPATCH.begin();
+			if (event.isRecorded()) {
+				current.set(event.set(0, request.getRequestURI()));
+			} else {
+				// a request that failed before its result left its event
+				// behind on this pooled thread
+				current.remove();
+			}
+			return null;
+		}
+
+		@Override
+		public void onMockResult(MockResult result) {
+			MockEvent.Timing event = current.get();
+			if (event == null) {
+				return;
+			}
+			try {
+				MockOperation operation = result != null ? result
+						.getMockOperation() : null;
+				event.set(1, operation != null ? operation.getName() : null)
+						.commit();
+			} finally {
+				current.remove();
+			}
+		}
+
+	}
+
+}
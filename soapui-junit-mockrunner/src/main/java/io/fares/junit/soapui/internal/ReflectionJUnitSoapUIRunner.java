@@ -56,7 +56,12 @@ public class ReflectionJUnitSoapUIRunner implements SoapUIMock {
 			Object project = wsdlProjectClass.newInstance();
 
 			// set project file
-			invokeMethod(project, getLoadProjectMethod(), task.getProjectFile());
+			URL projectFile = task.createLoadableProject();
+			try {
+				invokeMethod(project, getLoadProjectMethod(), projectFile);
+			} finally {
+				task.releaseLoadableProject(projectFile);
+			}
 
 			// get mock service from WSDL project
 			// create the mock service
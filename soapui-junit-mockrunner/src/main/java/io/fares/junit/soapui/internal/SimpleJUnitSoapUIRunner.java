@@ -19,62 +19,198 @@
  */
 package io.fares.junit.soapui.internal;
 
-import io.fares.junit.soapui.SoapUIMock;
+import io.fares.junit.soapui.MockEvent;
+import io.fares.junit.soapui.MockMetrics;
 import io.fares.junit.soapui.MockRunnerTask;
+import io.fares.junit.soapui.ReloadableSoapUIMock;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
 
 import com.eviware.soapui.impl.wsdl.WsdlProject;
 import com.eviware.soapui.impl.wsdl.mock.WsdlMockService;
 import com.eviware.soapui.model.mock.MockRunner;
 import com.eviware.soapui.model.mock.MockService;
 
-public class SimpleJUnitSoapUIRunner implements SoapUIMock {
+public class SimpleJUnitSoapUIRunner implements ReloadableSoapUIMock {
 
 	/**
 	 * Need to keep track of the executing runner
 	 */
 	private MockRunner runner;
 
+	/**
+	 * The task the mock was started with, used to reload it
+	 */
+	private MockRunnerTask task;
+
 	@Override
 	public void start(MockRunnerTask task) {
 
+		this.task = task;
+
 		try {
+			startService(prepare(task, false), task);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
 
-			ClassLoader ccl = getClass().getClassLoader();
+	}
 
-			@SuppressWarnings("unchecked")
-			Class<WsdlProject> wpc = (Class<WsdlProject>) ccl
-					.loadClass("com.eviware.soapui.impl.wsdl.WsdlProject");
+	/**
+	 * Reloads the mock service from its project, loaded the same way as when
+	 * the mock started, while the old service keeps serving.
+	 * The new service joins the connector of the old one before the old one
+	 * is stopped, so the port stays bound and requests are served throughout.
+	 */
+	@Override
+	public void reload() {
+
+		if (task == null) {
+			throw new RuntimeException("the mock has not been started");
+		}
 
-			WsdlProject project = wpc.newInstance();
-			project.loadProject(task.getProjectFile());
-			MockService mockService = project.getMockServiceByName(task
-					.getMockServiceName());
+		try {
+			MockService mockService = prepare(task, true);
 
-			if (mockService instanceof WsdlMockService) {
-				WsdlMockService wms = (WsdlMockService) mockService;
-				wms.setHost(task.getMockHost());
-				if (task.isMockPortSet()) {
-					wms.setPort(task.getMockPort());
+			synchronized (this) {
+				MockRunner previous = runner;
+				if (previous == null || !previous.isRunning()) {
+					startService(mockService, task);
+					return;
 				}
+				// the engine dispatches to the runner that joined the port
+				// first, so the old one serves until it is stopped
+				runner = mockService.start();
+				previous.stop();
 			}
-			mockService.setPath(task.getMockPath());
-			runner = mockService.start();
-
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 
 	}
 
+	/**
+	 * @param reload
+	 *            true if the jail already runs the mock, the Jetty server is
+	 *            not set up again
+	 */
+	private MockService prepare(MockRunnerTask task, boolean reload)
+			throws Exception {
+
+		ClassLoader ccl = getClass().getClassLoader();
+
+		@SuppressWarnings("unchecked")
+		Class<WsdlProject> wpc = (Class<WsdlProject>) ccl
+				.loadClass("com.eviware.soapui.impl.wsdl.WsdlProject");
+
+		WsdlProject project = wpc.newInstance();
+		// a reload loads the project the same way as the start did
+		URL projectFile = task.createLoadableProject();
+		MockEvent.Timing event = MockEvent.PROJECT_LOAD.begin();
+		long start = System.nanoTime();
+		try {
+			project.loadProject(projectFile);
+		} finally {
+			task.releaseLoadableProject(projectFile);
+		}
+		MockMetrics.getDefault().record(MockMetrics.PROJECT_LOAD,
+				System.nanoTime() - start);
+		event.set(0, String.valueOf(task.getProjectFile()))
+				.set(1, task.getMockServiceName()).commit();
+		MockService mockService = project.getMockServiceByName(task
+				.getMockServiceName());
+
+		if (mockService == null) {
+			throw new IllegalArgumentException("MockService "
+					+ task.getMockServiceName() + " does not exist in project.");
+		}
+
+		if (mockService instanceof WsdlMockService) {
+			WsdlMockService wms = (WsdlMockService) mockService;
+			wms.setHost(task.getMockHost());
+			if (task.isMockPortSet()) {
+				wms.setPort(task.getMockPort());
+			}
+		}
+		mockService.setPath(task.getMockPath());
+
+		if (task.isVirtualThreads() && !reload) {
+			JettyMockEngineSupport.useVirtualThreads(ccl);
+		}
+
+		if (task.isDispatchCached()) {
+			DispatchAccelerator.install(mockService,
+					task.getDispatchCacheSize());
+		}
+
+		if (!task.isKeepAlive()) {
+			mockService
+					.addMockRunListener(new JettyMockEngineSupport.CloseConnectionListener());
+		}
+
+		if (MockMetrics.getDefault().isEnabled()) {
+			mockService
+					.addMockRunListener(new JettyMockEngineSupport.RequestMetricsListener());
+		}
+
+		if (MockEvent.isAvailable()) {
+			mockService
+					.addMockRunListener(new JettyMockEngineSupport.DispatchEventListener());
+		}
+
+		return mockService;
+	}
+
+	private synchronized void startService(MockService mockService,
+			MockRunnerTask task) throws Exception {
+		MockEvent.Timing event = MockEvent.PORT_BIND.begin();
+		long start = System.nanoTime();
+		if (task.isJettyTuned()) {
+			startTuned(mockService, task);
+		} else {
+			runner = mockService.start();
+		}
+		MockMetrics.getDefault().record(MockMetrics.PORT_BIND,
+				System.nanoTime() - start);
+		event.set(0, task.getMockServiceName()).set(1, task.getMockPort())
+				.commit();
+		JettyMockEngineSupport.applyGracefulShutdown(task);
+	}
+
+	private void startTuned(MockService mockService, MockRunnerTask task)
+			throws Exception {
+
+		// the pool can only be sized upfront if another mock in this jail
+		// already created the server
+		boolean poolSized = JettyMockEngineSupport.applyThreadPool(task);
+
+		synchronized (JettyMockEngineSupport.lock()) {
+			Map<String, String> previous = Collections.emptyMap();
+			try {
+				previous = JettyMockEngineSupport.applyConnectorProperties(task);
+				runner = mockService.start();
+			} finally {
+				JettyMockEngineSupport.restoreProperties(previous);
+			}
+		}
+
+		if (!poolSized) {
+			JettyMockEngineSupport.applyThreadPool(task);
+		}
+
+	}
+
 	@Override
-	public void stop() {
+	public synchronized void stop() {
 		if (runner != null && runner.isRunning()) {
 			runner.stop();
 		}
 	}
 
 	@Override
-	public boolean isRunning() {
+	public synchronized boolean isRunning() {
 		return runner != null && runner.isRunning();
 	}
 
@@ -0,0 +1,113 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.unitils.util.ReflectionUtils.*;
+
+/**
+ * Runs inside the jail when it is unloaded and releases the static state
+ * SoapUI, its Jetty server and log4j keep: the running server and its
+ * threads, the SoapUI timer and thread pool and the log4j appenders.
+ * Everything is looked up by name as it differs between SoapUI versions.
+ */
+public class SoapUIJailShutdown {
+
+	private static final Logger LOG = Logger.getLogger(SoapUIJailShutdown.class
+			.getName());
+
+	public static void shutdown() {
+
+		Class<?> soapui = load("com.eviware.soapui.SoapUI");
+
+		// a jail that failed to start may not have SoapUI at all
+		Object server = soapui != null ? JettyMockEngineSupport.getServer()
+				: null;
+		if (server != null) {
+			invoke(server, "stop");
+		}
+
+		if (soapui != null) {
+			invokeStatic(soapui, "shutdown");
+			Object pool = invokeStatic(soapui, "getThreadPool");
+			if (pool instanceof ExecutorService) {
+				((ExecutorService) pool).shutdownNow();
+			}
+		}
+
+		// a log4j shared with other jails keeps its appenders
+		Class<?> logManager = load("org.apache.log4j.LogManager");
+		if (logManager != null
+				&& logManager.getClassLoader() == SoapUIJailShutdown.class
+						.getClassLoader()) {
+			invokeStatic(logManager, "shutdown");
+		}
+
+	}
+
+	/**
+	 * Frees the ports of the mocks in the jail without waiting for open
+	 * connections.
+	 */
+	public static void closeConnectors() {
+		JettyMockEngineSupport.closeConnectors();
+	}
+
+	private static Class<?> load(String className) {
+		try {
+			return Class.forName(className, false,
+					SoapUIJailShutdown.class.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
+	private static Object invokeStatic(Class<?> clazz, String methodName) {
+		Method method = getMethod(clazz, methodName, true);
+		if (method == null) {
+			return null;
+		}
+		try {
+			return invokeMethod(null, method);
+		} catch (Exception e) {
+			LOG.log(Level.FINE, "Failed to invoke " + clazz.getName() + '.'
+					+ methodName, e);
+			return null;
+		}
+	}
+
+	private static void invoke(Object target, String methodName) {
+		Method method = getMethod(target.getClass(), methodName, false);
+		if (method == null) {
+			return;
+		}
+		try {
+			invokeMethod(target, method);
+		} catch (Exception e) {
+			LOG.log(Level.FINE, "Failed to invoke " + methodName + " on "
+					+ target, e);
+		}
+	}
+
+}
@@ -0,0 +1,326 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.internal;
+
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Evaluates the plain location paths SoapUI dispatch expressions are usually
+ * made of in a single pass over the request, without building a DOM. Only
+ * child and descendant steps with names or wildcards are understood,
+ * optionally ending in an attribute or <code>text()</code>, preceded by
+ * <code>declare namespace</code> prologues. {@link #compile(String)} returns
+ * null for anything else so the caller can fall back to SoapUI.
+ */
+final class StreamingXPath {
+
+	private static final Pattern DECLARE_NAMESPACE = Pattern.compile(
+			"^declare\\s+namespace\\s+([\\w.-]+)\\s*=\\s*(['\"])(.*?)\\2\\s*;\\s*",
+			Pattern.DOTALL);
+
+	private static final Pattern DECLARE_DEFAULT = Pattern.compile(
+			"^declare\\s+default\\s+element\\s+namespace\\s+(['\"])(.*?)\\1\\s*;\\s*",
+			Pattern.DOTALL);
+
+	private static final Pattern NAME = Pattern
+			.compile("(?:([\\w.-]+):)?([\\w.-]+|\\*)");
+
+	private static final XMLInputFactory FACTORY = XMLInputFactory
+			.newInstance();
+
+	static {
+		FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				Boolean.FALSE);
+	}
+
+	private final String expression;
+
+	private final Step[] steps;
+
+	// the attribute selected from the last element, if any
+	private final Step attribute;
+
+	private StreamingXPath(String expression, Step[] steps, Step attribute) {
+		this.expression = expression;
+		this.steps = steps;
+		this.attribute = attribute;
+	}
+
+	/**
+	 * @param expression
+	 *            a SoapUI dispatch expression
+	 *
+	 * @return the compiled expression or null if it is not supported
+	 */
+	static StreamingXPath compile(String expression) {
+
+		String rest = expression.trim();
+		Map<String, String> namespaces = new HashMap<String, String>();
+		String defaultNamespace = "";
+
+		while (true) {
+			Matcher m = DECLARE_NAMESPACE.matcher(rest);
+			if (m.find()) {
+				namespaces.put(m.group(1), m.group(3));
+				rest = rest.substring(m.end());
+				continue;
+			}
+			m = DECLARE_DEFAULT.matcher(rest);
+			if (m.find()) {
+				defaultNamespace = m.group(2);
+				rest = rest.substring(m.end());
+				continue;
+			}
+			break;
+		}
+
+		List<Step> steps = new ArrayList<Step>();
+		Step attribute = null;
+		boolean text = false;
+		int pos = 0;
+
+		while (pos < rest.length()) {
+
+			if (attribute != null || text) {
+				// nothing may follow an attribute or text() step
+				return null;
+			}
+
+			boolean descendant;
+			if (rest.startsWith("//", pos)) {
+				descendant = true;
+				pos += 2;
+			} else if (rest.startsWith("/", pos)) {
+				descendant = false;
+				pos += 1;
+			} else {
+				return null;
+			}
+
+			if (rest.startsWith("text()", pos) && !descendant) {
+				text = true;
+				pos += "text()".length();
+				continue;
+			}
+
+			boolean isAttribute = rest.startsWith("@", pos);
+			if (isAttribute) {
+				if (descendant) {
+					return null;
+				}
+				pos++;
+			}
+
+			Matcher m = NAME.matcher(rest);
+			m.region(pos, rest.length());
+			if (!m.lookingAt()) {
+				return null;
+			}
+			pos = m.end();
+
+			String prefix = m.group(1);
+			String namespace;
+			if (prefix != null) {
+				namespace = namespaces.get(prefix);
+				if (namespace == null) {
+					return null;
+				}
+			} else if ("*".equals(m.group(2))) {
+				namespace = null;
+			} else {
+				// attributes are not in the default element namespace
+				namespace = isAttribute ? "" : defaultNamespace;
+			}
+			String local = "*".equals(m.group(2)) ? null : m.group(2);
+
+			Step step = new Step(descendant, namespace, local);
+			if (isAttribute) {
+				if (local == null) {
+					return null;
+				}
+				attribute = step;
+			} else {
+				steps.add(step);
+			}
+		}
+
+		if (steps.isEmpty()) {
+			return null;
+		}
+
+		return new StreamingXPath(expression, steps.toArray(new Step[steps
+				.size()]), attribute);
+	}
+
+	/**
+	 * @param xml
+	 *            the document to evaluate the expression against
+	 *
+	 * @return the values of all selected nodes in document order, the value
+	 *         of an element being its text
+	 *
+	 * @throws XMLStreamException
+	 *             if the document cannot be parsed
+	 */
+	List<String> evaluate(String xml) throws XMLStreamException {
+
+		List<String> values = new ArrayList<String>();
+		Deque<Capture> captures = new ArrayDeque<Capture>();
+		Deque<BitSet> states = new ArrayDeque<BitSet>();
+		BitSet initial = new BitSet();
+		initial.set(0);
+		states.push(initial);
+		int depth = 0;
+
+		XMLStreamReader reader = FACTORY.createXMLStreamReader(new StringReader(
+				xml));
+		try {
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					depth++;
+					BitSet parent = states.peek();
+					BitSet state = new BitSet();
+					String namespace = reader.getNamespaceURI();
+					String local = reader.getLocalName();
+					for (int i = parent.nextSetBit(0); i >= 0
+							&& i < steps.length; i = parent.nextSetBit(i + 1)) {
+						if (steps[i].descendant) {
+							state.set(i);
+						}
+						if (steps[i].matches(namespace, local)) {
+							state.set(i + 1);
+						}
+					}
+					if (state.get(steps.length)) {
+						if (attribute != null) {
+							String value = attributeValue(reader);
+							if (value != null) {
+								values.add(value);
+							}
+						} else {
+							captures.push(new Capture(depth, values.size()));
+							values.add(null);
+						}
+					}
+					states.push(state);
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					// the value of an element is the text of its own children
+					for (Capture capture : captures) {
+						if (capture.depth == depth) {
+							capture.text.append(reader.getText());
+						}
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					Capture capture = captures.peek();
+					if (capture != null && capture.depth == depth) {
+						values.set(capture.slot, capture.text.toString());
+						captures.pop();
+					}
+					states.pop();
+					depth--;
+					break;
+				default:
+					break;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		return values;
+	}
+
+	private String attributeValue(XMLStreamReader reader) {
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			String namespace = reader.getAttributeNamespace(i);
+			if (attribute.matches(namespace != null ? namespace : "",
+					reader.getAttributeLocalName(i))) {
+				return reader.getAttributeValue(i);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+	private static final class Step {
+
+		private final boolean descendant;
+
+		// null matches any namespace or name
+		private final String namespace;
+
+		private final String local;
+
+		Step(boolean descendant, String namespace, String local) {
+			this.descendant = descendant;
+			this.namespace = namespace;
+			this.local = local;
+		}
+
+		boolean matches(String namespace, String local) {
+			return (this.local == null || this.local.equals(local))
+					&& (this.namespace == null || this.namespace
+							.equals(namespace != null ? namespace : ""));
+		}
+
+	}
+
+	private static final class Capture {
+
+		private final int depth;
+
+		private final int slot;
+
+		private final StringBuilder text = new StringBuilder();
+
+		Capture(int depth, int slot) {
+			this.depth = depth;
+			this.slot = slot;
+		}
+
+	}
+
+}
@@ -0,0 +1,190 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.aether;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoggerStreamTest {
+
+	private static final String TEXT = "gr\u00fc\u00dfe \u20ac";
+
+	private final List<String> lines = new ArrayList<String>();
+
+	private Logger logger;
+
+	private Logger other;
+
+	@Before
+	public void createLoggers() {
+		logger = newLogger("logger-stream-test");
+		other = newLogger("logger-stream-test-other");
+	}
+
+	@After
+	public void removeHandlers() {
+		for (Logger l : Arrays.asList(logger, other)) {
+			for (Handler h : l.getHandlers()) {
+				l.removeHandler(h);
+			}
+		}
+	}
+
+	private Logger newLogger(final String name) {
+		Logger l = Logger.getLogger(name);
+		l.setUseParentHandlers(false);
+		l.setLevel(Level.ALL);
+		l.addHandler(new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				synchronized (lines) {
+					lines.add(name.endsWith("other") ? "other: "
+							+ record.getMessage() : record.getMessage());
+					lines.notifyAll();
+				}
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		return l;
+	}
+
+	private List<String> awaitLines(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		synchronized (lines) {
+			while (lines.size() < count) {
+				long left = TimeUnit.NANOSECONDS.toMillis(deadline
+						- System.nanoTime());
+				if (left <= 0) {
+					break;
+				}
+				lines.wait(left);
+			}
+			return new ArrayList<String>(lines);
+		}
+	}
+
+	@Test
+	public void testPrintedLinesAreLogged() throws Exception {
+
+		LoggerStream out = new LoggerStream(logger, Level.INFO);
+		out.print("Downloading ");
+		out.print('a');
+		out.print(1);
+		out.println();
+		out.print("first\r\nsecond\rthird\n");
+		out.printf("%s-%d%n", "fmt", 2);
+		out.append("appended", 0, 3).append('\n');
+
+		assertEquals(Arrays.asList("Downloading a1", "first", "second",
+				"third", "fmt-2", "app"), awaitLines(6));
+	}
+
+	@Test
+	public void testBlankProgressLinesAreSkipped() throws Exception {
+
+		LoggerStream out = new LoggerStream(logger, Level.INFO);
+		out.print("   \r");
+		out.print("done  \n");
+
+		assertEquals(Arrays.asList("done"), awaitLines(1));
+	}
+
+	@Test
+	public void testBytesAreDecodedAsUtf8AcrossWrites() throws Exception {
+
+		byte[] text = (TEXT + "\n").getBytes(StandardCharsets.UTF_8);
+		LoggerStream out = new LoggerStream(logger, Level.INFO);
+		// split inside the multi byte characters
+		for (byte b : text) {
+			out.write(new byte[] { b }, 0, 1);
+		}
+		out.write(text, 0, 3);
+		out.write(text[3]);
+		out.write(text, 4, text.length - 4);
+
+		assertEquals(Arrays.asList(TEXT, TEXT), awaitLines(2));
+	}
+
+	@Test
+	public void testAnotherStreamEndsThePartialLine() throws Exception {
+
+		LoggerStream out = new LoggerStream(logger, Level.INFO);
+		LoggerStream err = new LoggerStream(other, Level.INFO);
+		out.print("partial");
+		err.println("error");
+		out.println("next");
+
+		assertEquals(Arrays.asList("partial", "other: error", "next"),
+				awaitLines(3));
+	}
+
+	@Test
+	public void testFlushLogsThePartialLine() throws Exception {
+
+		LoggerStream out = new LoggerStream(logger, Level.INFO);
+		out.print("no newline");
+		out.flush();
+
+		assertEquals(Arrays.asList("no newline"), awaitLines(1));
+	}
+
+	@Test
+	public void testDrainerIsRestartedAfterItDied() throws Exception {
+
+		LoggerStream out = new LoggerStream(logger, Level.INFO);
+		out.println("before");
+		assertEquals(1, awaitLines(1).size());
+
+		Thread drainer = null;
+		for (Thread t : Thread.getAllStackTraces().keySet()) {
+			if ("logger-stream-drainer".equals(t.getName())) {
+				drainer = t;
+			}
+		}
+		assertNotNull(drainer);
+		drainer.interrupt();
+		drainer.join(5000);
+		assertFalse(drainer.isAlive());
+
+		out.println("after");
+		assertEquals(Arrays.asList("before", "after"), awaitLines(2));
+	}
+
+}
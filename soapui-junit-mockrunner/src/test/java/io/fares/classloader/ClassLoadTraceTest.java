@@ -0,0 +1,106 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URL;
+
+import org.junit.Test;
+
+public class ClassLoadTraceTest {
+
+	@Test
+	public void testDecisionsAreRecorded() throws Exception {
+
+		FilteringClassLoader fcl = new FilteringClassLoader(getClass()
+				.getClassLoader(), new String[] { "java.", "io.fares." },
+				new String[] { "io.fares.junit." });
+		ClassLoadTrace trace = new ClassLoadTrace(4);
+		fcl.setTrace(trace);
+
+		fcl.loadClass("java.lang.String");
+		try {
+			fcl.loadClass("io.fares.junit.soapui.SoapUI");
+			fail("blocked class loaded");
+		} catch (ClassNotFoundException e) {
+			// blocked
+		}
+		try {
+			fcl.loadClass("io.fares.DoesNotExist");
+			fail("missing class loaded");
+		} catch (ClassNotFoundException e) {
+			// not found
+		}
+		assertNull(fcl.getResource("org/junit/Test.class"));
+
+		File dump = File.createTempFile("trace", ".txt");
+		File list = File.createTempFile("trace", ".preload");
+		try {
+			trace.dump(dump);
+			trace.writePreloadList(list);
+
+			String text = read(dump);
+			assertTrue(text, text.contains("java.lang.String\tCLASS\tPASS"));
+			assertTrue(text, text.contains("io.fares.junit.soapui.SoapUI\tCLASS\tBLOCK"));
+			assertTrue(text, text.contains("io.fares.DoesNotExist\tCLASS\tNOT_FOUND"));
+			assertTrue(text, text.contains("org/junit/Test.class\tRESOURCE\tBLOCK"));
+
+			assertEquals(
+					java.util.Arrays.asList("io.fares.junit.soapui.SoapUI",
+							"io.fares.DoesNotExist"),
+					ClassPreloader.fromList(list.toURI().toURL())
+							.getClassNames());
+		} finally {
+			dump.delete();
+			list.delete();
+		}
+
+	}
+
+	@Test
+	public void testOldestEntriesAreOverwritten() throws Exception {
+
+		ClassLoadTrace trace = new ClassLoadTrace(2);
+		for (int i = 0; i < 5; i++) {
+			trace.record(ClassLoadTrace.Kind.CLASS, "c" + i,
+					ClassLoadTrace.Decision.BLOCK, 0);
+		}
+		assertEquals(5, trace.getRecorded());
+
+		File list = File.createTempFile("trace", ".preload");
+		try {
+			trace.writePreloadList(list);
+			URL url = list.toURI().toURL();
+			assertEquals(java.util.Arrays.asList("c3", "c4"), ClassPreloader
+					.fromList(url).getClassNames());
+		} finally {
+			list.delete();
+		}
+
+	}
+
+	private static String read(File file) throws Exception {
+		return new String(java.nio.file.Files.readAllBytes(file.toPath()),
+				"UTF-8");
+	}
+
+}
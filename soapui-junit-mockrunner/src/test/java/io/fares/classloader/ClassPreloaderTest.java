@@ -0,0 +1,115 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ClassPreloaderTest {
+
+	@Test
+	public void testListIgnoresCommentsAndTrailingColumns() throws Exception {
+
+		File list = File.createTempFile("preload", ".list");
+		list.deleteOnExit();
+		Files.write(list.toPath(), ("# classes loaded by the jail\n" + "\n"
+				+ "java.lang.String\tCLASS\tBLOCK\t12\n"
+				+ "  java.util.ArrayList  \n" + "#java.util.Map\n")
+				.getBytes(StandardCharsets.UTF_8));
+
+		ClassPreloader preloader = ClassPreloader.fromList(list.toURI()
+				.toURL());
+		assertEquals(Arrays.asList("java.lang.String", "java.util.ArrayList"),
+				preloader.getClassNames());
+	}
+
+	@Test
+	public void testPreloadCountsLoadedAndMissingClasses() throws Exception {
+
+		ClassPreloader preloader = new ClassPreloader(Arrays.asList(
+				"java.lang.String", "java.util.ArrayList",
+				"io.fares.classloader.DoesNotExist"));
+		preloader.setParallelism(2);
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			ClassPreloader.Preload preload = preloader.preload(getClass()
+					.getClassLoader(), executor);
+			assertTrue(preload.await(5000));
+			assertTrue(preload.isDone());
+			assertEquals(2, preload.getLoaded());
+			assertEquals(1, preload.getFailed());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testCancelWaitsForTheClassBeingLoaded() throws Exception {
+
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ClassLoader jail = new ClassLoader(getClass().getClassLoader()) {
+			@Override
+			protected Class<?> loadClass(String name, boolean resolve)
+					throws ClassNotFoundException {
+				loading.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.loadClass(name, resolve);
+			}
+		};
+
+		ClassPreloader preloader = new ClassPreloader(Arrays.asList(
+				"java.lang.String", "java.util.ArrayList", "java.util.HashMap"));
+		preloader.setParallelism(1);
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			ClassPreloader.Preload preload = preloader.preload(jail, executor);
+			assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+			// still stuck in the first class
+			assertFalse(preload.cancel(100));
+			assertTrue(preload.isCancelled());
+
+			release.countDown();
+			assertTrue(preload.cancel(5000));
+			assertEquals(1, preload.getLoaded() + preload.getFailed());
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+}
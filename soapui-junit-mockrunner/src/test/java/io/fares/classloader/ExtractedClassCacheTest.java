@@ -0,0 +1,128 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExtractedClassCacheTest {
+
+	private File dir;
+
+	private ExtractedClassCache cache;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = Files.createTempDirectory("extracted").toFile();
+		cache = new ExtractedClassCache(new File(dir, "cache"));
+		cache.setBackground(false);
+	}
+
+	@After
+	public void cleanUp() {
+		delete(dir);
+	}
+
+	@Test
+	public void testPutsExtractedClassesInFrontOfTheirJars() throws Exception {
+
+		URL jar = jar("lib.jar", "a/A.class", "a/res.txt");
+		URL classes = new File(dir, "classes").toURI().toURL();
+		List<URL> classpath = Arrays.asList(classes, jar);
+
+		List<URL> applied = cache.apply(classpath);
+		assertEquals(3, applied.size());
+		assertEquals(classes, applied.get(0));
+		assertEquals(jar, applied.get(2));
+
+		File tree = new File(applied.get(1).toURI());
+		assertTrue(new File(tree, "a/A.class").isFile());
+		assertFalse(new File(tree, "a/res.txt").exists());
+		assertTrue(new File(tree.getParentFile(), ExtractedClassCache.MANIFEST)
+				.isFile());
+
+		// the second jail finds the tree as it is
+		assertEquals(applied, cache.apply(classpath));
+	}
+
+	@Test
+	public void testChangedClasspathGetsANewTree() throws Exception {
+
+		URL jar = jar("lib.jar", "a/A.class");
+		List<URL> first = cache.apply(Arrays.asList(jar));
+
+		URL other = jar("other.jar", "b/B.class");
+		List<URL> second = cache.apply(Arrays.asList(jar, other));
+
+		assertEquals(4, second.size());
+		assertFalse(first.get(0).equals(second.get(0)));
+		assertTrue(new File(new File(second.get(2).toURI()), "b/B.class")
+				.isFile());
+		assertEquals(2, new File(dir, "cache").list().length);
+	}
+
+	@Test
+	public void testLeavesSignedJarsAlone() throws Exception {
+
+		URL jar = jar("signed.jar", "a/A.class", "META-INF/SIGNER.SF");
+		List<URL> classpath = new ArrayList<URL>(Arrays.asList(jar));
+
+		assertEquals(classpath, cache.apply(classpath));
+	}
+
+	private URL jar(String name, String... entries) throws Exception {
+		File file = new File(dir, name);
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+		try {
+			for (String entry : entries) {
+				out.putNextEntry(new ZipEntry(entry));
+				out.write(entry.getBytes("UTF-8"));
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+		return file.toURI().toURL();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FlightEventsTest {
+
+	private static final FlightEvents.Type TYPE = FlightEvents.define(
+			"io.fares.soapui.Test", "Test", "An event of the test", "jars",
+			int.class, "name", String.class);
+
+	@Test
+	public void testNotRecordedWithoutRecording() {
+		FlightEvents.Event event = TYPE.begin();
+		assertFalse(event.isRecorded());
+		// the no-op event takes anything
+		event.set(0, 1).set(5, "ignored").commit();
+	}
+
+	@Test
+	public void testRecordsEvents() throws Exception {
+		assumeTrue(FlightEvents.isAvailable());
+
+		// the test compiles for Java 7, so jdk.jfr is driven by reflection
+		Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+		Object recording = recordingClass.newInstance();
+		recordingClass.getMethod("enable", String.class).invoke(recording,
+				"io.fares.soapui.Test");
+		recordingClass.getMethod("start").invoke(recording);
+
+		FlightEvents.Event event = TYPE.begin();
+		assertTrue(TYPE.isEnabled());
+		event.set(0, 42).set(1, "mapped").commit();
+
+		recordingClass.getMethod("stop").invoke(recording);
+		File file = File.createTempFile("events", ".jfr");
+		try {
+			recordingClass.getMethod("dump", Path.class).invoke(recording,
+					file.toPath());
+
+			List<?> events = (List<?>) Class
+					.forName("jdk.jfr.consumer.RecordingFile")
+					.getMethod("readAllEvents", Path.class)
+					.invoke(null, file.toPath());
+			assertEquals(1, events.size());
+
+			Object recorded = events.get(0);
+			Method getValue = recorded.getClass().getMethod("getValue",
+					String.class);
+			assertEquals(42, getValue.invoke(recorded, "jars"));
+			assertEquals("mapped", getValue.invoke(recorded, "name"));
+		} finally {
+			recordingClass.getMethod("close").invoke(recording);
+			Files.delete(file.toPath());
+		}
+	}
+
+}
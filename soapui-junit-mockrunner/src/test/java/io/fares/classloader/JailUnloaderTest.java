@@ -0,0 +1,85 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class JailUnloaderTest {
+
+	@Test
+	public void testUnloadDetachesThreadsAndCollectsJail() throws Exception {
+
+		ClassLoader jail = new URLClassLoader(new URL[0], getClass()
+				.getClassLoader());
+
+		final CountDownLatch done = new CountDownLatch(1);
+		Thread worker = new Thread("jailed-worker") {
+			@Override
+			public void run() {
+				try {
+					done.await();
+				} catch (InterruptedException e) {
+					// finish
+				}
+			}
+		};
+		worker.setDaemon(true);
+		worker.setContextClassLoader(jail);
+		worker.start();
+
+		try {
+			JailUnloader.Probe probe = new JailUnloader().unload(jail);
+			assertNotSame(jail, worker.getContextClassLoader());
+
+			jail = null;
+			assertTrue(probe.describeRetainers(), probe.awaitCollected(5000));
+		} finally {
+			done.countDown();
+		}
+
+	}
+
+	@Test
+	public void testRetainersAreReported() throws Exception {
+
+		ClassLoader jail = new URLClassLoader(new URL[0], getClass()
+				.getClassLoader());
+		JailUnloader.Probe probe = new JailUnloader().unload(jail);
+
+		// the thread context is re-pointed after the unload
+		Thread.currentThread().setContextClassLoader(jail);
+		ClassLoader original = getClass().getClassLoader();
+		try {
+			assertFalse(probe.awaitCollected(200));
+			assertTrue(probe.describeRetainers().contains(
+					Thread.currentThread().getName()));
+		} finally {
+			Thread.currentThread().setContextClassLoader(original);
+		}
+
+	}
+
+}
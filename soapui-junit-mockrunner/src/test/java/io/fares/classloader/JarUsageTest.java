@@ -0,0 +1,183 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import static org.junit.Assert.*;
+import io.fares.junit.soapui.util.OfflineJails;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JarUsageTest {
+
+	public static class Payload {
+	}
+
+	// finds nothing but what the JDK itself provides
+	private final ClassLoader parent = new ClassLoader(null) {
+	};
+
+	private File dir;
+
+	private URL classes;
+
+	private URL resources;
+
+	private URL unused;
+
+	private Map<URL, String> coordinates = new HashMap<URL, String>();
+
+	private JarUsage usage = new JarUsage();
+
+	@Before
+	public void createJars() throws Exception {
+		dir = Files.createTempDirectory("usage").toFile();
+		classes = jar("classes.jar", Payload.class.getName().replace('.', '/')
+				+ ".class");
+		resources = jar("resources.jar", "used.txt");
+		unused = jar("unused.jar", "unused.txt");
+		coordinates.put(classes, "org.example:classes");
+		coordinates.put(resources, "org.example:resources");
+		coordinates.put(unused, "org.example:unused");
+	}
+
+	@After
+	public void cleanUp() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testRecordingClassLoader() throws Exception {
+		URL[] urls = new URL[] { classes, resources, unused };
+		usage.register(Arrays.asList(urls), coordinates);
+
+		URLClassLoader loader = new JarUsage.RecordingClassLoader(urls,
+				parent, usage);
+		try {
+			assertUsage(loader);
+		} finally {
+			loader.close();
+		}
+	}
+
+	@Test
+	public void testMappedJarClassLoader() throws Exception {
+		URL[] urls = new URL[] { classes, resources, unused };
+		usage.register(Arrays.asList(urls), coordinates);
+
+		MappedJarClassLoader loader = new MappedJarClassLoader(urls, parent);
+		loader.setJarUsage(usage);
+		try {
+			assertUsage(loader);
+		} finally {
+			loader.close();
+		}
+	}
+
+	@Test
+	public void testCannotMeasureLayeredOrCachedJails() {
+		FilteringClassLoaderFactory layered = OfflineJails.newFactory()
+				.withJarUsage(usage).withSharedJarLayer();
+		FilteringClassLoaderFactory cached = OfflineJails.newFactory()
+				.withJarUsage(usage).withClassCache(dir);
+		for (FilteringClassLoaderFactory factory : Arrays.asList(layered,
+				cached)) {
+			try {
+				factory.createClassLoader();
+				fail("unused jars would be reported wrongly");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testWritesReport() throws Exception {
+		usage.register(Arrays.asList(classes, unused), coordinates);
+		usage.recordResource(new URL("jar:" + classes + "!/x.txt"));
+
+		File report = new File(dir, "usage.txt");
+		usage.writeReport(report);
+
+		List<String> lines = Files.readAllLines(report.toPath(),
+				StandardCharsets.UTF_8);
+		assertTrue(lines.contains("0\t1\torg.example:classes\t" + classes));
+		assertTrue(lines.contains("0\t0\torg.example:unused\t" + unused));
+		assertEquals("org.example:unused", lines.get(lines.size() - 1));
+	}
+
+	private void assertUsage(ClassLoader loader) throws Exception {
+		assertNotNull(loader.loadClass(Payload.class.getName()));
+		InputStream in = loader.getResourceAsStream("used.txt");
+		assertNotNull(in);
+		in.close();
+
+		assertEquals(1, usage.getClassCount(classes));
+		assertEquals(1, usage.getResourceCount(resources));
+		assertEquals(Arrays.asList("org.example:unused"),
+				usage.proposeExclusions());
+	}
+
+	private URL jar(String name, String entry) throws Exception {
+		File file = new File(dir, name);
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+		try {
+			out.putNextEntry(new ZipEntry(entry));
+			if (entry.endsWith(".class")) {
+				InputStream in = getClass().getClassLoader()
+						.getResourceAsStream(entry);
+				try {
+					byte[] buffer = new byte[4096];
+					int r;
+					while ((r = in.read(buffer)) != -1) {
+						out.write(buffer, 0, r);
+					}
+				} finally {
+					in.close();
+				}
+			} else {
+				out.write(entry.getBytes("UTF-8"));
+			}
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+		return file.toURI().toURL();
+	}
+
+}
@@ -0,0 +1,162 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JarVerifierTest {
+
+	private File dir;
+
+	private JarVerifier verifier;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = Files.createTempDirectory("verifier").toFile();
+		verifier = new JarVerifier(new File(dir, "digests.properties"));
+	}
+
+	@After
+	public void cleanUp() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testFindsTruncatedJars() throws Exception {
+
+		File intact = jar("intact.jar");
+		File truncated = jar("truncated.jar");
+		RandomAccessFile raf = new RandomAccessFile(truncated, "rw");
+		try {
+			raf.setLength(raf.length() / 2);
+		} finally {
+			raf.close();
+		}
+
+		assertEquals(Collections.singletonList(truncated),
+				verifier.verify(urls(intact, truncated)));
+	}
+
+	@Test
+	public void testChecksumFiles() throws Exception {
+
+		File matching = jar("matching.jar");
+		sidecar(matching, sha1(matching) + "  matching.jar");
+
+		// a wrong checksum file does not condemn an intact jar
+		File wrongSidecar = jar("wrong-sidecar.jar");
+		sidecar(wrongSidecar, "0123456789abcdef0123456789abcdef01234567");
+
+		File corrupt = jar("corrupt.jar");
+		sidecar(corrupt, sha1(corrupt));
+		RandomAccessFile raf = new RandomAccessFile(corrupt, "rw");
+		try {
+			// inside the deflated data of the first entry
+			raf.seek(50);
+			raf.write(~raf.read());
+		} finally {
+			raf.close();
+		}
+
+		assertEquals(Collections.singletonList(corrupt),
+				verifier.verify(urls(matching, wrongSidecar, corrupt)));
+	}
+
+	@Test
+	public void testIntactJarsAreNotHashedAgain() throws Exception {
+
+		File jar = jar("cached.jar");
+		sidecar(jar, sha1(jar));
+		assertTrue(verifier.verify(urls(jar)).isEmpty());
+
+		// same length and time, the manifest trusts it
+		long modified = jar.lastModified();
+		RandomAccessFile raf = new RandomAccessFile(jar, "rw");
+		try {
+			raf.seek(50);
+			raf.write(~raf.read());
+		} finally {
+			raf.close();
+		}
+		jar.setLastModified(modified);
+		assertTrue(verifier.verify(urls(jar)).isEmpty());
+
+		verifier.forget(Arrays.asList(jar));
+		assertEquals(Collections.singletonList(jar), verifier.verify(urls(jar)));
+	}
+
+	private File jar(String name) throws Exception {
+		File file = new File(dir, name);
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+		try {
+			for (int i = 0; i < 20; i++) {
+				out.putNextEntry(new ZipEntry("entry" + i + ".txt"));
+				for (int j = 0; j < 100; j++) {
+					out.write((name + i + j).getBytes("UTF-8"));
+				}
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static void sidecar(File jar, String content) throws Exception {
+		Files.write(new File(jar.getPath() + ".sha1").toPath(),
+				content.getBytes("US-ASCII"));
+	}
+
+	private static String sha1(File file) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-1");
+		return String.format("%040x",
+				new BigInteger(1, md.digest(Files.readAllBytes(file.toPath()))));
+	}
+
+	private static List<URL> urls(File... files) throws Exception {
+		List<URL> urls = new ArrayList<URL>();
+		for (File file : files) {
+			urls.add(file.toURI().toURL());
+		}
+		return urls;
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedJarClassLoaderTest {
+
+	public static class Payload implements Callable<String> {
+		@Override
+		public String call() {
+			return "mapped";
+		}
+	}
+
+	// finds nothing but what the JDK itself provides
+	private final ClassLoader parent = new ClassLoader(null) {
+	};
+
+	private File dir;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = Files.createTempDirectory("mapped").toFile();
+	}
+
+	@After
+	public void cleanUp() {
+		delete(dir);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testLoadsDeflatedClass() throws Exception {
+
+		URL jar = jar("payload.jar");
+		MappedJarClassLoader loader = new MappedJarClassLoader(
+				new URL[] { jar }, parent);
+		try {
+			assertEquals(1, loader.getMappedCount());
+
+			Class<?> clazz = loader.loadClass(Payload.class.getName());
+			assertNotSame(Payload.class, clazz);
+			assertSame(loader, clazz.getClassLoader());
+			assertEquals("mapped", ((Callable<String>) clazz.newInstance())
+					.call());
+			assertEquals(jar, clazz.getProtectionDomain().getCodeSource()
+					.getLocation());
+			assertEquals("1.2.3", clazz.getPackage().getImplementationVersion());
+		} finally {
+			loader.close();
+		}
+	}
+
+	@Test
+	public void testServesStoredAndDeflatedResources() throws Exception {
+
+		URL first = jar("first.jar");
+		URL second = jar("second.jar");
+		MappedJarClassLoader loader = new MappedJarClassLoader(new URL[] {
+				first, second }, parent);
+		try {
+			assertEquals("stored", read(loader.getResourceAsStream("stored.txt")));
+			assertEquals("deflated",
+					read(loader.getResourceAsStream("dir/deflated.txt")));
+			assertNull(loader.getResourceAsStream("missing.txt"));
+
+			// the urls are plain jar urls
+			URL url = loader.getResource("dir/deflated.txt");
+			assertEquals("jar:" + first + "!/dir/deflated.txt", url.toString());
+			assertEquals("deflated", read(url.openStream()));
+
+			List<URL> all = Collections.list(loader.getResources("stored.txt"));
+			assertEquals(2, all.size());
+			assertTrue(all.get(1).toString().startsWith("jar:" + second));
+		} finally {
+			loader.close();
+		}
+	}
+
+	@Test
+	public void testServesDirectoriesAndStopsWhenClosed() throws Exception {
+
+		File classes = new File(dir, "classes");
+		File file = new File(classes, "dir/plain.txt");
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), "plain".getBytes("UTF-8"));
+
+		MappedJarClassLoader loader = new MappedJarClassLoader(
+				new URL[] { classes.toURI().toURL(), jar("payload.jar") },
+				parent);
+		assertEquals("plain", read(loader.getResourceAsStream("dir/plain.txt")));
+		assertEquals(file.toURI().toURL(), loader.getResource("dir/plain.txt"));
+
+		loader.close();
+		assertNull(loader.getResource("dir/plain.txt"));
+		try {
+			loader.loadClass(Payload.class.getName());
+			fail("closed classloader still loads classes");
+		} catch (ClassNotFoundException e) {
+			// expected
+		}
+	}
+
+	private URL jar(String name) throws Exception {
+		Manifest manifest = new Manifest();
+		Attributes main = manifest.getMainAttributes();
+		main.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		main.put(Attributes.Name.IMPLEMENTATION_VERSION, "1.2.3");
+
+		File file = new File(dir, name);
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(file),
+				manifest);
+		try {
+			String path = Payload.class.getName().replace('.', '/') + ".class";
+			out.putNextEntry(new ZipEntry(path));
+			InputStream in = getClass().getClassLoader()
+					.getResourceAsStream(path);
+			try {
+				byte[] buffer = new byte[4096];
+				int r;
+				while ((r = in.read(buffer)) != -1) {
+					out.write(buffer, 0, r);
+				}
+			} finally {
+				in.close();
+			}
+			out.closeEntry();
+
+			byte[] stored = "stored".getBytes("UTF-8");
+			CRC32 crc = new CRC32();
+			crc.update(stored);
+			ZipEntry entry = new ZipEntry("stored.txt");
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(stored.length);
+			entry.setCrc(crc.getValue());
+			out.putNextEntry(entry);
+			out.write(stored);
+			out.closeEntry();
+
+			out.putNextEntry(new ZipEntry("dir/deflated.txt"));
+			out.write("deflated".getBytes("UTF-8"));
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+		return file.toURI().toURL();
+	}
+
+	private static String read(InputStream in) throws Exception {
+		assertNotNull(in);
+		try {
+			StringBuilder sb = new StringBuilder();
+			int c;
+			while ((c = in.read()) != -1) {
+				sb.append((char) c);
+			}
+			return sb.toString();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,166 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.classloader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedJarLayersTest {
+
+	private File dir;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = Files.createTempDirectory("layers").toFile();
+	}
+
+	@After
+	public void cleanUp() {
+		SharedJarLayers.closeAll();
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testIdenticalJarsShareOneLayer() throws Exception {
+
+		ClassLoader parent = getClass().getClassLoader();
+		List<String> prefixes = Arrays.asList("commons-", "xmlbeans");
+
+		// the same library in two locations, as two versions would have it
+		List<URL> first = jars("commons-lang-2.6.jar", "a", "xmlbeans-2.4.jar",
+				"b", "soapui-5.1.3.jar", "c");
+		List<URL> second = new ArrayList<URL>();
+		second.add(jar("copy/commons-lang-2.6.jar", "a"));
+		second.add(jar("copy/xmlbeans-2.4.jar", "b"));
+		second.add(jar("soapui-5.2.1.jar", "d"));
+
+		ClassLoader layer = SharedJarLayers.hoist("key", parent, first,
+				prefixes);
+		assertNotSame(parent, layer);
+		assertEquals(1, first.size());
+		assertTrue(first.get(0).getPath().endsWith("soapui-5.1.3.jar"));
+
+		assertSame(layer, SharedJarLayers.hoist("key", parent, second,
+				prefixes));
+		assertEquals(1, second.size());
+		assertEquals(1, SharedJarLayers.size());
+		assertNotNull(layer.getResource("a.txt"));
+	}
+
+	@Test
+	public void testDifferentJarsGetTheirOwnLayer() throws Exception {
+
+		ClassLoader parent = getClass().getClassLoader();
+		List<String> prefixes = Arrays.asList("commons-");
+
+		ClassLoader first = SharedJarLayers.hoist("key", parent,
+				jars("commons-lang-2.6.jar", "a"), prefixes);
+		ClassLoader second = SharedJarLayers.hoist("key", parent,
+				jars("commons-lang-2.5.jar", "changed"), prefixes);
+		ClassLoader other = SharedJarLayers.hoist("other", parent,
+				jars("commons-lang-2.6.jar", "a"), prefixes);
+
+		assertNotSame(first, second);
+		assertNotSame(first, other);
+		assertSame(parent, SharedJarLayers.hoist("key", parent,
+				jars("soapui-5.2.1.jar", "d"), prefixes));
+	}
+
+	@Test
+	public void testLayerIsClosedWithItsLastJail() throws Exception {
+
+		ClassLoader parent = getClass().getClassLoader();
+		List<String> prefixes = Arrays.asList("commons-");
+
+		ClassLoader layer = SharedJarLayers.hoist("key", parent,
+				jars("commons-lang-2.6.jar", "a"), prefixes);
+		assertSame(layer, SharedJarLayers.hoist("key", parent,
+				jars("copy-commons-lang-2.6.jar", "a"), prefixes));
+
+		assertFalse(SharedJarLayers.release(layer));
+		assertNotNull(layer.getResource("a.txt"));
+		assertTrue(SharedJarLayers.release(layer));
+		assertEquals(0, SharedJarLayers.size());
+		assertNull(layer.getResource("a.txt"));
+
+		// a jail without a layer has nothing to release
+		assertFalse(SharedJarLayers.release(parent));
+	}
+
+	@Test
+	public void testUnloadingTheJailReleasesItsLayer() throws Exception {
+
+		ClassLoader layer = SharedJarLayers.hoist("key", getClass()
+				.getClassLoader(), jars("commons-lang-2.6.jar", "a"), Arrays
+				.asList("commons-"));
+		new JailUnloader().unload(new URLClassLoader(new URL[0], layer));
+		assertEquals(0, SharedJarLayers.size());
+	}
+
+	@Test
+	public void testJettyAndLog4jAreNotSharedByDefault() {
+		for (String prefix : SharedJarLayers.DEFAULT_PREFIXES) {
+			assertFalse(prefix, prefix.startsWith("jetty")
+					|| prefix.startsWith("log4j"));
+		}
+	}
+
+	private List<URL> jars(String... namesAndContent) throws Exception {
+		List<URL> jars = new ArrayList<URL>();
+		for (int i = 0; i < namesAndContent.length; i += 2) {
+			jars.add(jar(namesAndContent[i], namesAndContent[i + 1]));
+		}
+		return jars;
+	}
+
+	private URL jar(String name, String content) throws Exception {
+		File file = new File(dir, name.replace('/', '-'));
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+		try {
+			ZipEntry entry = new ZipEntry(content + ".txt");
+			// fixed time so equal content gives equal jars
+			entry.setTime(0);
+			out.putNextEntry(entry);
+			out.write(content.getBytes("UTF-8"));
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+		return file.toURI().toURL();
+	}
+
+}
@@ -0,0 +1,136 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import static org.junit.Assert.*;
+import io.fares.junit.soapui.util.OfflineJails;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class JailPoolTest {
+
+	@Test
+	public void testTakeHandsOutAWarmJailAndRefills() throws Exception {
+
+		OfflineJails jails = new OfflineJails();
+		JailPool pool = JailPool.getPool("take", jails, 2);
+		try {
+			assertSame(pool, JailPool.getPool("take", jails, 2));
+			awaitCreated(jails, 2);
+
+			ClassLoader jail = pool.take();
+			assertTrue(jails.getCreated().contains(jail));
+			assertFalse(OfflineJails.isClosed(jail));
+
+			// a replacement is prepared in the background
+			awaitCreated(jails, 3);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testCloseUnloadsWarmJails() throws Exception {
+
+		OfflineJails jails = new OfflineJails();
+		JailPool pool = new JailPool(jails, 2, null);
+		pool.take();
+		awaitCreated(jails, 3);
+
+		pool.close();
+		assertTrue(pool.isClosed());
+
+		// all but the jail handed out are unloaded
+		int closed = 0;
+		for (ClassLoader jail : jails.getCreated()) {
+			if (OfflineJails.isClosed(jail)) {
+				closed++;
+			}
+		}
+		assertEquals(2, closed);
+	}
+
+	@Test
+	public void testCloseUnloadsAJailStillBeingPrepared() throws Exception {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final OfflineJails jails = new OfflineJails() {
+			@Override
+			public ClassLoader createClassLoader() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.createClassLoader();
+			}
+		};
+
+		JailPool pool = JailPool.getPool("preparing", jails, 1);
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					// release now
+				}
+				release.countDown();
+			}
+		}.start();
+
+		pool.close();
+		assertEquals(1, jails.getCreated().size());
+		assertTrue(OfflineJails.isClosed(jails.getCreated().get(0)));
+	}
+
+	@Test
+	public void testCloseAllReplacesThePools() throws Exception {
+
+		OfflineJails jails = new OfflineJails();
+		JailPool pool = JailPool.getPool("closeAll", jails, 1);
+		awaitCreated(jails, 1);
+
+		JailPool.closeAll();
+		assertTrue(pool.isClosed());
+		assertTrue(OfflineJails.isClosed(jails.getCreated().get(0)));
+
+		JailPool next = JailPool.getPool("closeAll", jails, 1);
+		try {
+			assertNotSame(pool, next);
+		} finally {
+			next.close();
+		}
+	}
+
+	private static void awaitCreated(OfflineJails jails, int count)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (jails.getCreated().size() < count
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, jails.getCreated().size());
+	}
+
+}
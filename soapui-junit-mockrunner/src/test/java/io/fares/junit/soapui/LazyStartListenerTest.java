@@ -0,0 +1,162 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import static io.fares.junit.soapui.util.LousyWeatherTester.*;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import io.fares.junit.soapui.util.OfflineJails;
+
+public class LazyStartListenerTest {
+
+	@Test
+	public void testClientsConnectingDuringStartAreServed() throws Throwable {
+
+		ServerSocket probe = new ServerSocket(0);
+		final int port = probe.getLocalPort();
+		probe.close();
+
+		SlowMock.starts.set(0);
+		SoapUIMockRunner rule = new SoapUIMockRunner()
+				.withProjectPath(getWeatherMockSoapUIProject())
+				.withMockServiceName("WeatherMockService")
+				.withImplementation(SlowMock.class.getName())
+				.withMockPort(port).lazy();
+		rule.resolver = OfflineJails.newResolver();
+
+		rule.apply(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				ExecutorService clients = Executors.newFixedThreadPool(8);
+				try {
+					List<Future<String>> replies = new ArrayList<Future<String>>();
+					for (int i = 0; i < 8; i++) {
+						replies.add(clients.submit(new Callable<String>() {
+							@Override
+							public String call() throws IOException {
+								return ask(port);
+							}
+						}));
+					}
+					// all clients wait for the slow start instead of failing
+					for (Future<String> reply : replies) {
+						assertEquals("served", reply.get());
+					}
+					// and the port is still held once the mock runs
+					assertEquals("served", ask(port));
+				} finally {
+					clients.shutdownNow();
+				}
+			}
+		}, Description.createTestDescription(LazyStartListenerTest.class,
+				"test")).evaluate();
+
+		assertEquals(1, SlowMock.starts.get());
+		assertFalse(rule.isRunning());
+	}
+
+	private static String ask(int port) throws IOException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			socket.setSoTimeout(10000);
+			return new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), StandardCharsets.UTF_8))
+					.readLine();
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Takes its time to start and then answers every connection.
+	 */
+	public static class SlowMock implements SoapUIMock {
+
+		static final AtomicInteger starts = new AtomicInteger();
+
+		private ServerSocket server;
+
+		@Override
+		public void start(MockRunnerTask task) {
+			starts.incrementAndGet();
+			try {
+				Thread.sleep(500);
+				server = new ServerSocket();
+				server.bind(new InetSocketAddress(InetAddress
+						.getLoopbackAddress(), task.getMockPort()));
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			final ServerSocket socket = server;
+			new Thread("slow-mock") {
+				@Override
+				public void run() {
+					while (true) {
+						try {
+							Socket client = socket.accept();
+							OutputStream out = client.getOutputStream();
+							out.write("served\n".getBytes(StandardCharsets.UTF_8));
+							client.close();
+						} catch (IOException e) {
+							return;
+						}
+					}
+				}
+			}.start();
+		}
+
+		@Override
+		public void stop() {
+			try {
+				server.close();
+			} catch (IOException e) {
+				// stopped anyway
+			}
+		}
+
+		@Override
+		public boolean isRunning() {
+			return server != null && !server.isClosed();
+		}
+
+	}
+
+}
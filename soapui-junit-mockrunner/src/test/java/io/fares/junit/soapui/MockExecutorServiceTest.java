@@ -0,0 +1,130 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class MockExecutorServiceTest {
+
+	@Test
+	public void testThreadsAreNamedDaemons() throws Exception {
+
+		Thread thread = MockExecutorService.getInstance()
+				.submit(new Callable<Thread>() {
+					@Override
+					public Thread call() {
+						return Thread.currentThread();
+					}
+				}).get();
+
+		assertTrue(thread.isDaemon());
+		assertTrue(thread.getName(), thread.getName().startsWith("soapui-mock-"));
+	}
+
+	@Test
+	public void testIdleThreadsAreKeptAndForgetTheJail() throws Exception {
+
+		final ClassLoader jail = new URLClassLoader(new URL[0], getClass()
+				.getClassLoader());
+		ExecutorService executor = MockExecutorService.getInstance()
+				.getExecutor(false);
+
+		Thread worker = executor.submit(new Callable<Thread>() {
+			@Override
+			public Thread call() {
+				Thread.currentThread().setContextClassLoader(jail);
+				return Thread.currentThread();
+			}
+		}).get();
+
+		// wait for the thread to go idle
+		long deadline = System.currentTimeMillis() + 5000;
+		while (worker.getState() != Thread.State.TIMED_WAITING
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		// kept alive for the next task but no longer pointing at the jail
+		assertTrue(worker.isAlive());
+		assertSame(MockExecutorService.class.getClassLoader(),
+				worker.getContextClassLoader());
+	}
+
+	@Test
+	public void testNewThreadsDoNotInheritTheJail() throws Exception {
+
+		ClassLoader original = Thread.currentThread().getContextClassLoader();
+		Thread.currentThread().setContextClassLoader(
+				new URLClassLoader(new URL[0], getClass().getClassLoader()));
+		try {
+			MockExecutorService service = MockExecutorService.getInstance();
+			// more tasks than idle threads so at least one thread is created
+			int tasks = 4;
+			final CountDownLatch started = new CountDownLatch(tasks);
+			List<Future<ClassLoader>> seen = new ArrayList<Future<ClassLoader>>();
+			for (int i = 0; i < tasks; i++) {
+				seen.add(service.submit(new Callable<ClassLoader>() {
+					@Override
+					public ClassLoader call() throws Exception {
+						started.countDown();
+						started.await();
+						return Thread.currentThread().getContextClassLoader();
+					}
+				}));
+			}
+			for (Future<ClassLoader> f : seen) {
+				assertSame(MockExecutorService.class.getClassLoader(), f.get());
+			}
+		} finally {
+			Thread.currentThread().setContextClassLoader(original);
+		}
+	}
+
+	@Test
+	public void testClosedServiceIsReplaced() {
+
+		MockExecutorService service = MockExecutorService.getInstance();
+		service.close();
+		assertTrue(service.isClosed());
+
+		try {
+			service.getExecutor(false);
+			fail("closed service must not hand out executors");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		MockExecutorService next = MockExecutorService.getInstance();
+		assertNotSame(service, next);
+		assertFalse(next.isClosed());
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import static org.junit.Assert.*;
+import io.fares.junit.soapui.util.OfflineJails;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MockMetricsTest {
+
+	private File dir;
+
+	private MockMetrics metrics;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = Files.createTempDirectory("metrics").toFile();
+		metrics = new MockMetrics(dir.getPath());
+	}
+
+	@After
+	public void cleanUp() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testHistogramPercentiles() {
+		MockMetrics.Histogram histogram = new MockMetrics.Histogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		assertEquals(1000, histogram.count());
+		assertEquals(500, histogram.mean());
+		assertEquals(1000, histogram.max());
+		assertEquals(500, histogram.percentile(50), 500 / 32);
+		assertEquals(990, histogram.percentile(99), 990 / 32);
+		assertEquals(7, histogram.percentile(0.7));
+	}
+
+	@Test
+	public void testWritesJsonReport() throws Exception {
+		metrics.record(MockMetrics.START, 2000000000L);
+		metrics.record(MockMetrics.START, 1000000000L);
+		metrics.recordJailPooled();
+		metrics.recordJailShared();
+		metrics.recordGrowth(1200, 4096);
+		metrics.recordRequest(12);
+
+		metrics.writeReport();
+		File report = metrics.getReportFile();
+		assertTrue(report.getName().matches("mockrunner-metrics-.+\\.json"));
+
+		String json = new String(Files.readAllBytes(report.toPath()), "UTF-8");
+		assertTrue(json, json.contains("\"start\": { \"count\": 2, "
+				+ "\"totalMillis\": 3000, \"meanMillis\": 1500, "
+				+ "\"maxMillis\": 2000 }"));
+		assertTrue(json, json.contains("\"cacheHits\": 2"));
+		assertTrue(json, json.contains("\"classesLoaded\": 1200"));
+		assertTrue(json, json.contains("\"p50Millis\": 12"));
+	}
+
+	@Test
+	public void testJailCreationFiguresComeWithTheJail() throws Exception {
+		ClassLoader jail = metrics.createJail(OfflineJails.newFactory());
+		assertNotNull(jail);
+		((Closeable) jail).close();
+
+		String json = metrics.toJson();
+		assertTrue(json, json.contains("\"jails\": { \"created\": 1"));
+		assertFalse(json, json.contains("\"classpathJars\": 0"));
+	}
+
+	@Test
+	public void testDisabledWithoutDirectory() {
+		MockMetrics disabled = new MockMetrics(null);
+		disabled.recordRequest(10);
+		assertFalse(disabled.isEnabled());
+		assertNull(disabled.getReportFile());
+		assertTrue(disabled.toJson().contains("\"count\": 0"));
+	}
+
+}
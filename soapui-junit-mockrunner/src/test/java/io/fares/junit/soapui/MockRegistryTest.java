@@ -0,0 +1,144 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MockRegistryTest {
+
+	private final AtomicInteger started = new AtomicInteger();
+
+	private final Callable<SoapUIMockExecutor> starter = new Callable<SoapUIMockExecutor>() {
+		@Override
+		public SoapUIMockExecutor call() {
+			started.incrementAndGet();
+			// an executor without a mock, stop() records its teardown
+			return new SoapUIMockExecutor();
+		}
+	};
+
+	@After
+	public void stopAll() {
+		MockRegistry.stopAll();
+	}
+
+	private static boolean isStopped(SoapUIMockExecutor executor) {
+		return executor.getTeardownMillis() >= 0;
+	}
+
+	@Test
+	public void testSuiteMockIsSharedUntilTheLastRelease() {
+
+		SoapUIMockExecutor first = MockRegistry.acquire("suite",
+				MockScope.SUITE, starter);
+		SoapUIMockExecutor second = MockRegistry.acquire("suite",
+				MockScope.SUITE, starter);
+		assertSame(first, second);
+		assertEquals(1, started.get());
+
+		MockRegistry.release("suite");
+		assertFalse(isStopped(first));
+
+		MockRegistry.release("suite");
+		assertTrue(isStopped(first));
+
+		SoapUIMockExecutor third = MockRegistry.acquire("suite",
+				MockScope.SUITE, starter);
+		assertNotSame(first, third);
+		assertEquals(2, started.get());
+		MockRegistry.release("suite");
+	}
+
+	@Test
+	public void testJvmMockOutlivesItsReferences() {
+
+		SoapUIMockExecutor first = MockRegistry.acquire("jvm", MockScope.JVM,
+				starter);
+		MockRegistry.release("jvm");
+		assertFalse(isStopped(first));
+
+		assertSame(first, MockRegistry.acquire("jvm", MockScope.JVM, starter));
+		MockRegistry.release("jvm");
+		assertEquals(1, started.get());
+
+		MockRegistry.stopAll();
+		assertTrue(isStopped(first));
+	}
+
+	@Test
+	public void testWidestScopeOfAllHoldersWins() {
+
+		// a class rule joining a JVM wide mock does not shorten its life
+		SoapUIMockExecutor first = MockRegistry.acquire("mixed",
+				MockScope.SUITE, starter);
+		assertSame(first,
+				MockRegistry.acquire("mixed", MockScope.JVM, starter));
+		MockRegistry.release("mixed");
+		MockRegistry.release("mixed");
+		assertFalse(isStopped(first));
+		assertEquals(1, started.get());
+	}
+
+	@Test
+	public void testFailedStartIsNotReferenced() {
+
+		try {
+			MockRegistry.acquire("failing", MockScope.SUITE,
+					new Callable<SoapUIMockExecutor>() {
+						@Override
+						public SoapUIMockExecutor call() {
+							throw new IllegalStateException("port in use");
+						}
+					});
+			fail("start must fail");
+		} catch (RuntimeException e) {
+			assertEquals("port in use", e.getCause().getMessage());
+		}
+
+		// the next holder starts a fresh mock and is the only reference
+		SoapUIMockExecutor mock = MockRegistry.acquire("failing",
+				MockScope.SUITE, starter);
+		assertEquals(1, started.get());
+		MockRegistry.release("failing");
+		assertTrue(isStopped(mock));
+	}
+
+	@Test
+	public void testReleaseOfUnknownKeyIsIgnored() {
+		MockRegistry.release("unknown");
+	}
+
+	@Test
+	public void testSecureMocksOnOtherPortsAreNotShared() {
+		MockRunnerTask first = new MockRunnerTask().withMockServiceName("s")
+				.securePort().withMockPort(8443);
+		MockRunnerTask second = first.copy().withMockPort(9443);
+		assertEquals(first.getMockEndpoint(), second.getMockEndpoint());
+		assertFalse(first.getConfigurationKey().equals(
+				second.getConfigurationKey()));
+	}
+
+}
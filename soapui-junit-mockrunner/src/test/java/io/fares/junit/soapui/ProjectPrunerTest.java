@@ -0,0 +1,97 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+public class ProjectPrunerTest {
+
+	private final URL project = getClass().getClassLoader().getResource(
+			"soapui/TestSoapUIProject-soapui-project.xml");
+
+	@Test
+	public void testKeepsMockServiceAndItsInterface() throws Exception {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ProjectPruner("WeatherMockService").prune(project, out);
+		String pruned = out.toString("UTF-8");
+
+		assertTrue(pruned.contains("name=\"WeatherMockService\""));
+		assertTrue(pruned.contains("Nicely hot and steamy"));
+		// the mock operations are bound to the soap 1.1 interface only
+		assertEquals(1, pruned.split("<con:interface ").length - 1);
+		assertTrue(pruned.contains("bindingName=\"{http://www.webserviceX.NET}GlobalWeatherSoap\""));
+		// sample requests are not needed to mock
+		assertFalse(pruned.contains("<con:call"));
+		assertTrue(pruned.contains("resourceRoot=\""));
+	}
+
+	@Test
+	public void testDropsUnknownMockService() throws Exception {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ProjectPruner("OtherMockService").prune(project, out);
+		String pruned = out.toString("UTF-8");
+
+		assertFalse(pruned.contains("<con:mockService"));
+		assertFalse(pruned.contains("<con:interface"));
+		assertTrue(pruned.contains("<con:soapui-project"));
+	}
+
+	@Test
+	public void testProjectDirPointsToTheOriginalProject() throws Exception {
+
+		File dir = Files.createTempDirectory("pruner").toFile();
+		File copy = new File(dir, "weather-soapui-project.xml");
+		String xml = new String(Files.readAllBytes(Paths.get(project.toURI())),
+				StandardCharsets.UTF_8)
+				.replace("Nicely hot and steamy", "${projectDir}/weather.txt")
+				.replace("docroot=\"\"", "docroot=\"${projectDir}/docs\"");
+		Files.write(copy.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+
+		URL pruned = ProjectPruner.prune(copy.toURI().toURL(),
+				"WeatherMockService");
+		try {
+			String text = new String(Files.readAllBytes(Paths.get(pruned
+					.toURI())), StandardCharsets.UTF_8);
+			String path = dir.getAbsolutePath().replace(File.separatorChar,
+					'/');
+			// the pruned copy lives elsewhere, SoapUI would expand its own dir
+			assertFalse(text.contains("${projectDir}"));
+			assertTrue(text.contains(path + "/weather.txt"));
+			assertTrue(text.contains("<![CDATA["));
+			assertTrue(text.contains("docroot=\"" + path + "/docs\""));
+		} finally {
+			ProjectPruner.delete(pruned);
+			copy.delete();
+			dir.delete();
+		}
+	}
+
+}
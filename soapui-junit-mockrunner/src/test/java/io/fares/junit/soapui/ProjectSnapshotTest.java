@@ -0,0 +1,104 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProjectSnapshotTest {
+
+	private File dir;
+
+	private File project;
+
+	@Before
+	public void copyProject() throws Exception {
+		dir = Files.createTempDirectory("snapshot").toFile();
+		project = new File(dir, "TestSoapUIProject-soapui-project.xml");
+		InputStream in = getClass().getClassLoader().getResourceAsStream(
+				"soapui/TestSoapUIProject-soapui-project.xml");
+		try {
+			Files.copy(in, project.toPath());
+		} finally {
+			in.close();
+		}
+	}
+
+	@After
+	public void deleteProject() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testSnapshotIsReusedUntilProjectChanges() throws Exception {
+
+		URL url = project.toURI().toURL();
+		URL snapshot = ProjectSnapshot.get(url, "WeatherMockService");
+		File snapshotFile = new File(snapshot.toURI());
+
+		assertEquals(dir, snapshotFile.getParentFile());
+		assertEquals(snapshot, ProjectSnapshot.get(url, "WeatherMockService"));
+
+		OutputStream out = new FileOutputStream(project, true);
+		try {
+			out.write("<!-- changed -->".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+
+		URL changed = ProjectSnapshot.get(url, "WeatherMockService");
+		assertNotEquals(snapshot, changed);
+		assertFalse("stale snapshot is removed", snapshotFile.exists());
+		assertEquals(2, dir.listFiles().length);
+	}
+
+	@Test
+	public void testCheckoutsOfTheSameProjectDigestApart() throws Exception {
+
+		File other = Files.createTempDirectory("checkout").toFile();
+		File copy = new File(other, project.getName());
+		Files.copy(project.toPath(), copy.toPath());
+		try {
+			// same content, but the snapshot points to its own project dir
+			assertNotEquals(
+					ProjectSnapshot.digest(project.toURI().toURL(),
+							"WeatherMockService"),
+					ProjectSnapshot.digest(copy.toURI().toURL(),
+							"WeatherMockService"));
+		} finally {
+			copy.delete();
+			other.delete();
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import static org.junit.Assert.*;
+import io.fares.classloader.ClassLoaderFactory;
+import io.fares.junit.soapui.util.OfflineJails;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SharedJailsTest {
+
+	@After
+	public void closeAll() {
+		SharedJails.closeAll();
+	}
+
+	@Test
+	public void testLastHolderUnloadsTheJail() {
+
+		OfflineJails jails = new OfflineJails();
+		ClassLoader first = SharedJails.acquire("lease", jails);
+		ClassLoader second = SharedJails.acquire("lease", jails);
+		assertSame(first, second);
+		assertEquals(1, jails.getCreated().size());
+		assertEquals(2, SharedJails.holders("lease"));
+
+		SharedJails.release("lease", first);
+		assertFalse(OfflineJails.isClosed(first));
+		assertEquals(1, SharedJails.size());
+
+		SharedJails.release("lease", second);
+		assertTrue(OfflineJails.isClosed(first));
+		assertEquals(0, SharedJails.size());
+
+		// the next mock builds a new jail
+		ClassLoader third = SharedJails.acquire("lease", jails);
+		assertNotSame(first, third);
+		SharedJails.release("lease", third);
+	}
+
+	@Test
+	public void testPrefetchedJailIsKeptUntilClosed() throws Exception {
+
+		OfflineJails jails = new OfflineJails();
+		ClassLoader prefetched = SharedJails.prefetch("pinned", jails).get();
+		assertSame(prefetched, SharedJails.acquire("pinned", jails));
+		SharedJails.release("pinned", prefetched);
+		assertFalse(OfflineJails.isClosed(prefetched));
+
+		SharedJails.closeAll();
+		assertTrue(OfflineJails.isClosed(prefetched));
+		assertEquals(0, SharedJails.size());
+	}
+
+	@Test
+	public void testReleaseOfAReplacedJailIsIgnored() {
+
+		OfflineJails jails = new OfflineJails();
+		ClassLoader jail = SharedJails.acquire("stale", jails);
+		SharedJails.release("stale", new URLClassLoader(new URL[0]));
+		SharedJails.release("unknown", jail);
+		assertEquals(1, SharedJails.holders("stale"));
+		assertFalse(OfflineJails.isClosed(jail));
+		SharedJails.release("stale", jail);
+	}
+
+	@Test
+	public void testFailedBuildIsRetried() {
+
+		try {
+			SharedJails.acquire("failing", new ClassLoaderFactory() {
+				@Override
+				public ClassLoader createClassLoader() {
+					throw new IllegalStateException("cannot resolve");
+				}
+
+				@Override
+				public ClassLoader createClassLoader(ClassLoader parent) {
+					return createClassLoader();
+				}
+			});
+			fail("the jail cannot be built");
+		} catch (RuntimeException e) {
+			assertEquals("cannot resolve", e.getCause().getMessage());
+		}
+		assertEquals(0, SharedJails.size());
+
+		OfflineJails jails = new OfflineJails();
+		ClassLoader jail = SharedJails.acquire("failing", jails);
+		assertEquals(1, SharedJails.holders("failing"));
+		SharedJails.release("failing", jail);
+	}
+
+	@Test
+	public void testMocksHandBackTheJailWhenTheyStop() {
+
+		OfflineJails jails = new OfflineJails();
+		SoapUIMockExecutor first = newExecutor(jails);
+		SoapUIMockExecutor second = newExecutor(jails);
+		first.start(new MockRunnerTask());
+		second.start(new MockRunnerTask());
+		assertEquals(1, jails.getCreated().size());
+		ClassLoader jail = jails.getCreated().get(0);
+
+		first.stop();
+		assertFalse(OfflineJails.isClosed(jail));
+		assertEquals(1, SharedJails.holders("executors"));
+
+		second.stop();
+		assertTrue(OfflineJails.isClosed(jail));
+		assertEquals(0, SharedJails.size());
+	}
+
+	private static SoapUIMockExecutor newExecutor(ClassLoaderFactory jails) {
+		SoapUIMockExecutor executor = new SoapUIMockExecutor(jails,
+				IdleMock.class.getName());
+		executor.setSharedJailKey("executors");
+		return executor;
+	}
+
+	public static class IdleMock implements SoapUIMock {
+
+		private volatile boolean running;
+
+		@Override
+		public void start(MockRunnerTask task) {
+			running = true;
+		}
+
+		@Override
+		public void stop() {
+			running = false;
+		}
+
+		@Override
+		public boolean isRunning() {
+			return running;
+		}
+
+	}
+
+}
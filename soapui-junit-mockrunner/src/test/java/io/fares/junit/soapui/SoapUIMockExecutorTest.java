@@ -0,0 +1,170 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import static org.junit.Assert.*;
+import io.fares.classloader.ClassPreloader;
+import io.fares.junit.soapui.util.OfflineJails;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SoapUIMockExecutorTest {
+
+	@Test
+	public void testFailedStartUnloadsTheJail() {
+
+		OfflineJails jails = new OfflineJails();
+		RecordingPreloader preloader = new RecordingPreloader();
+
+		SoapUIMockExecutor executor = new SoapUIMockExecutor(jails,
+				"io.fares.junit.soapui.DoesNotExist");
+		executor.setPreloader(preloader);
+
+		try {
+			executor.start(new MockRunnerTask().withMockServiceName("none"));
+			fail("the mock implementation does not exist");
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof ClassNotFoundException
+					|| e.getCause().getCause() instanceof ClassNotFoundException);
+		}
+
+		assertFalse(executor.isRunning());
+		assertEquals(1, jails.getCreated().size());
+		assertTrue(OfflineJails.isClosed(jails.getCreated().get(0)));
+		assertTrue(preloader.preload.isCancelled());
+
+		// nothing is left to stop
+		executor.stop();
+	}
+
+	@Test
+	public void testFailedStartReturnsNoPooledJail() {
+
+		OfflineJails jails = new OfflineJails();
+		JailPool pool = new JailPool(jails, 1, null);
+		try {
+			SoapUIMockExecutor executor = new SoapUIMockExecutor(jails,
+					"io.fares.junit.soapui.DoesNotExist");
+			executor.setJailPool(pool);
+			try {
+				executor.start(new MockRunnerTask());
+				fail("the mock implementation does not exist");
+			} catch (RuntimeException e) {
+				// expected
+			}
+			// the jail taken is unloaded, the replacement stays warm
+			int closed = 0;
+			for (ClassLoader jail : jails.getCreated()) {
+				if (OfflineJails.isClosed(jail)) {
+					closed++;
+				}
+			}
+			assertEquals(1, closed);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testProjectIsWatchedOncePerMock() throws Exception {
+
+		File project = File.createTempFile("watched", "-soapui-project.xml");
+		project.deleteOnExit();
+		ReloadCounter.reloads.set(0);
+
+		SoapUIMockExecutor executor = new SoapUIMockExecutor(
+				new OfflineJails(), ReloadCounter.class.getName());
+		executor.start(new MockRunnerTask().withProjectFile(project.toURI()
+				.toURL()));
+		try {
+			// two rules sharing the mock both ask for the project to be
+			// watched
+			executor.watchProject();
+			executor.watchProject();
+			assertTrue(executor.isWatchingProject());
+
+			Files.write(project.toPath(),
+					"<changed/>".getBytes(StandardCharsets.UTF_8));
+			long deadline = System.currentTimeMillis() + 10000;
+			while (ReloadCounter.reloads.get() == 0
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			// give a second watcher the time to reload as well
+			Thread.sleep(1000);
+			assertEquals(1, ReloadCounter.reloads.get());
+		} finally {
+			executor.stop();
+		}
+		assertFalse(executor.isWatchingProject());
+	}
+
+	public static class ReloadCounter implements ReloadableSoapUIMock {
+
+		static final AtomicInteger reloads = new AtomicInteger();
+
+		private volatile boolean running;
+
+		@Override
+		public void start(MockRunnerTask task) {
+			running = true;
+		}
+
+		@Override
+		public void reload() {
+			reloads.incrementAndGet();
+		}
+
+		@Override
+		public void stop() {
+			running = false;
+		}
+
+		@Override
+		public boolean isRunning() {
+			return running;
+		}
+
+	}
+
+	private static class RecordingPreloader extends ClassPreloader {
+
+		volatile Preload preload;
+
+		RecordingPreloader() {
+			super(Arrays.asList("java.lang.String"));
+		}
+
+		@Override
+		public Preload preload(ClassLoader jail, Executor executor) {
+			preload = super.preload(jail, executor);
+			return preload;
+		}
+
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import static io.fares.junit.soapui.util.LousyWeatherTester.*;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import io.fares.junit.soapui.util.OfflineJails;
+
+public class SoapUIMockRunnerStartFailureTest {
+
+	private static final String MISSING_IMPL = "io.fares.junit.soapui.internal.DoesNotExist";
+
+	private static SoapUIMockRunner newRule() {
+		SoapUIMockRunner rule = new SoapUIMockRunner()
+				.withProjectPath(getWeatherMockSoapUIProject())
+				.withMockServiceName("WeatherMockService")
+				.withImplementation(MISSING_IMPL);
+		rule.resolver = OfflineJails.newResolver();
+		return rule;
+	}
+
+	private static void evaluate(SoapUIMockRunner rule, Statement test)
+			throws Throwable {
+		rule.apply(test,
+				Description.createTestDescription(
+						SoapUIMockRunnerStartFailureTest.class, "test"))
+				.evaluate();
+	}
+
+	private static int freePort() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void testFailedStartLeavesNoRunner() throws Throwable {
+
+		SoapUIMockRunner rule = newRule();
+		for (int i = 0; i < 2; i++) {
+			try {
+				evaluate(rule, new Statement() {
+					@Override
+					public void evaluate() {
+						fail("test must not run without a mock");
+					}
+				});
+				fail("start must fail");
+			} catch (RuntimeException e) {
+				// expected, the implementation is not in the jail
+			}
+			// the next class tries again instead of using a dead mock
+			assertFalse(rule.isRunning());
+		}
+	}
+
+	@Test
+	public void testLazyStartFailureIsRethrownToTheTest() throws Throwable {
+
+		final SoapUIMockRunner rule = newRule().lazy();
+		final AtomicReference<Throwable> first = new AtomicReference<Throwable>();
+		evaluate(rule, new Statement() {
+			@Override
+			public void evaluate() {
+				try {
+					rule.getMockEndpoint();
+					fail("start must fail");
+				} catch (RuntimeException e) {
+					first.set(e);
+				}
+				try {
+					rule.getMockEndpoint();
+					fail("a failed mock must not be handed out");
+				} catch (RuntimeException e) {
+					assertSame(first.get(), e.getCause());
+				}
+				assertFalse(rule.isRunning());
+			}
+		});
+		assertNotNull(first.get());
+	}
+
+	@Test
+	public void testFirstConnectionFailureFailsTheTest() throws Throwable {
+
+		final int port = freePort();
+		final SoapUIMockRunner rule = newRule().withMockPort(port).lazy();
+		try {
+			evaluate(rule, new Statement() {
+				@Override
+				public void evaluate() throws Throwable {
+					Socket client = new Socket(InetAddress.getLoopbackAddress(),
+							port);
+					try {
+						// the listener closes the client when the start fails
+						assertEquals(-1, client.getInputStream().read());
+					} finally {
+						client.close();
+					}
+				}
+			});
+			fail("the failed start must be reported");
+		} catch (RuntimeException e) {
+			assertEquals("Mock failed to start on the first connection",
+					e.getMessage());
+		}
+		assertFalse(rule.isRunning());
+	}
+
+}
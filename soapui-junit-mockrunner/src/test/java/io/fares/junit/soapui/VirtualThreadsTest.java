@@ -0,0 +1,92 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.Test;
+
+public class VirtualThreadsTest {
+
+	@Test
+	public void testThreadsCarryTheContextClassLoader() throws Exception {
+
+		assumeTrue(VirtualThreads.isSupported());
+
+		ClassLoader jail = new URLClassLoader(new URL[0], getClass()
+				.getClassLoader());
+		ThreadFactory factory = VirtualThreads.newThreadFactory("test", jail);
+
+		final ClassLoader[] seen = new ClassLoader[1];
+		Thread t = factory.newThread(new Runnable() {
+			@Override
+			public void run() {
+				seen[0] = Thread.currentThread().getContextClassLoader();
+			}
+		});
+		assertTrue(t.getName().startsWith("test-"));
+		t.start();
+		t.join();
+		assertSame(jail, seen[0]);
+	}
+
+	@Test
+	public void testExecutorRunsTasks() throws Exception {
+
+		assumeTrue(VirtualThreads.isSupported());
+
+		ExecutorService executor = VirtualThreads.newExecutor("test", null);
+		try {
+			assertEquals("done", executor.submit(new Callable<String>() {
+				@Override
+				public String call() {
+					return "done";
+				}
+			}).get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testUnsupportedJdkIsRefused() {
+
+		assumeFalse(VirtualThreads.isSupported());
+
+		try {
+			VirtualThreads.newThreadFactory("test", null);
+			fail("virtual threads are not supported");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		// mocks fall back to platform threads
+		MockExecutorService service = MockExecutorService.getInstance();
+		assertSame(service.getExecutor(false), service.getExecutor(true));
+	}
+
+}
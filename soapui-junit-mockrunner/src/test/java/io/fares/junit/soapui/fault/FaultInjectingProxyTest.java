@@ -0,0 +1,246 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.fault;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FaultInjectingProxyTest {
+
+	private ServerSocket mock;
+
+	private final AtomicInteger served = new AtomicInteger();
+
+	private FaultInjectingProxy proxy;
+
+	@Before
+	public void startMock() throws Exception {
+		mock = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread thread = new Thread("fake-mock") {
+			@Override
+			public void run() {
+				while (!mock.isClosed()) {
+					try {
+						serve(mock.accept());
+					} catch (IOException e) {
+						// closed
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@After
+	public void stop() throws Exception {
+		if (proxy != null) {
+			proxy.close();
+		}
+		mock.close();
+	}
+
+	@Test
+	public void testLatencyIsAddedPerOperation() throws Exception {
+
+		start(new FaultProfile().withOperation("GetWeather",
+				new FaultRule().withLatency(300)));
+
+		long start = System.nanoTime();
+		assertEquals(200, post("http://www.webserviceX.NET/GetWeather", 2));
+		assertTrue((System.nanoTime() - start) / 1000000 >= 300);
+
+		start = System.nanoTime();
+		assertEquals(200, post("http://www.webserviceX.NET/GetCitiesByCountry", 2));
+		assertTrue((System.nanoTime() - start) / 1000000 < 300);
+
+		assertEquals(2, proxy.getRequests());
+		assertEquals(1, proxy.getDelayed());
+		assertEquals(2, served.get());
+	}
+
+	@Test
+	public void testErrorsAndResetsDoNotReachTheMock() throws Exception {
+
+		start(new FaultProfile()
+				.withOperation("GetWeather",
+						new FaultRule().withErrorRate(1, 503))
+				.withOperation("GetCitiesByCountry",
+						new FaultRule().withResetRate(1)));
+
+		assertEquals(503, post("GetWeather", 2));
+
+		try {
+			post("GetCitiesByCountry", 2);
+			fail("connection should have been reset");
+		} catch (IOException e) {
+			// expected
+		}
+
+		assertEquals(1, proxy.getErrors());
+		// HttpURLConnection retries a reset POST once
+		assertTrue(proxy.getResets() >= 1);
+		assertEquals(0, served.get());
+	}
+
+	@Test
+	public void testResponsesAreThrottled() throws Exception {
+
+		start(new FaultProfile().withDefault(new FaultRule()
+				.withBandwidth(4000)));
+
+		long start = System.nanoTime();
+		assertEquals(200, post("GetWeather", 2000));
+		assertTrue((System.nanoTime() - start) / 1000000 >= 400);
+	}
+
+	@Test
+	public void testMalformedRequestOnlyClosesItsConnection() throws Exception {
+
+		start(new FaultProfile());
+
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+				proxy.getPort());
+		try {
+			socket.setSoTimeout(5000);
+			socket.getOutputStream().write(("POST /mock?size=2 HTTP/1.1\r\n"
+					+ "Content-Length: lots\r\n\r\n").getBytes("ISO-8859-1"));
+			assertEquals(-1, socket.getInputStream().read());
+		} catch (IOException e) {
+			// closed, possibly with a reset
+		} finally {
+			socket.close();
+		}
+
+		// the proxy keeps serving
+		assertEquals(200, post("GetWeather", 2));
+		assertEquals(1, served.get());
+	}
+
+	@Test
+	public void testDecisionsDependOnSeedAndSequenceOnly() {
+
+		FaultProfile profile = new FaultProfile().withSeed(7).withDefault(
+				new FaultRule().withErrorRate(0.5).withLatency(10, 100));
+
+		FaultProfile.Fault[] first = new FaultProfile.Fault[50];
+		for (int i = 0; i < first.length; i++) {
+			first[i] = profile.decide("GetWeather", i);
+		}
+
+		int errors = 0;
+		for (int i = 0; i < first.length; i++) {
+			// interleave another operation, it must not shift the draws
+			profile.decide("GetCitiesByCountry", i);
+			FaultProfile.Fault again = profile.decide("GetWeather", i);
+			assertEquals(first[i].getKind(), again.getKind());
+			assertEquals(first[i].getLatencyMillis(), again.getLatencyMillis());
+			if (again.getKind() == FaultProfile.Fault.Kind.ERROR) {
+				errors++;
+			} else {
+				assertTrue(again.getLatencyMillis() >= 10);
+				assertTrue(again.getLatencyMillis() <= 110);
+			}
+		}
+		assertTrue(errors > 10 && errors < 40);
+	}
+
+	private void start(FaultProfile profile) {
+		proxy = new FaultInjectingProxy(profile, new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), 0), new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), mock.getLocalPort())).start();
+	}
+
+	private int post(String action, int responseSize) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				"http://localhost:" + proxy.getPort() + "/mock?size="
+						+ responseSize).openConnection();
+		connection.setDoOutput(true);
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("Content-Type", "text/xml;charset=UTF-8");
+		connection.setRequestProperty("SOAPAction", "\"" + action + "\"");
+		OutputStream out = connection.getOutputStream();
+		out.write("<Envelope><Body/></Envelope>".getBytes("UTF-8"));
+		out.close();
+		int status = connection.getResponseCode();
+		InputStream in = status < 400 ? connection.getInputStream()
+				: connection.getErrorStream();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			body.write(buffer, 0, n);
+		}
+		in.close();
+		if (status == 200) {
+			assertEquals(responseSize, body.size());
+		}
+		return status;
+	}
+
+	private void serve(Socket socket) throws IOException {
+		try {
+			InputStream in = socket.getInputStream();
+			ByteArrayOutputStream head = new ByteArrayOutputStream();
+			while (!head.toString("ISO-8859-1").endsWith("\r\n\r\n")) {
+				int b = in.read();
+				if (b < 0) {
+					return;
+				}
+				head.write(b);
+			}
+			String request = head.toString("ISO-8859-1");
+			String length = request.replaceAll(
+					"(?is).*content-length:\\s*(\\d+).*", "$1");
+			for (int i = Integer.parseInt(length.trim()); i > 0; i--) {
+				in.read();
+			}
+			int size = Integer.parseInt(request.replaceAll(
+					"(?s)^\\S+ \\S*size=(\\d+).*", "$1"));
+			served.incrementAndGet();
+			byte[] body = new byte[size];
+			Arrays.fill(body, (byte) 'x');
+			OutputStream out = socket.getOutputStream();
+			out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + size
+					+ "\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+			out.write(body);
+			out.flush();
+		} finally {
+			socket.close();
+		}
+	}
+
+}
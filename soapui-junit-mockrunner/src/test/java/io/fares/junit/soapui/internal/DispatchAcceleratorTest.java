@@ -0,0 +1,199 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class DispatchAcceleratorTest {
+
+	private static final String PATH = "declare namespace web='http://www.webserviceX.NET';\n//web:CityName";
+
+	@Test
+	public void testStreamingXPathSelectsValuesInDocumentOrder()
+			throws Exception {
+
+		StreamingXPath xpath = StreamingXPath.compile(PATH);
+		assertNotNull(xpath);
+		assertEquals(Arrays.asList("Sydney", "Perth"),
+				xpath.evaluate(request("Sydney", "Perth")));
+
+		// predicates are left to SoapUI
+		assertNull(StreamingXPath.compile(PATH + "[1]"));
+		assertNull(StreamingXPath.compile("//undeclared:CityName"));
+
+		assertEquals(Arrays.asList("AU"), StreamingXPath.compile(
+				"declare namespace web='http://www.webserviceX.NET';"
+						+ "//web:GetWeather/@country").evaluate(
+				request("Sydney")));
+
+		assertEquals(Collections.emptyList(), StreamingXPath.compile(
+				"/Envelope/Body").evaluate(request("Sydney")));
+	}
+
+	@Test
+	public void testDispatchIsStreamedAndCached() throws Exception {
+
+		FakeDispatcher soapui = new FakeDispatcher();
+		FakeOperation operation = new FakeOperation("XPATH", PATH, soapui,
+				"Sydney", "Default");
+
+		assertTrue(DispatchAccelerator.accelerate(operation, 16));
+		assertFalse(DispatchAccelerator.accelerate(operation, 16));
+
+		// streamed without asking SoapUI
+		assertEquals("Sydney", operation.dispatch(request("Sydney")).getName());
+		assertEquals(0, soapui.calls);
+
+		// SoapUI decides once, then the decision is cached
+		assertNull(operation.dispatch(request("Perth")));
+		assertNull(operation.dispatch(request("Perth")));
+		assertEquals(1, soapui.calls);
+	}
+
+	@Test
+	public void testOnlyTheFirstValueNamesTheResponse() throws Exception {
+
+		FakeDispatcher soapui = new FakeDispatcher();
+		FakeOperation operation = new FakeOperation("XPATH", PATH, soapui,
+				"Sydney", "Default");
+		assertTrue(DispatchAccelerator.accelerate(operation, 16));
+
+		// SoapUI finds no response named Perth and ignores Sydney
+		assertNull(operation.dispatch(request("Perth", "Sydney")));
+		assertEquals(1, soapui.calls);
+
+		assertEquals("Sydney", operation.dispatch(request("Sydney", "Perth"))
+				.getName());
+		assertEquals(1, soapui.calls);
+	}
+
+	@Test
+	public void testScriptDispatchIsLeftAlone() {
+		FakeOperation operation = new FakeOperation("SCRIPT", null,
+				new FakeDispatcher(), "Sydney");
+		assertFalse(DispatchAccelerator.accelerate(operation, 16));
+	}
+
+	private static String request(String... cities) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:web=\"http://www.webserviceX.NET\">");
+		sb.append("<soapenv:Header/><soapenv:Body><web:GetWeather country=\"AU\">");
+		for (String city : cities) {
+			sb.append("<web:CityName>").append(city).append("</web:CityName>");
+		}
+		sb.append("</web:GetWeather></soapenv:Body></soapenv:Envelope>");
+		return sb.toString();
+	}
+
+	public interface Dispatcher {
+		FakeResponse selectMockResponse(FakeRequest request, Object result);
+	}
+
+	public static class FakeDispatcher implements Dispatcher {
+
+		int calls = 0;
+
+		@Override
+		public FakeResponse selectMockResponse(FakeRequest request,
+				Object result) {
+			calls++;
+			return null;
+		}
+
+	}
+
+	public static class FakeOperation {
+
+		private final String dispatchStyle;
+
+		private final String dispatchPath;
+
+		private final Map<String, FakeResponse> responses = new HashMap<String, FakeResponse>();
+
+		private Dispatcher dispatcher;
+
+		FakeOperation(String dispatchStyle, String dispatchPath,
+				Dispatcher dispatcher, String... responseNames) {
+			this.dispatchStyle = dispatchStyle;
+			this.dispatchPath = dispatchPath;
+			this.dispatcher = dispatcher;
+			for (String name : responseNames) {
+				responses.put(name, new FakeResponse(name));
+			}
+		}
+
+		public String getDispatchStyle() {
+			return dispatchStyle;
+		}
+
+		public String getDispatchPath() {
+			return dispatchPath;
+		}
+
+		public String getName() {
+			return "GetWeather";
+		}
+
+		public FakeResponse getMockResponseByName(String name) {
+			return responses.get(name);
+		}
+
+		FakeResponse dispatch(String content) {
+			return dispatcher.selectMockResponse(new FakeRequest(content), null);
+		}
+
+	}
+
+	public static class FakeRequest {
+
+		private final String content;
+
+		FakeRequest(String content) {
+			this.content = content;
+		}
+
+		public String getRequestContent() {
+			return content;
+		}
+
+	}
+
+	public static class FakeResponse {
+
+		private final String name;
+
+		FakeResponse(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+	}
+
+}
@@ -0,0 +1,265 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.internal;
+
+import static org.junit.Assert.*;
+import io.fares.junit.soapui.MockRunnerTask;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class JettyMockEngineSupportTest {
+
+	private static final String ACCEPTORS = JettyMockEngineSupport.CONNECTOR_PREFIX
+			+ "acceptors";
+
+	private static final String QUEUE = JettyMockEngineSupport.CONNECTOR_PREFIX
+			+ "acceptQueueSize";
+
+	private static final String IDLE = JettyMockEngineSupport.CONNECTOR_PREFIX
+			+ "maxIdleTime";
+
+	@Test
+	public void testConnectorPropertiesAreAppliedAndRestored() {
+
+		System.setProperty(ACCEPTORS, "7");
+		System.clearProperty(QUEUE);
+		System.clearProperty(IDLE);
+		try {
+			MockRunnerTask task = new MockRunnerTask().withAcceptors(2)
+					.withAcceptQueueSize(64);
+
+			Map<String, String> previous = JettyMockEngineSupport
+					.applyConnectorProperties(task);
+			assertEquals("2", System.getProperty(ACCEPTORS));
+			assertEquals("64", System.getProperty(QUEUE));
+			// untuned options are left alone
+			assertNull(System.getProperty(IDLE));
+			assertFalse(previous.containsKey(IDLE));
+
+			JettyMockEngineSupport.restoreProperties(previous);
+			assertEquals("7", System.getProperty(ACCEPTORS));
+			assertNull(System.getProperty(QUEUE));
+		} finally {
+			System.clearProperty(ACCEPTORS);
+		}
+	}
+
+	@Test
+	public void testIdleTimeoutMapsToMaxIdleTime() {
+		Map<String, String> previous = JettyMockEngineSupport
+				.applyConnectorProperties(new MockRunnerTask()
+						.withIdleTimeout(1500));
+		try {
+			assertEquals("1500", System.getProperty(IDLE));
+		} finally {
+			JettyMockEngineSupport.restoreProperties(previous);
+		}
+		assertNull(System.getProperty(IDLE));
+	}
+
+	@Test
+	public void testThreadPoolIsSized() {
+
+		FakePool pool = new FakePool(2, 254);
+		FakeServer server = new FakeServer(pool);
+		JettyMockEngineSupport.sizeThreadPool(server, 16);
+		assertEquals(16, pool.max);
+		assertEquals(2, pool.min);
+
+		// the minimum never exceeds the maximum
+		JettyMockEngineSupport.sizeThreadPool(server, 1);
+		assertEquals(1, pool.max);
+		assertEquals(1, pool.min);
+	}
+
+	@Test
+	public void testUnsizablePoolIsSkipped() {
+		// SoapUI keeps its defaults, nothing is thrown
+		JettyMockEngineSupport.sizeThreadPool(new FakeServer(new Object()), 16);
+		JettyMockEngineSupport.sizeThreadPool(new FakeServer(null), 16);
+	}
+
+	@Test
+	public void testUntunedTaskLeavesThePoolAlone() {
+		// no server is looked up if the worker threads are not set
+		assertTrue(JettyMockEngineSupport.applyThreadPool(new MockRunnerTask()));
+	}
+
+	@Test
+	public void testGracefulShutdownIsSet() {
+		FakeServer server = new FakeServer(null);
+		JettyMockEngineSupport.setGracefulShutdown(server, 2500);
+		assertEquals(2500, server.gracefulShutdown);
+	}
+
+	@Test
+	public void testServerWithoutGracefulShutdownIsSkipped() {
+		// an old Jetty stops without waiting, nothing is thrown
+		JettyMockEngineSupport.setGracefulShutdown(new Object(), 2500);
+	}
+
+	@Test
+	public void testDefaultStopTimeoutLeavesTheServerAlone() {
+		// no server is looked up if the stop timeout is not set
+		JettyMockEngineSupport.applyGracefulShutdown(new MockRunnerTask());
+	}
+
+	@Test
+	public void testConnectorsAreClosed() {
+		FakeConnector first = new FakeConnector();
+		FakeConnector second = new FakeConnector();
+		FakeServer server = new FakeServer(null);
+		server.connectors = new Object[] { first, new Object(), second };
+
+		// connectors without close() are skipped
+		JettyMockEngineSupport.closeConnectors(server);
+		assertTrue(first.closed);
+		assertTrue(second.closed);
+	}
+
+	@Test
+	public void testServerWithoutConnectorsIsSkipped() {
+		JettyMockEngineSupport.closeConnectors(new FakeServer(null));
+		JettyMockEngineSupport.closeConnectors(new Object());
+	}
+
+	@Test
+	public void testVirtualThreadPoolStartsAThreadPerJob() throws Exception {
+
+		ThreadPool pool = (ThreadPool) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class<?>[] { ThreadPool.class },
+				new JettyMockEngineSupport.VirtualThreadPool(Executors
+						.defaultThreadFactory()));
+
+		final CountDownLatch running = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable job = new Runnable() {
+			@Override
+			public void run() {
+				running.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					// finish
+				}
+			}
+		};
+
+		assertTrue(pool.dispatch(job));
+		assertTrue(pool.dispatch(job));
+		assertTrue(running.await(5, TimeUnit.SECONDS));
+		assertEquals(2, pool.getThreads());
+		assertEquals(0, pool.getIdleThreads());
+		assertFalse(pool.isLowOnThreads());
+
+		release.countDown();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (pool.getThreads() > 0
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, pool.getThreads());
+	}
+
+	/**
+	 * The shape of the Jetty 6 <code>ThreadPool</code> interface
+	 */
+	public interface ThreadPool {
+
+		boolean dispatch(Runnable job);
+
+		int getThreads();
+
+		int getIdleThreads();
+
+		boolean isLowOnThreads();
+
+		void join() throws InterruptedException;
+
+	}
+
+	public static class FakeServer {
+
+		final Object pool;
+
+		FakeServer(Object pool) {
+			this.pool = pool;
+		}
+
+		int gracefulShutdown = -1;
+
+		Object[] connectors;
+
+		public Object getThreadPool() {
+			return pool;
+		}
+
+		public void setGracefulShutdown(int millis) {
+			gracefulShutdown = millis;
+		}
+
+		public Object[] getConnectors() {
+			return connectors;
+		}
+
+	}
+
+	public static class FakeConnector {
+
+		boolean closed;
+
+		public void close() {
+			closed = true;
+		}
+
+	}
+
+	public static class FakePool {
+
+		int min;
+
+		int max;
+
+		FakePool(int min, int max) {
+			this.min = min;
+			this.max = max;
+		}
+
+		public int getMinThreads() {
+			return min;
+		}
+
+		public void setMinThreads(int min) {
+			this.min = min;
+		}
+
+		public void setMaxThreads(int max) {
+			this.max = max;
+		}
+
+	}
+
+}
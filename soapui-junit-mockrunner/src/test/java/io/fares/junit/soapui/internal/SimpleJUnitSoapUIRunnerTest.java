@@ -19,10 +19,18 @@
  */
 package io.fares.junit.soapui.internal;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
 import static org.junit.Assert.*;
 
+import org.junit.Assume;
 import org.junit.Test;
 
 import io.fares.classloader.AetherClasspathResolver;
@@ -33,6 +41,7 @@ import static io.fares.junit.soapui.util.LousyWeatherTester.*;
 import io.fares.junit.soapui.SoapUIMock;
 import io.fares.junit.soapui.SoapUIMockExecutor;
 import io.fares.junit.soapui.MockRunnerTask;
+import io.fares.junit.soapui.VirtualThreads;
 
 public class SimpleJUnitSoapUIRunnerTest {
 
@@ -42,6 +51,101 @@ public class SimpleJUnitSoapUIRunnerTest {
 	@Test
 	public void testRunner() throws Exception {
 
+		MockRunnerTask task = new MockRunnerTask().withProjectFile(
+				getWeatherMockSoapUIProject()).withMockServiceName(
+				"WeatherMockService");
+
+		SoapUIMockExecutor executor = new SoapUIMockExecutor(
+				newClassLoaderFactory(), SoapUIMockExecutor.SIMPLE_IMPL);
+
+		executor.start(task);
+		assertTrue(executor.isRunning());
+		String rs = testWeatherMockService();
+		LOG.info(rs);
+		executor.stop();
+
+	}
+
+	@Test
+	public void testReloadKeepsServing() throws Exception {
+
+		final MockRunnerTask task = new MockRunnerTask().withProjectFile(
+				getWeatherMockSoapUIProject()).withMockServiceName(
+				"WeatherMockService");
+
+		SoapUIMockExecutor executor = new SoapUIMockExecutor(
+				newClassLoaderFactory(), SoapUIMockExecutor.SIMPLE_IMPL);
+		executor.start(task);
+
+		final AtomicBoolean reloading = new AtomicBoolean(true);
+		final AtomicInteger served = new AtomicInteger();
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		Thread client = new Thread("reload-client") {
+			@Override
+			public void run() {
+				while (reloading.get()) {
+					try {
+						if (testWeatherMockService(task.getMockEndpoint())
+								.contains("GetWeatherResponse")) {
+							served.incrementAndGet();
+						}
+					} catch (Exception e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			}
+		};
+		client.start();
+
+		try {
+			for (int i = 0; i < 5; i++) {
+				executor.reload();
+			}
+		} finally {
+			reloading.set(false);
+			client.join();
+			executor.stop();
+		}
+
+		// no request may find the port closed or the path unserved
+		assertNull(failure.get());
+		assertTrue(served.get() > 0);
+
+	}
+
+	@Test
+	public void testVirtualThreadsServeRequests() throws Exception {
+
+		Assume.assumeTrue(VirtualThreads.isSupported());
+
+		// the response tells on which kind of thread it was rendered
+		String project = new String(Files.readAllBytes(Paths.get(
+				getWeatherMockSoapUIProject().toURI())),
+				StandardCharsets.UTF_8).replace("Nicely hot and steamy",
+				"${=Thread.currentThread().isVirtual()}");
+		File projectFile = File.createTempFile("virtual", "-soapui-project.xml");
+		projectFile.deleteOnExit();
+		Files.write(projectFile.toPath(),
+				project.getBytes(StandardCharsets.UTF_8));
+
+		MockRunnerTask task = new MockRunnerTask()
+				.withProjectFile(projectFile.toURI().toURL())
+				.withMockServiceName("WeatherMockService").virtualThreads();
+
+		SoapUIMockExecutor executor = new SoapUIMockExecutor(
+				newClassLoaderFactory(), SoapUIMockExecutor.SIMPLE_IMPL);
+		executor.start(task);
+		try {
+			String rs = testWeatherMockService(task.getMockEndpoint());
+			assertTrue(rs, rs.contains(">true</web:GetWeatherResult>"));
+		} finally {
+			executor.stop();
+		}
+
+	}
+
+	private FilteringClassLoaderFactory newClassLoaderFactory() {
+
 		ClasspathResolver resolver = new AetherClasspathResolver();
 
 		// first need to configure the resolver with soapui dependency and repo
@@ -68,22 +172,11 @@ public class SimpleJUnitSoapUIRunnerTest {
 		// with class cast exception
 		clf.addIncludeClazzContainerURLs(SoapUIMock.class, MockRunnerTask.class);
 
-		MockRunnerTask task = new MockRunnerTask().withProjectFile(
-				getWeatherMockSoapUIProject()).withMockServiceName(
-				"WeatherMockService");
-
 		// create a class loader with the tests classloader as parent
 		// this parent will be firewalled
 		clf.setParentClassLoader(getClass().getClassLoader());
 
-		SoapUIMockExecutor executor = new SoapUIMockExecutor(clf,
-				SoapUIMockExecutor.SIMPLE_IMPL);
-
-		executor.start(task);
-		assertTrue(executor.isRunning());
-		String rs = testWeatherMockService();
-		LOG.info(rs);
-		executor.stop();
+		return clf;
 
 	}
 }
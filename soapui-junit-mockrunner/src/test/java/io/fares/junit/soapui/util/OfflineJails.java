@@ -0,0 +1,116 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package io.fares.junit.soapui.util;
+
+import static io.fares.junit.soapui.SoapUI.*;
+import io.fares.classloader.ClassLoaderFactory;
+import io.fares.classloader.ClasspathResolver;
+import io.fares.classloader.FilteringClassLoaderFactory;
+import io.fares.junit.soapui.MockRunnerTask;
+import io.fares.junit.soapui.SoapUIMock;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds jails without SoapUI for tests of the jail lifecycle, the jail only
+ * contains the classes of this library.
+ */
+public class OfflineJails implements ClassLoaderFactory {
+
+	private final FilteringClassLoaderFactory factory = newFactory();
+
+	private final List<ClassLoader> created = new ArrayList<ClassLoader>();
+
+	/**
+	 * @return a factory building jails from an empty classpath
+	 */
+	public static FilteringClassLoaderFactory newFactory() {
+		FilteringClassLoaderFactory clf = new FilteringClassLoaderFactory(
+				newResolver());
+		clf.addPassFilters(DEFAULT_PASSFILTER);
+		clf.addBlockFilters(DEFAULT_BLOCKFILTER);
+		clf.addIncludeClazzContainerURLs(SoapUIMock.class, MockRunnerTask.class);
+		clf.setParentClassLoader(OfflineJails.class.getClassLoader());
+		return clf;
+	}
+
+	/**
+	 * @return a resolver that resolves nothing
+	 */
+	public static ClasspathResolver newResolver() {
+		return (ClasspathResolver) Proxy.newProxyInstance(
+				OfflineJails.class.getClassLoader(),
+				new Class<?>[] { ClasspathResolver.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if (method.getReturnType() == List.class) {
+							return Collections.<URL> emptyList();
+						}
+						if (method.getReturnType() == ClasspathResolver.class) {
+							return proxy;
+						}
+						return null;
+					}
+				});
+	}
+
+	/**
+	 * @param jail
+	 *            a jail built by this library
+	 *
+	 * @return true if the jail has been closed
+	 */
+	public static boolean isClosed(ClassLoader jail) {
+		// a closed jail no longer finds the classes of its own classpath
+		return ((URLClassLoader) jail).findResource(SoapUIMock.class
+				.getName().replace('.', '/') + ".class") == null;
+	}
+
+	@Override
+	public synchronized ClassLoader createClassLoader() {
+		ClassLoader jail = factory.createClassLoader();
+		created.add(jail);
+		return jail;
+	}
+
+	@Override
+	public synchronized ClassLoader createClassLoader(ClassLoader parent) {
+		ClassLoader jail = factory.createClassLoader(parent);
+		created.add(jail);
+		return jail;
+	}
+
+	/**
+	 * @return the jails created so far
+	 */
+	public synchronized List<ClassLoader> getCreated() {
+		return new ArrayList<ClassLoader>(created);
+	}
+
+}